@@ -0,0 +1,23 @@
+package event.blocking;
+
+import event.given.Executor;
+
+/**
+ * Vérifications communes aux adaptateurs bloquants.
+ */
+final class Blocking {
+
+	private Blocking() {
+	}
+
+	/**
+	 * Une attente dans une pompe l'empêcherait de servir la requête attendue,
+	 * et toutes les connexions rattachées à cette pompe.
+	 *
+	 * @throws IllegalStateException si le thread courant est une pompe
+	 */
+	static void checkNotPump() {
+		if (Thread.currentThread() instanceof Executor)
+			throw new IllegalStateException("blocking call on the event pump " + Thread.currentThread().getName());
+	}
+}
@@ -0,0 +1,185 @@
+package event.blocking;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import event.given.MessageQueue;
+
+/**
+ * Façade bloquante d'une file de messages, pour un code à un thread par
+ * connexion.
+ * La façade est le listener de la file : les messages reçus sont rangés dans
+ * une file d'attente que receive() vide, et send() attend que la file repasse
+ * sous son seuil bas quand elle refuse un message. Les attentes se font sur
+ * des Conditions, signalées par la pompe : seul le thread appelant est
+ * suspendu, la pompe ne l'est jamais.
+ * La file d'attente est bornée : passé sa capacité, la remise des messages
+ * est mise en pause (la file les garde sans les rendre en crédit au pair),
+ * et receive() la reprend quand la file d'attente est redescendue à la
+ * moitié.
+ * La fermeture de la file, annoncée par son listener après les messages
+ * reçus, débloque les threads en attente.
+ */
+public class BlockingMessageQueue {
+
+	// Capacité par défaut de la file d'attente des messages reçus, en bytes
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private final MessageQueue queue;
+	private final int capacity;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition received = lock.newCondition();
+	private final Condition writable = lock.newCondition();
+	private final ArrayDeque<byte[]> messages = new ArrayDeque<>();
+	// bytes des messages en attente, et vrai si la remise est en pause
+	private long buffered = 0;
+	private boolean paused = false;
+	private boolean closed = false;
+
+	public BlockingMessageQueue(MessageQueue queue) {
+		this(queue, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Pose le listener et le WritabilityListener de la file donnée, qui ne
+	 * doit plus en changer.
+	 *
+	 * @param queue    : la file
+	 * @param capacity : les bytes de messages reçus au-delà desquels la remise
+	 *                 est mise en pause
+	 * @throws IllegalArgumentException si la capacité n'est pas positive
+	 */
+	public BlockingMessageQueue(MessageQueue queue, int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("BlockingMessageQueue : invalid capacity");
+		this.queue = queue;
+		this.capacity = capacity;
+		queue.setWritabilityListener(new MessageQueue.WritabilityListener() {
+			@Override
+			public void writabilityChanged(MessageQueue q, boolean isWritable) {
+				if (isWritable)
+					signal(writable);
+			}
+		});
+		queue.setListener(new MessageQueue.Listener() {
+			@Override
+			public void received(byte[] msg) {
+				lock.lock();
+				try {
+					messages.add(msg);
+					buffered += msg.length;
+					if (!paused && buffered >= capacity) {
+						paused = true;
+						queue.pause();
+					}
+					received.signal();
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			@Override
+			public void closed() {
+				lock.lock();
+				try {
+					closed = true;
+					received.signalAll();
+					writable.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		});
+	}
+
+	public MessageQueue getQueue() {
+		return queue;
+	}
+
+	private void signal(Condition condition) {
+		lock.lock();
+		try {
+			condition.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Tant qu'il n'y a aucun message :
+	 * -- si la file est fermée (son listener l'a annoncé, après les messages
+	 * reçus), retourne null
+	 * -- sinon attend le prochain message
+	 * Retire le message, et reprend la remise si elle était en pause et que la
+	 * file d'attente est redescendue à la moitié de sa capacité.
+	 */
+	/**
+	 * Attend le prochain message.
+	 *
+	 * @return le message, ou null si la file est fermée et qu'il ne reste aucun
+	 *         message reçu
+	 * @throws InterruptedIOException si le thread est interrompu
+	 */
+	public byte[] receive() throws InterruptedIOException {
+		Blocking.checkNotPump();
+		lock.lock();
+		try {
+			byte[] msg;
+			while ((msg = messages.poll()) == null) {
+				if (closed)
+					return null;
+				received.await();
+			}
+			buffered -= msg.length;
+			if (paused && buffered <= capacity / 2) {
+				paused = false;
+				queue.resume();
+			}
+			return msg;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("BlockingMessageQueue : interrupted");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Envoie un message, en attendant si besoin que la file repasse sous son
+	 * seuil bas. La fermeture de la file la rend inscriptible, ce qui réveille
+	 * l'attente.
+	 *
+	 * @param bytes : le message
+	 * @return true si le message est envoyé, false si la file est fermée
+	 * @throws InterruptedIOException si le thread est interrompu
+	 */
+	public boolean send(byte[] bytes) throws InterruptedIOException {
+		Blocking.checkNotPump();
+		if (queue.closed())
+			return false;
+		while (!queue.send(bytes)) {
+			lock.lock();
+			try {
+				if (closed || queue.closed())
+					return false;
+				if (!queue.isWritable())
+					writable.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("BlockingMessageQueue : interrupted");
+			} finally {
+				lock.unlock();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ferme la file et débloque les threads en attente.
+	 */
+	public void close() {
+		queue.close();
+	}
+}
@@ -0,0 +1,168 @@
+package event.blocking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import event.given.Channel;
+import event.given.Channel.BufferReadListener;
+
+/**
+ * Flux d'entrée bloquant au-dessus d'un canal, pour un code à un thread par
+ * connexion.
+ * Un read() qui n'a plus de bytes en réserve lance une lecture du canal dans
+ * le buffer du flux, puis attend sur une Condition que la pompe l'ait
+ * remplie : seul le thread appelant est suspendu (un thread virtuel
+ * libère son porteur), la pompe ne l'est jamais. La fin du flux est la
+ * lecture abandonnée par le canal (ended()), une fois les bytes reçus rendus.
+ * Le flux n'est pas fait pour être lu par plusieurs threads à la fois, ni
+ * depuis une pompe.
+ */
+public class ChannelInputStream extends InputStream {
+
+	// Taille par défaut du buffer du flux
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final Channel channel;
+	// bytes lus du canal et pas encore rendus (entre position et limite), sauf
+	// pendant une lecture, où le canal le remplit
+	private final ByteBuffer buffer;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition filled = lock.newCondition();
+	private boolean reading = false;
+	private boolean eof = false;
+
+	public ChannelInputStream(Channel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel : le canal à lire
+	 * @param size    : taille du buffer du flux, soit le plus grand bloc lu du
+	 *                canal d'un coup
+	 */
+	public ChannelInputStream(Channel channel, int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("ChannelInputStream : invalid buffer size");
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(size);
+		this.buffer.limit(0);
+	}
+
+	/*
+	 * Appelées dans la pompe quand la lecture est terminée : le buffer passe en
+	 * lecture, ou reste vide si la lecture est abandonnée (fin du flux), et le
+	 * thread en attente est réveillé
+	 */
+	private final BufferReadListener listener = new BufferReadListener() {
+		@Override
+		public void read(ByteBuffer b, int count) {
+			lock.lock();
+			try {
+				buffer.flip();
+				reading = false;
+				filled.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void ended() {
+			lock.lock();
+			try {
+				buffer.limit(0);
+				reading = false;
+				eof = true;
+				filled.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	};
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	/*
+	 * Tant que le buffer n'a pas de bytes à rendre :
+	 * -- si la fin du flux est atteinte, retourne -1
+	 * -- sinon lance une lecture du canal s'il n'y en a pas en cours, et attend
+	 * qu'elle se termine ou soit abandonnée
+	 * Copie ensuite autant de bytes que possible du buffer.
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		Blocking.checkNotPump();
+		lock.lock();
+		try {
+			while (reading || !buffer.hasRemaining()) {
+				if (eof)
+					return -1;
+				if (!reading && !fill())
+					return -1;
+				filled.await();
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("ChannelInputStream : interrupted");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lance une lecture du canal dans le buffer. Doit être appelée avec le
+	 * verrou du flux.
+	 *
+	 * @return false si le canal est déconnecté (fin du flux)
+	 */
+	private boolean fill() {
+		if (channel.disconnected()) {
+			eof = true;
+			return false;
+		}
+		buffer.clear();
+		reading = true;
+		try {
+			channel.read(buffer, listener);
+		} catch (IllegalStateException e) {
+			reading = false;
+			buffer.limit(0);
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int available() {
+		lock.lock();
+		try {
+			return reading ? 0 : buffer.remaining();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Déconnecte le canal.
+	 */
+	@Override
+	public void close() {
+		channel.disconnect();
+	}
+}
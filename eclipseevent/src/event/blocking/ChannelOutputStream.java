@@ -0,0 +1,107 @@
+package event.blocking;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import event.given.Channel;
+import event.given.Channel.WriteListener;
+
+/**
+ * Flux de sortie bloquant au-dessus d'un canal, pour un code à un thread par
+ * connexion.
+ * write() pose une requête d'écriture sur le tableau de l'appelant, sans
+ * copie, et attend sur une Condition que la pompe l'ait écrit dans le canal
+ * (en plusieurs requêtes si le canal n'en prend qu'une partie) : seul le
+ * thread appelant est suspendu, la pompe ne l'est jamais. Une requête
+ * abandonnée par le canal (ended()) fait échouer l'écriture.
+ * Le flux n'est pas fait pour être écrit par plusieurs threads à la fois, ni
+ * depuis une pompe.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+	private final Channel channel;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition done = lock.newCondition();
+	// bytes écrits par la dernière requête, -1 tant qu'elle est en cours, et
+	// vrai si une requête a été abandonnée
+	private int written = -1;
+	private boolean ended = false;
+
+	public ChannelOutputStream(Channel channel) {
+		this.channel = channel;
+	}
+
+	private final WriteListener listener = new WriteListener() {
+		@Override
+		public void written(byte[] bytes, int offset, int length, int n) {
+			lock.lock();
+			try {
+				written = n;
+				done.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void ended() {
+			lock.lock();
+			try {
+				ended = true;
+				done.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	};
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/*
+	 * Tant qu'il reste des bytes à écrire :
+	 * -- pose une requête d'écriture sur le reste du tableau
+	 * -- attend son listener ; si la requête est abandonnée, l'écriture échoue
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		Blocking.checkNotPump();
+		lock.lock();
+		try {
+			while (len > 0) {
+				written = -1;
+				try {
+					channel.write(b, off, len, listener);
+				} catch (IllegalStateException e) {
+					throw new IOException("ChannelOutputStream : disconnected");
+				}
+				while (written < 0 && !ended)
+					done.await();
+				if (ended)
+					throw new IOException("ChannelOutputStream : disconnected");
+				off += written;
+				len -= written;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("ChannelOutputStream : interrupted");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Déconnecte le canal. Les bytes déjà écrits restent lisibles par le pair.
+	 */
+	@Override
+	public void close() {
+		channel.disconnect();
+	}
+}
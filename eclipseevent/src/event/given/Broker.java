@@ -65,6 +65,21 @@ public abstract class Broker {
      * @param channel : le canal résultant
      */
     public void connected(Channel channel);
+
+    /**
+     * Définit le comportement lorsque la connexion n'a pas été acceptée dans
+     * le délai donné au connect(). Par défaut, ne fait rien.
+     */
+    default void timedOut() {
+    }
+
+    /**
+     * Définit le comportement lorsque le broker distant a refusé la connexion
+     * (fermé avant de l'accepter, ou demande illisible). Par défaut, ne fait
+     * rien.
+     */
+    default void refused() {
+    }
   }
 
   /**
@@ -0,0 +1,79 @@
+package event.given;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool de buffers de messages par classes de taille (puissances de deux, de
+ * MIN_SIZE à MAX_SIZE). Chaque classe garde au plus maxCached buffers libres ;
+ * les messages plus grands que MAX_SIZE ne sont pas poolés.
+ * Partagé par les files d'un même QueueBroker. Thread-safe.
+ */
+public class BufferPool {
+
+	public static final int MIN_SIZE = 64;
+	public static final int MAX_SIZE = 1 << 20;
+	public static final int DEFAULT_MAX_CACHED = 256;
+
+	// buffers libres, un tas par classe de taille
+	private ArrayDeque<MessageBuffer>[] free;
+	private int maxCached;
+
+	public BufferPool() {
+		this(DEFAULT_MAX_CACHED);
+	}
+
+	/**
+	 * @param maxCached : nombre maximum de buffers libres gardés par classe
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(int maxCached) {
+		this.maxCached = maxCached;
+		int classes = sizeClass(MAX_SIZE) + 1;
+		free = new ArrayDeque[classes];
+		for (int i = 0; i < classes; i++)
+			free[i] = new ArrayDeque<MessageBuffer>();
+	}
+
+	/**
+	 * @param length : taille du message
+	 * @return un buffer d'au moins length bytes, avec une référence
+	 */
+	public MessageBuffer acquire(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("BufferPool : negative length");
+		MessageBuffer buffer;
+		if (length > MAX_SIZE) {
+			buffer = new MessageBuffer(new byte[length], null);
+		} else {
+			int c = sizeClass(length);
+			ArrayDeque<MessageBuffer> stack = free[c];
+			synchronized (stack) {
+				buffer = stack.pollFirst();
+			}
+			if (buffer == null)
+				buffer = new MessageBuffer(new byte[MIN_SIZE << c], this);
+		}
+		buffer.reset(length);
+		return buffer;
+	}
+
+	/**
+	 * Remet un buffer libéré dans sa classe, s'il y a de la place
+	 */
+	void recycle(MessageBuffer buffer) {
+		ArrayDeque<MessageBuffer> stack = free[sizeClass(buffer.capacity())];
+		synchronized (stack) {
+			if (stack.size() < maxCached)
+				stack.addFirst(buffer);
+		}
+	}
+
+	/**
+	 * @return l'index de la plus petite classe contenant length bytes
+	 */
+	private static int sizeClass(int length) {
+		if (length <= MIN_SIZE)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+}
@@ -1,5 +1,8 @@
 package event.given;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Channel est un flux de bytes point-à-point (ie sans intermédiaire)
  * Full-duplex, chaque point d'extrémité peut être utilisé pour lire ou écrire.
@@ -7,16 +10,38 @@ package event.given;
  * Un canal peut être déconnecté à tout moment, de chaque côté.
  */
 public abstract class Channel {
+  // Seuils par défaut des bytes en attente d'écriture
+  public static final int DEFAULT_LOW_WATERMARK = 32 << 10, DEFAULT_HIGH_WATERMARK = 64 << 10;
+
   Broker broker;
+  Executor executor;
+  // bytes des requêtes d'écriture en attente, seuils et état d'écriture
+  private long queuedBytes = 0;
+  private int lowWatermark = DEFAULT_LOW_WATERMARK, highWatermark = DEFAULT_HIGH_WATERMARK;
+  private volatile boolean writable = true;
+  private volatile WritabilityListener writabilityListener;
+  // délai d'inactivité (en nanosecondes, 0 si aucun), date du dernier
+  // transfert et vérification programmée en cours
+  private volatile long idleTimeout = 0;
+  private volatile long lastActivity;
+  private volatile IdleCheck idleCheck;
 
   /**
-   * @param broker   : le Broker parent
-   * @param executor : la pompe à événements de l'exécuteur
+   * @param broker : le Broker parent
    */
   protected Channel(Broker broker) {
     this.broker = broker;
   }
 
+  /**
+   * @param broker   : le Broker parent
+   * @param executor : la pompe à événements à laquelle ce canal est rattaché
+   */
+  protected Channel(Broker broker, Executor executor) {
+    this.broker = broker;
+    this.executor = executor;
+  }
+
   /**
    * Aide au débug
    * 
@@ -31,6 +56,14 @@ public abstract class Channel {
     return broker;
   }
 
+  /**
+   * @return La pompe à événements qui exécute les listeners de ce canal, null
+   *         si le canal n'est rattaché à aucune pompe
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
   /**
    * @return Le port de connexion
    */
@@ -47,6 +80,14 @@ public abstract class Channel {
      * @param bytes : les bytes lus
      */
     public void read(byte[] bytes);
+
+    /**
+     * Appelée à la place de read() si la requête est abandonnée sans rien
+     * lire : canal déconnecté, ou canal distant déconnecté et plus rien à lire
+     * (fin du flux). Par défaut, ne fait rien.
+     */
+    public default void ended() {
+    }
   }
 
   /**
@@ -74,6 +115,13 @@ public abstract class Channel {
      * @param length : nombre de bytes écrits
      */
     public void written(byte[] bytes, int offset, int length, int written);
+
+    /**
+     * Appelée à la place de written() si la requête est abandonnée sans rien
+     * écrire : canal ou canal distant déconnecté. Par défaut, ne fait rien.
+     */
+    public default void ended() {
+    }
   }
 
   /**
@@ -88,6 +136,323 @@ public abstract class Channel {
    */
   public abstract void write(byte[] bytes, int offset, int length, WriteListener listener);
 
+  /**
+   * Listener destiné à Channel
+   * Permet de définir le comportement lorsque des bytes ont été lus dans un
+   * ByteBuffer.
+   */
+  public interface BufferReadListener {
+    /**
+     * Définit le comportement lorsque des bytes ont été lus.
+     * 
+     * @param buffer : le buffer rempli, sa position a avancé de count
+     * @param count  : nombre de bytes lus
+     */
+    public void read(ByteBuffer buffer, int count);
+
+    /**
+     * Appelée à la place de read() si la requête est abandonnée sans rien
+     * lire : canal déconnecté, ou canal distant déconnecté et plus rien à lire
+     * (fin du flux). Par défaut, ne fait rien.
+     */
+    public default void ended() {
+    }
+  }
+
+  /**
+   * Lit des bytes directement dans le buffer donné, à partir de sa position.
+   * Au moins 1 byte sera lu, au plus buffer.remaining().
+   * Les buffers heap et direct sont acceptés, aucune copie intermédiaire n'est
+   * faite. Le buffer ne doit pas être modifié avant l'appel du listener.
+   * Méthode FIFO non bloquante et thread-safe.
+   * 
+   * @param buffer   : le buffer à remplir
+   * @param listener : le listener à appeler une fois terminé
+   */
+  public abstract void read(ByteBuffer buffer, BufferReadListener listener);
+
+  /**
+   * Listener destiné à Channel
+   * Permet de définir le comportement lorsque des bytes d'un ByteBuffer ont été
+   * écrits.
+   */
+  public interface BufferWriteListener {
+    /**
+     * Définit le comportement lorsque des bytes ont été écrits.
+     * 
+     * @param buffer  : le buffer vidé, sa position a avancé de written
+     * @param written : nombre de bytes écrits
+     */
+    public void written(ByteBuffer buffer, int written);
+
+    /**
+     * Appelée à la place de written() si la requête est abandonnée sans rien
+     * écrire : canal ou canal distant déconnecté. Par défaut, ne fait rien.
+     */
+    public default void ended() {
+    }
+  }
+
+  /**
+   * Écrit les bytes du buffer donné, à partir de sa position.
+   * Au moins 1 byte sera écrit, au plus buffer.remaining().
+   * Les buffers heap et direct sont acceptés, aucune copie intermédiaire n'est
+   * faite. Le buffer ne doit pas être modifié avant l'appel du listener.
+   * Méthode FIFO non bloquante et thread-safe.
+   * 
+   * @param buffer   : le buffer à vider
+   * @param listener : le listener à appeler une fois terminé
+   */
+  public abstract void write(ByteBuffer buffer, BufferWriteListener listener);
+
+  /**
+   * Listener destiné à Channel
+   * Permet de définir le comportement lorsque des bytes ont été lus dans une
+   * suite de ByteBuffer.
+   */
+  public interface VectorReadListener {
+    /**
+     * Définit le comportement lorsque des bytes ont été lus.
+     * 
+     * @param buffers : les buffers de la requête
+     * @param offset  : l'index du premier buffer de la requête
+     * @param length  : le nombre de buffers de la requête
+     * @param count   : nombre total de bytes lus
+     */
+    public void read(ByteBuffer[] buffers, int offset, int length, int count);
+
+    /**
+     * Appelée à la place de read() si la requête est abandonnée sans rien
+     * lire : canal déconnecté, ou canal distant déconnecté et plus rien à lire
+     * (fin du flux). Par défaut, ne fait rien.
+     */
+    public default void ended() {
+    }
+  }
+
+  /**
+   * Lit des bytes dans les buffers donnés (scatter), en remplissant chacun
+   * avant de passer au suivant, comme ScatteringByteChannel.
+   * Au moins 1 byte sera lu, au plus la somme des remaining().
+   * Méthode FIFO non bloquante et thread-safe.
+   * 
+   * @param buffers  : les buffers à remplir
+   * @param offset   : l'index du premier buffer à remplir
+   * @param length   : nombre de buffers à remplir
+   * @param listener : le listener à appeler une fois terminé
+   */
+  public abstract void read(ByteBuffer[] buffers, int offset, int length, VectorReadListener listener);
+
+  /**
+   * Listener destiné à Channel
+   * Permet de définir le comportement lorsque des bytes d'une suite de
+   * ByteBuffer ont été écrits.
+   */
+  public interface VectorWriteListener {
+    /**
+     * Définit le comportement lorsque des bytes ont été écrits.
+     * 
+     * @param buffers : les buffers de la requête
+     * @param offset  : l'index du premier buffer de la requête
+     * @param length  : le nombre de buffers de la requête
+     * @param written : nombre total de bytes écrits
+     */
+    public void written(ByteBuffer[] buffers, int offset, int length, int written);
+
+    /**
+     * Appelée à la place de written() si la requête est abandonnée sans rien
+     * écrire : canal ou canal distant déconnecté. Par défaut, ne fait rien.
+     */
+    public default void ended() {
+    }
+  }
+
+  /**
+   * Écrit les bytes des buffers donnés (gather) en une seule requête, en vidant
+   * chacun avant de passer au suivant, comme GatheringByteChannel.
+   * Au moins 1 byte sera écrit, au plus la somme des remaining().
+   * Méthode FIFO non bloquante et thread-safe.
+   * 
+   * @param buffers  : les buffers à vider
+   * @param offset   : l'index du premier buffer à vider
+   * @param length   : nombre de buffers à vider
+   * @param listener : le listener à appeler une fois terminé
+   */
+  public abstract void write(ByteBuffer[] buffers, int offset, int length, VectorWriteListener listener);
+
+  /**
+   * Listener destiné à Channel
+   * Permet de définir le comportement lorsque le canal passe un seuil de bytes
+   * en attente d'écriture.
+   */
+  public interface WritabilityListener {
+    /**
+     * Définit le comportement lorsque l'état d'écriture du canal change.
+     * 
+     * @param channel  : le canal
+     * @param writable : faux si les bytes en attente ont dépassé le seuil haut,
+     *                 vrai s'ils sont redescendus au seuil bas
+     */
+    public void writabilityChanged(Channel channel, boolean writable);
+  }
+
+  /**
+   * Définit les seuils des bytes en attente d'écriture (requêtes write() dont
+   * le listener n'a pas encore été appelé). Au-delà du seuil haut, le canal
+   * n'est plus inscriptible ; il le redevient lorsque les bytes en attente
+   * redescendent au seuil bas. Les nouveaux seuils s'appliquent à la
+   * prochaine requête.
+   * Le canal accepte toujours les écritures : c'est aux producteurs de
+   * ralentir en suivant isWritable() ou le WritabilityListener.
+   * 
+   * @param low  : le seuil bas
+   * @param high : le seuil haut
+   * @throws IllegalArgumentException si 0 <= low <= high n'est pas respecté
+   */
+  public synchronized void setWatermarks(int low, int high) {
+    if (low < 0 || low > high)
+      throw new IllegalArgumentException("Channel : invalid watermarks");
+    this.lowWatermark = low;
+    this.highWatermark = high;
+  }
+
+  /**
+   * @return vrai si les bytes en attente d'écriture n'ont pas dépassé le seuil
+   *         haut (ou sont redescendus au seuil bas)
+   */
+  public boolean isWritable() {
+    return writable;
+  }
+
+  /**
+   * @return le nombre de bytes en attente d'écriture
+   */
+  public synchronized long queuedBytes() {
+    return queuedBytes;
+  }
+
+  /**
+   * @param listener : le listener appelé dans la pompe du canal à chaque
+   *                 changement d'état d'écriture, null pour aucun
+   */
+  public void setWritabilityListener(WritabilityListener listener) {
+    this.writabilityListener = listener;
+  }
+
+  /**
+   * Compte des bytes entrant (delta positif) ou sortant (delta négatif) de la
+   * file d'écriture. Appelée par les implémentations à l'ajout et au retrait de
+   * chaque requête d'écriture.
+   * 
+   * @param delta : la variation des bytes en attente
+   * @return le runnable prévenant le WritabilityListener si un seuil a été
+   *         passé, à poster dans la pompe du canal ; null sinon
+   */
+  protected synchronized Runnable queued(long delta) {
+    queuedBytes += delta;
+    if (writable && queuedBytes > highWatermark)
+      return writabilityChanged(false);
+    if (!writable && queuedBytes <= lowWatermark)
+      return writabilityChanged(true);
+    return null;
+  }
+
+  /**
+   * Oublie les bytes en attente, lorsque la file d'écriture est purgée (canal
+   * déconnecté). Aucun listener n'est prévenu.
+   */
+  protected synchronized void clearQueued() {
+    queuedBytes = 0;
+  }
+
+  /**
+   * Déconnecte le canal s'il ne transfère aucun byte, dans un sens ou dans
+   * l'autre, pendant le délai donné. La vérification est une échéance de la
+   * pompe du canal, reprogrammée à la date où le canal deviendrait inactif.
+   * 
+   * @param millis : le délai en millisecondes, 0 pour désactiver
+   * @throws IllegalArgumentException si le délai est négatif
+   * @throws IllegalStateException    si le canal n'a pas de pompe
+   */
+  public synchronized void setIdleTimeout(long millis) {
+    if (millis < 0)
+      throw new IllegalArgumentException("Channel : invalid idle timeout");
+    if (executor == null)
+      throw new IllegalStateException("Channel : no executor");
+    stopIdleTimeout();
+    idleTimeout = TimeUnit.MILLISECONDS.toNanos(millis);
+    lastActivity = System.nanoTime();
+    if (millis > 0 && !disconnected()) {
+      IdleCheck check = new IdleCheck();
+      idleCheck = check;
+      check.arm(idleTimeout);
+    }
+  }
+
+  /**
+   * Note un transfert, pour le délai d'inactivité. Appelée par les
+   * implémentations à chaque requête qui a transféré des bytes.
+   */
+  protected void active() {
+    if (idleTimeout > 0)
+      lastActivity = System.nanoTime();
+  }
+
+  /**
+   * Annule la vérification d'inactivité programmée. Appelée par les
+   * implémentations à la déconnexion.
+   */
+  protected void stopIdleTimeout() {
+    IdleCheck check = idleCheck;
+    if (check != null) {
+      idleCheck = null;
+      check.cancel();
+    }
+  }
+
+  /*
+   * Si la vérification n'a pas été remplacée ou annulée, et que le canal est
+   * connecté :
+   * -- si le dernier transfert date d'au moins le délai, déconnecte le canal
+   * -- sinon, se reprogramme à la date où le canal deviendrait inactif
+   */
+  private class IdleCheck implements Runnable {
+    private volatile TimerWheel.Timeout timeout;
+
+    void arm(long delay) {
+      timeout = executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+    }
+
+    void cancel() {
+      TimerWheel.Timeout t = timeout;
+      if (t != null)
+        t.cancel();
+    }
+
+    @Override
+    public void run() {
+      if (idleCheck != this || disconnected())
+        return;
+      long idle = System.nanoTime() - lastActivity;
+      if (idle >= idleTimeout)
+        disconnect();
+      else
+        arm(idleTimeout - idle);
+    }
+  }
+
+  private Runnable writabilityChanged(boolean writable) {
+    this.writable = writable;
+    return new Runnable() {
+      @Override
+      public void run() {
+        WritabilityListener listener = writabilityListener;
+        if (listener != null)
+          listener.writabilityChanged(Channel.this, writable);
+      }
+    };
+  }
+
   /**
    * Déconnecte ce Channel de manière thread-safe, débloquant tout thread
    * bloqué sur une opération de lecture ou d'écriture.
@@ -1,42 +1,119 @@
 package event.given;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /* CircularBuffer avec désormais 2 listener pour chaque canal :
  * Permettent savoir s'il y a respectivement quelque chose à lire ou à écrire
+ *
+ * La capacité est arrondie à la puissance de deux supérieure : m_head et m_tail
+ * sont des compteurs libres (ils débordent sans problème), l'index dans le
+ * tableau est obtenu par un masque et toute la capacité est utilisable.
  */
 
 public class CircularBufferEvent {
+	// capacité maximale, pour que m_head - m_tail reste représentable
+	public static final int MAX_CAPACITY = 1 << 30;
+	// tableau des buffers détachés : vides et pleins à la fois
+	private static final byte[] DETACHED = new byte[0];
+
 	int m_tail, m_head;
 	byte m_bytes[];
+	int m_mask;
 	private InListener inListener;
 	private OutListener outListener;
 	private Executor executor;
+	// tâches de notification préallouées, postées au plus une fois à la fois
+	private Notification bytesAvailable = new Notification() {
+		@Override
+		void fire() {
+			InListener l = inListener;
+			if (l != null)
+				l.bytesAvailable();
+		}
+	};
+	private Notification spaceFreed = new Notification() {
+		@Override
+		void fire() {
+			OutListener l = outListener;
+			if (l != null)
+				l.spaceFreed();
+		}
+	};
 
 	public CircularBufferEvent(int capacity, Executor executor) {
-		m_bytes = new byte[capacity];
+		this(new byte[roundCapacity(capacity)], executor);
+	}
+
+	/**
+	 * Crée un buffer autour du tableau donné (par exemple pris dans un
+	 * {@link RingPool}), dont le contenu est ignoré. Le buffer possède le tableau
+	 * jusqu'à {@link #detach()}.
+	 *
+	 * @param bytes    : le tableau, dont la taille est une puissance de deux
+	 * @param executor : la pompe des notifications
+	 * @throws IllegalArgumentException si la taille n'est pas une puissance de
+	 *                                  deux
+	 */
+	public CircularBufferEvent(byte[] bytes, Executor executor) {
+		if (bytes.length == 0 || Integer.bitCount(bytes.length) != 1)
+			throw new IllegalArgumentException("CircularBufferEvent : invalid capacity " + bytes.length);
+		m_bytes = bytes;
+		m_mask = m_bytes.length - 1;
 		m_tail = m_head = 0;
 		this.executor = executor;
 	}
 
 	public CircularBufferEvent(int capacity, Executor executor, InListener inListener) {
-		m_bytes = new byte[capacity];
-		m_tail = m_head = 0;
-		this.executor = executor;
+		this(capacity, executor);
 		this.inListener = inListener;
 	}
 
 	public CircularBufferEvent(int capacity, Executor executor, OutListener outListener) {
-		m_bytes = new byte[capacity];
-		m_tail = m_head = 0;
-		this.executor = executor;
+		this(capacity, executor);
 		this.outListener = outListener;
 	}
 
+	/**
+	 * @param capacity : capacité demandée
+	 * @return la plus petite puissance de deux supérieure ou égale à capacity
+	 * @throws IllegalArgumentException si capacity n'est pas dans [1,
+	 *                                  MAX_CAPACITY]
+	 */
+	public static int roundCapacity(int capacity) {
+		if (capacity < 1 || capacity > MAX_CAPACITY)
+			throw new IllegalArgumentException("CircularBufferEvent : invalid capacity " + capacity);
+		return capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+	}
+
+	/**
+	 * Rend le tableau de ce buffer, qui devient vide et plein à la fois, et de
+	 * capacité 0 : push et pull n'y transfèrent plus rien. À n'appeler que dans
+	 * la pompe, lorsque plus personne n'écrit ni ne lit ce buffer.
+	 *
+	 * @return le tableau, qui n'appartient plus au buffer, ou null s'il était
+	 *         déjà détaché
+	 */
+	public byte[] detach() {
+		byte[] bytes = m_bytes;
+		m_bytes = DETACHED;
+		m_mask = 0;
+		m_tail = m_head = 0;
+		return bytes == DETACHED ? null : bytes;
+	}
+
+	/**
+	 * @return la capacité (puissance de deux) de ce buffer
+	 */
+	public int capacity() {
+		return m_bytes.length;
+	}
+
 	/**
 	 * @return true si ce buffer est plein, false sinon
 	 */
 	public boolean full() {
-		int next = (m_head + 1) % m_bytes.length;
-		return (next == m_tail);
+		return (m_head - m_tail == m_bytes.length);
 	}
 
 	/**
@@ -52,20 +129,12 @@ public class CircularBufferEvent {
 	 */
 	public void push(byte b) {
 		boolean wasEmpty = empty();
-		int next = (m_head + 1) % m_bytes.length;
-		if (next == m_tail)
+		if (full())
 			throw new IllegalStateException();
-		m_bytes[m_head] = b;
-		m_head = next;
-		if (wasEmpty && inListener != null) {
-			Runnable r = new Runnable() {
-				@Override
-				public void run() {
-					inListener.bytesAvailable();
-				}
-			};
-			executor.post(r);
-		}
+		m_bytes[m_head & m_mask] = b;
+		m_head++;
+		if (wasEmpty)
+			notifyBytesAvailable();
 	}
 
 	/**
@@ -76,21 +145,171 @@ public class CircularBufferEvent {
 		boolean wasFull = full();
 		if (m_tail == m_head)
 			throw new IllegalStateException();
-		int next = (m_tail + 1) % m_bytes.length;
-		byte bits = m_bytes[m_tail];
-		m_tail = next;
-		if (wasFull && outListener != null) {
-			Runnable r = new Runnable() {
-				@Override
-				public void run() {
-					outListener.spaceFreed();
-				}
-			};
-			executor.post(r);
-		}
+		byte bits = m_bytes[m_tail & m_mask];
+		m_tail++;
+		if (wasFull)
+			notifySpaceFreed();
 		return bits;
 	}
 
+	/**
+	 * Pousse autant de bytes que possible depuis la position du buffer donné
+	 * (heap ou direct), avec au plus deux copies autour du point de bouclage.
+	 *
+	 * @param src : le buffer à vider, sa position avance du nombre de bytes
+	 *            poussés
+	 * @return le nombre de bytes poussés, 0 si plein
+	 */
+	public int push(ByteBuffer src) {
+		int n = Math.min(src.remaining(), remaining());
+		if (n <= 0)
+			return 0;
+		boolean wasEmpty = empty();
+		int index = m_head & m_mask;
+		int first = Math.min(n, m_bytes.length - index);
+		src.get(m_bytes, index, first);
+		if (first < n)
+			src.get(m_bytes, 0, n - first);
+		m_head += n;
+		if (wasEmpty)
+			notifyBytesAvailable();
+		return n;
+	}
+
+	/**
+	 * Tire autant de bytes que possible vers la position du buffer donné (heap
+	 * ou direct), avec au plus deux copies autour du point de bouclage.
+	 *
+	 * @param dst : le buffer à remplir, sa position avance du nombre de bytes
+	 *            tirés
+	 * @return le nombre de bytes tirés, 0 si vide
+	 */
+	public int pull(ByteBuffer dst) {
+		int n = Math.min(dst.remaining(), available());
+		if (n <= 0)
+			return 0;
+		boolean wasFull = full();
+		int index = m_tail & m_mask;
+		int first = Math.min(n, m_bytes.length - index);
+		dst.put(m_bytes, index, first);
+		if (first < n)
+			dst.put(m_bytes, 0, n - first);
+		m_tail += n;
+		if (wasFull)
+			notifySpaceFreed();
+		return n;
+	}
+
+	/*
+	 * Tâche réutilisable : tant qu'elle est en attente dans la pompe, les
+	 * notifications suivantes sont fusionnées avec elle. Le drapeau est baissé
+	 * avant d'appeler le listener, qui voit donc toujours l'état le plus récent.
+	 */
+	private abstract class Notification implements Runnable {
+		private AtomicBoolean pending = new AtomicBoolean(false);
+
+		abstract void fire();
+
+		void post() {
+			if (pending.compareAndSet(false, true))
+				executor.post(this);
+		}
+
+		@Override
+		public void run() {
+			pending.set(false);
+			fire();
+		}
+	}
+
+	private void notifyBytesAvailable() {
+		if (inListener != null)
+			bytesAvailable.post();
+	}
+
+	private void notifySpaceFreed() {
+		if (outListener != null)
+			spaceFreed.post();
+	}
+
+	/**
+	 * @param inListener : le listener du canal qui lit dans ce buffer
+	 */
+	public void setInListener(InListener inListener) {
+		this.inListener = inListener;
+	}
+
+	/**
+	 * @param outListener : le listener du canal qui écrit dans ce buffer
+	 */
+	public void setOutListener(OutListener outListener) {
+		this.outListener = outListener;
+	}
+
+	/**
+	 * @return le nombre de bytes disponibles en lecture
+	 */
+	public int available() {
+		return m_head - m_tail;
+	}
+
+	/**
+	 * @return le nombre de bytes pouvant encore être poussés
+	 */
+	public int remaining() {
+		return m_bytes.length - available();
+	}
+
+	/**
+	 * Pousse autant de bytes que possible, au plus length, avec au plus deux
+	 * copies autour du point de bouclage.
+	 *
+	 * @param bytes  : le tableau à lire
+	 * @param offset : l'index de départ dans le tableau
+	 * @param length : nombre maximum de bytes à pousser
+	 * @return le nombre de bytes poussés, 0 si plein
+	 */
+	public int push(byte[] bytes, int offset, int length) {
+		int n = Math.min(length, remaining());
+		if (n <= 0)
+			return 0;
+		boolean wasEmpty = empty();
+		int index = m_head & m_mask;
+		int first = Math.min(n, m_bytes.length - index);
+		System.arraycopy(bytes, offset, m_bytes, index, first);
+		if (first < n)
+			System.arraycopy(bytes, offset + first, m_bytes, 0, n - first);
+		m_head += n;
+		if (wasEmpty)
+			notifyBytesAvailable();
+		return n;
+	}
+
+	/**
+	 * Tire autant de bytes que possible, au plus length, avec au plus deux
+	 * copies autour du point de bouclage.
+	 *
+	 * @param bytes  : le tableau sur lequel écrire
+	 * @param offset : l'index de départ dans le tableau
+	 * @param length : nombre maximum de bytes à tirer
+	 * @return le nombre de bytes tirés, 0 si vide
+	 */
+	public int pull(byte[] bytes, int offset, int length) {
+		int n = Math.min(length, available());
+		if (n <= 0)
+			return 0;
+		boolean wasFull = full();
+		int index = m_tail & m_mask;
+		int first = Math.min(n, m_bytes.length - index);
+		System.arraycopy(m_bytes, index, bytes, offset, first);
+		if (first < n)
+			System.arraycopy(m_bytes, 0, bytes, offset + first, n - first);
+		m_tail += n;
+		if (wasFull)
+			notifySpaceFreed();
+		return n;
+	}
+
 	/* Listener pour savoir s'il y a quelque chose à lire */
 	public interface InListener {
 		public void bytesAvailable();
@@ -1,70 +1,187 @@
 package event.given;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Executor est une pompe à événements, permettant d'exécuter des tâches en
  * parallèle.
  * Les tâches sont exécutées dans l'ordre où elles ont été postées, dans un
- * unique thread dédié et commun
+ * unique thread dédié et commun, sur deux voies : la voie de contrôle
+ * (rendez-vous, fermetures) passe avant la voie des données, sauf après
+ * CONTROL_BURST tâches de contrôle d'affilée, où une tâche de données passe à
+ * son tour. Une pompe sans tâche attend selon sa {@link WaitStrategy}.
+ * Les tâches différées sont rangées dans une {@link TimerWheel} propre à la
+ * pompe, consultée tous les TIMER_CHECK tours et à chaque attente.
  */
 public class Executor extends Thread {
-  List<Runnable> queue;
+  // Nombre maximal de tâches de contrôle d'affilée tant que des données attendent
+  public static final int CONTROL_BURST = 16;
+  // Nombre de tâches exécutées entre deux consultations des échéances
+  public static final int TIMER_CHECK = 64;
+
+  MpscQueue<Runnable> queue;
+  MpscQueue<Runnable> control;
+  // vrai lorsque la pompe est (ou va être) endormie faute de tâches
+  private AtomicBoolean sleeping;
+  private volatile WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+  private TimerWheel timer;
 
   /**
    * @param name
    */
   public Executor(String name) {
     super(name);
-    queue = new LinkedList<Runnable>();
+    queue = new MpscQueue<Runnable>();
+    control = new MpscQueue<Runnable>();
+    sleeping = new AtomicBoolean(false);
+    timer = new TimerWheel();
   }
 
+  /*
+   * Tant que la rafale de contrôle n'est pas épuisée, prend la première tâche
+   * de contrôle. Sinon, ou s'il n'y en a pas, prend la première tâche de
+   * données (ou de contrôle s'il n'y a pas de données) et recommence une
+   * rafale. Si les deux voies sont vides, exécute les échéances arrivées ;
+   * s'il n'y en a pas, demande à la stratégie d'attente s'il faut revérifier
+   * ou dormir, au plus jusqu'à la prochaine échéance.
+   * Tous les TIMER_CHECK tours, exécute aussi les échéances arrivées, pour
+   * qu'elles passent même si la pompe ne se vide jamais.
+   */
   /**
    * Boucle principale de l'exécuteur,
    * boucle *infinie* qui récupère les tâches postées et les exécute
    */
   public void run() {
     Runnable r;
+    int burst = 0, idle = 0, turn = 0;
     while (true) {
-      synchronized (queue) {
-        while (queue.size() == 0) {
-          sleep();
-          // System.out.println("reveille");
+      if (++turn == TIMER_CHECK) {
+        turn = 0;
+        timer.expire();
+      }
+      r = burst < CONTROL_BURST ? control.poll() : null;
+      if (r != null)
+        burst++;
+      else {
+        burst = 0;
+        if ((r = queue.poll()) == null && (r = control.poll()) == null) {
+          if (timer.expire() > 0) {
+            idle = 0;
+            continue;
+          }
+          long wait = waitStrategy.idle(idle);
+          if (idle < Integer.MAX_VALUE)
+            idle++;
+          if (wait >= 0) {
+            long next = timer.nextWait();
+            doze(next > 0 && (wait == WaitStrategy.PARK || next < wait) ? next : wait);
+          }
+          continue;
         }
-
-        r = queue.remove(0);
-
       }
-      // System.out.println("va run" + r);
+      idle = 0;
       r.run();
     }
   }
 
   /**
-   * Poste une tâche à exécuter
-   * 
+   * Poste une tâche à exécuter.
+   * Non bloquant : aucun verrou n'est pris, la pompe n'est réveillée que si
+   * elle dort.
+   *
    * @param r
    */
   public void post(Runnable r) {
-    // System.out.println("posting " + r);
-    synchronized (queue) {
-      queue.add(r); // at the end…
-      // System.out.println("posted" + r);
+    queue.offer(r);
+    wakeUp();
+  }
 
-      queue.notify();
-    }
+  /**
+   * Poste une tâche de contrôle (rendez-vous, fermeture...), exécutée avant
+   * les tâches de données déjà postées. Non bloquant.
+   *
+   * @param r
+   */
+  public void postControl(Runnable r) {
+    control.offer(r);
+    wakeUp();
+  }
+
+  /**
+   * Programme une tâche, exécutée par la pompe après le délai donné (au plus
+   * un tick de la roue en retard). Thread-safe et non bloquant.
+   *
+   * @param r     : la tâche
+   * @param delay : le délai
+   * @param unit  : l'unité du délai
+   * @return l'échéance, à annuler si la tâche n'a plus lieu d'être
+   */
+  public TimerWheel.Timeout schedule(Runnable r, long delay, TimeUnit unit) {
+    TimerWheel.Timeout timeout = timer.schedule(r, delay, unit);
+    wakeUp();
+    return timeout;
+  }
+
+  /**
+   * @param r     : la tâche
+   * @param delay : le délai en millisecondes
+   * @return l'échéance, annulable
+   * @see #schedule(Runnable, long, TimeUnit)
+   */
+  public TimerWheel.Timeout postDelayed(Runnable r, long delay) {
+    return schedule(r, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return le nombre d'échéances programmées, ni exécutées ni annulées (une
+   *         échéance annulée est décomptée au tour de pompe suivant)
+   */
+  public int pendingTimeouts() {
+    return timer.size();
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  /**
+   * Change la façon dont la pompe attend des tâches ; prise en compte à sa
+   * prochaine attente.
+   *
+   * @param waitStrategy : la stratégie, {@link WaitStrategy#BLOCKING} par
+   *                     défaut
+   */
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    if (waitStrategy == null)
+      throw new NullPointerException();
+    this.waitStrategy = waitStrategy;
+  }
+
+  private void wakeUp() {
+    if (sleeping.get() && sleeping.compareAndSet(true, false))
+      LockSupport.unpark(this);
   }
 
   /**
-   * Met en pause l'exécuteur
+   * Met en pause l'exécuteur, uniquement si les deux files sont réellement
+   * vides et qu'aucune échéance n'a été programmée depuis le calcul du délai.
+   * Le drapeau est levé avant la dernière vérification des files : soit la
+   * pompe voit la tâche postée (ou l'échéance programmée), soit le producteur
+   * voit le drapeau et la réveille.
+   *
+   * @param timeout : durée maximale du sommeil en nanosecondes, 0 sans limite
    */
-  private void sleep() {
-    try {
-      queue.wait();
-    } catch (InterruptedException ex) {
-      // nothing to do here.
+  private void doze(long timeout) {
+    sleeping.set(true);
+    if (queue.isEmpty() && control.isEmpty() && !timer.hasIncoming()) {
+      if (timeout == 0)
+        LockSupport.park(this);
+      else
+        LockSupport.parkNanos(this, timeout);
     }
+    sleeping.set(false);
   }
 
 }
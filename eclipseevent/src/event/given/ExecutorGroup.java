@@ -0,0 +1,115 @@
+package event.given;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groupe de pompes à événements.
+ * Chaque connexion (paire de canaux, buffers et listeners) est rattachée à une
+ * seule pompe du groupe au moment du rendez-vous accept/connect : les
+ * connexions indépendantes s'exécutent en parallèle, tandis que chaque canal
+ * garde la garantie d'ordre d'une pompe unique.
+ */
+public class ExecutorGroup {
+
+	/**
+	 * Politique de choix de la pompe d'une nouvelle connexion
+	 */
+	public enum Affinity {
+		// tour à tour, pour répartir les connexions d'un même port
+		ROUND_ROBIN,
+		// selon le nom du broker et le port, toujours la même pompe pour un service
+		HASH
+	}
+
+	private Executor[] executors;
+	private AtomicInteger next = new AtomicInteger();
+	private volatile Affinity affinity = Affinity.ROUND_ROBIN;
+
+	/**
+	 * Crée un groupe de n pompes nommées name-0 ... name-(n-1), non démarrées.
+	 *
+	 * @param name : préfixe du nom des pompes
+	 * @param n    : nombre de pompes
+	 * @throws IllegalArgumentException si n < 1
+	 */
+	public ExecutorGroup(String name, int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("ExecutorGroup : at least one executor");
+		executors = new Executor[n];
+		for (int i = 0; i < n; i++)
+			executors[i] = new Executor(name + "-" + i);
+	}
+
+	/**
+	 * Crée un groupe à partir de pompes existantes.
+	 *
+	 * @param executors : les pompes du groupe
+	 * @throws IllegalArgumentException si aucune pompe n'est donnée
+	 */
+	public ExecutorGroup(Executor... executors) {
+		if (executors == null || executors.length < 1)
+			throw new IllegalArgumentException("ExecutorGroup : at least one executor");
+		this.executors = executors.clone();
+	}
+
+	/**
+	 * Démarre toutes les pompes du groupe qui ne le sont pas encore.
+	 */
+	public void start() {
+		for (Executor executor : executors)
+			if (executor.getState() == Thread.State.NEW)
+				executor.start();
+	}
+
+	public int size() {
+		return executors.length;
+	}
+
+	public Executor get(int i) {
+		return executors[i];
+	}
+
+	/**
+	 * Change la stratégie d'attente de toutes les pompes du groupe.
+	 *
+	 * @param waitStrategy : la stratégie
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		for (Executor executor : executors)
+			executor.setWaitStrategy(waitStrategy);
+	}
+
+	public Affinity getAffinity() {
+		return affinity;
+	}
+
+	public void setAffinity(Affinity affinity) {
+		this.affinity = affinity;
+	}
+
+	/**
+	 * @return la pompe suivante, tour à tour
+	 */
+	public Executor next() {
+		if (executors.length == 1)
+			return executors[0];
+		return executors[Math.floorMod(next.getAndIncrement(), executors.length)];
+	}
+
+	/**
+	 * Choisit la pompe d'une nouvelle connexion selon la politique d'affinité.
+	 *
+	 * @param name : nom du broker qui accepte
+	 * @param port : port de la connexion
+	 * @return la pompe à laquelle rattacher la connexion
+	 */
+	public Executor select(String name, int port) {
+		if (executors.length == 1)
+			return executors[0];
+		if (affinity == Affinity.ROUND_ROBIN)
+			return next();
+		int h = 31 * name.hashCode() + port;
+		h ^= (h >>> 16);
+		return executors[Math.floorMod(h, executors.length)];
+	}
+}
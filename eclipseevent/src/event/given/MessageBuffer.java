@@ -0,0 +1,111 @@
+package event.given;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vue sur un message reçu, dont le tableau provient d'un {@link BufferPool}.
+ * Le tableau peut être plus grand que le message : seuls les length() premiers
+ * bytes sont significatifs.
+ *
+ * Le buffer est compté par références : il est créé avec une référence,
+ * chaque retain() en ajoute une et chaque release() en retire une. À zéro, le
+ * buffer retourne au pool et ne doit plus être utilisé (ni son tableau).
+ */
+public class MessageBuffer {
+
+	private byte[] array;
+	private int length;
+	private AtomicInteger references = new AtomicInteger(0);
+	// pool d'origine, null si le buffer n'est pas poolé
+	private BufferPool pool;
+
+	MessageBuffer(byte[] array, BufferPool pool) {
+		this.array = array;
+		this.pool = pool;
+	}
+
+	/**
+	 * Crée un buffer non poolé autour du tableau donné.
+	 *
+	 * @param bytes : le message
+	 * @return un buffer à une référence, dont release() ne fait que la retirer
+	 */
+	public static MessageBuffer wrap(byte[] bytes) {
+		MessageBuffer buffer = new MessageBuffer(bytes, null);
+		buffer.reset(bytes.length);
+		return buffer;
+	}
+
+	/**
+	 * Réinitialise le buffer lorsqu'il sort du pool
+	 */
+	void reset(int length) {
+		this.length = length;
+		references.set(1);
+	}
+
+	/**
+	 * @return le tableau du message, valide jusqu'au dernier release()
+	 * @throws IllegalStateException si le buffer a été libéré
+	 */
+	public byte[] array() {
+		if (references.get() <= 0)
+			throw new IllegalStateException("MessageBuffer : released");
+		return array;
+	}
+
+	/**
+	 * @return la taille du message
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return une copie du message, indépendante du pool
+	 */
+	public byte[] toArray() {
+		return Arrays.copyOf(array(), length);
+	}
+
+	/**
+	 * Ajoute une référence, pour garder le buffer au-delà du listener.
+	 *
+	 * @return ce buffer
+	 * @throws IllegalStateException si le buffer a déjà été libéré
+	 */
+	public MessageBuffer retain() {
+		int refs;
+		do {
+			refs = references.get();
+			if (refs <= 0)
+				throw new IllegalStateException("MessageBuffer : released");
+		} while (!references.compareAndSet(refs, refs + 1));
+		return this;
+	}
+
+	/**
+	 * Retire une référence ; à la dernière, le buffer retourne au pool.
+	 *
+	 * @return true si le buffer a été libéré par cet appel
+	 * @throws IllegalStateException si le buffer a déjà été libéré
+	 */
+	public boolean release() {
+		int refs;
+		do {
+			refs = references.get();
+			if (refs <= 0)
+				throw new IllegalStateException("MessageBuffer : released");
+		} while (!references.compareAndSet(refs, refs - 1));
+		if (refs > 1)
+			return false;
+		if (pool != null)
+			pool.recycle(this);
+		return true;
+	}
+
+	int capacity() {
+		return array.length;
+	}
+}
@@ -1,7 +1,18 @@
 package event.given;
 
+import java.util.List;
+
 public abstract class MessageQueue {
 
+	// Seuils par défaut des bytes en attente d'envoi
+	public static final int DEFAULT_LOW_WATERMARK = 32 << 20, DEFAULT_HIGH_WATERMARK = 64 << 20;
+
+	// bytes des messages en attente d'envoi, seuils et état d'écriture
+	private long pendingBytes = 0;
+	private int lowWatermark = DEFAULT_LOW_WATERMARK, highWatermark = DEFAULT_HIGH_WATERMARK;
+	private volatile boolean writable = true;
+	private volatile WritabilityListener writabilityListener;
+
 	/**
 	 * Renvoie le Broker associé à cette MessageQueue
 	 * 
@@ -35,6 +46,30 @@ public abstract class MessageQueue {
 		void closed();
 	}
 
+	/**
+	 * Listener recevant les messages dans des buffers poolés, sans copie.
+	 * Le listener possède une référence sur chaque buffer reçu et doit appeler
+	 * {@link MessageBuffer#release()} lorsqu'il en a terminé (éventuellement plus
+	 * tard, depuis un autre thread).
+	 */
+	public interface BufferListener extends Listener {
+		/**
+		 * Definit le comportement lorsqu'un message est reçu.
+		 * 
+		 * @param msg : le message reçu, à libérer par le listener
+		 */
+		void received(MessageBuffer msg);
+
+		/**
+		 * Pour les files qui ne poolent pas leurs messages : le tableau reçu est
+		 * remis au listener dans un buffer non poolé.
+		 */
+		@Override
+		default void received(byte[] msg) {
+			received(MessageBuffer.wrap(msg));
+		}
+	}
+
 	/**
 	 * Permet de définir le listener à utiliser à la réception de messages et à la
 	 * fermeture de connexion.
@@ -54,13 +89,149 @@ public abstract class MessageQueue {
 	 * 
 	 * @param bytes : le message à envoyer
 	 * @return True si le message est correctement mis en file d'attente pour
-	 *         l'envoi
+	 *         l'envoi, false s'il est refusé (file non inscriptible, voir
+	 *         {@link #isWritable()})
 	 */
 	public abstract boolean send(byte[] bytes);
 
+	/**
+	 * Envoie plusieurs messages d'un coup, dans l'ordre de la liste.
+	 * Même contrat de propriété que {@link #send(byte[])}. Les implémentations
+	 * peuvent regrouper les messages en une seule écriture sur le canal ; par
+	 * défaut, chaque message est envoyé séparément.
+	 * Méthode FIFO non bloquante et thread-safe.
+	 * 
+	 * @param messages : les messages à envoyer
+	 * @return True si tous les messages sont correctement mis en file d'attente
+	 *         pour l'envoi
+	 */
+	public boolean send(List<byte[]> messages) {
+		boolean sent = true;
+		for (byte[] message : messages)
+			sent &= send(message);
+		return sent;
+	}
+
+	/**
+	 * Listener destiné à MessageQueue
+	 * Permet de définir le comportement lorsque la file passe un seuil de bytes
+	 * en attente d'envoi.
+	 */
+	public interface WritabilityListener {
+		/**
+		 * Definit le comportement lorsque l'état d'écriture de la file change.
+		 * 
+		 * @param queue    : la file
+		 * @param writable : faux si les bytes en attente ont dépassé le seuil
+		 *                 haut, vrai s'ils sont redescendus au seuil bas
+		 */
+		void writabilityChanged(MessageQueue queue, boolean writable);
+	}
+
+	/**
+	 * Définit les seuils des bytes en attente d'envoi (messages acceptés par
+	 * send() et pas encore écrits sur le canal, en-têtes compris). Le message qui
+	 * fait passer le seuil haut est accepté ; les suivants sont refusés (send()
+	 * retourne false) jusqu'à ce que les bytes en attente redescendent au seuil
+	 * bas. Les nouveaux seuils s'appliquent au prochain envoi.
+	 * 
+	 * @param low  : le seuil bas
+	 * @param high : le seuil haut
+	 * @throws IllegalArgumentException si 0 <= low <= high n'est pas respecté
+	 */
+	public synchronized void setWatermarks(int low, int high) {
+		if (low < 0 || low > high)
+			throw new IllegalArgumentException("MessageQueue : invalid watermarks");
+		this.lowWatermark = low;
+		this.highWatermark = high;
+	}
+
+	/**
+	 * @return vrai si la file accepte de nouveaux messages
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * @return le nombre de bytes en attente d'envoi
+	 */
+	public synchronized long pendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @param listener : le listener appelé dans la pompe de la file à chaque
+	 *                 changement d'état d'écriture, null pour aucun
+	 */
+	public void setWritabilityListener(WritabilityListener listener) {
+		this.writabilityListener = listener;
+	}
+
+	/**
+	 * Compte des bytes entrant (delta positif) ou sortant (delta négatif) de la
+	 * file d'envoi. Appelée par les implémentations à l'acceptation d'un message
+	 * et à chaque écriture sur le canal.
+	 * 
+	 * @param delta : la variation des bytes en attente
+	 * @return le runnable prévenant le WritabilityListener si un seuil a été
+	 *         passé, à poster dans la pompe de la file ; null sinon
+	 */
+	protected synchronized Runnable pending(long delta) {
+		pendingBytes += delta;
+		if (writable && pendingBytes > highWatermark)
+			return writabilityChanged(false);
+		if (!writable && pendingBytes <= lowWatermark)
+			return writabilityChanged(true);
+		return null;
+	}
+
+	private Runnable writabilityChanged(boolean writable) {
+		this.writable = writable;
+		return new Runnable() {
+			@Override
+			public void run() {
+				WritabilityListener listener = writabilityListener;
+				if (listener != null)
+					listener.writabilityChanged(MessageQueue.this, writable);
+			}
+		};
+	}
+
+	/**
+	 * Oublie les bytes en attente d'envoi, lorsque la file est fermée : ils ne
+	 * seront jamais écrits, et la file redevient inscriptible.
+	 * 
+	 * @return le runnable prévenant le WritabilityListener si la file redevient
+	 *         inscriptible, à poster dans la pompe de la file ; null sinon
+	 */
+	protected synchronized Runnable clearPending() {
+		pendingBytes = 0;
+		return writable ? null : writabilityChanged(true);
+	}
+
+	/**
+	 * Suspend la remise des messages au listener : les messages reçus sont
+	 * gardés par la file jusqu'à {@link #resume()}.
+	 * Méthode non bloquante et thread-safe, à appeler après
+	 * {@link #setListener(Listener)}.
+	 */
+	public abstract void pause();
+
+	/**
+	 * Reprend la remise des messages au listener, en commençant par ceux gardés
+	 * pendant la pause.
+	 * Méthode non bloquante et thread-safe.
+	 */
+	public abstract void resume();
+
 	/**
 	 * Ferme cette MessageQueue de manière thread-safe, et déploque tout thread
 	 * bloqué dans un send() ou receive().
+	 * Le closed() du listener passe par la voie de contrôle de la pompe, une
+	 * seule fois, après les messages déjà décodés (ceux gardés pendant une
+	 * pause sont remis d'abord, à la reprise). Les messages en attente d'envoi
+	 * sont abandonnés.
 	 */
 	public abstract void close();
 
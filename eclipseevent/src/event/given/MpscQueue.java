@@ -0,0 +1,77 @@
+package event.given;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * File non bloquante (lock-free) à plusieurs producteurs et un seul
+ * consommateur.
+ * Les producteurs ne font qu'un getAndSet sur la queue de la liste, aucun
+ * moniteur n'est pris. Seul le thread consommateur (la pompe) peut appeler
+ * {@link #poll()} et {@link #isEmpty()}.
+ *
+ * @param <E> : le type des éléments de la file
+ */
+public class MpscQueue<E> {
+
+	private static final class Node<E> {
+		E value;
+		volatile Node<E> next;
+
+		Node(E value) {
+			this.value = value;
+		}
+	}
+
+	// dernier noeud inséré, partagé par les producteurs
+	private final AtomicReference<Node<E>> tail;
+	// noeud sentinelle, lu et écrit uniquement par le consommateur
+	private Node<E> head;
+
+	public MpscQueue() {
+		head = new Node<E>(null);
+		tail = new AtomicReference<Node<E>>(head);
+	}
+
+	/**
+	 * Ajoute un élément en fin de file. Thread-safe et non bloquant.
+	 *
+	 * @param e : l'élément à ajouter (non null)
+	 */
+	public void offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		Node<E> node = new Node<E>(e);
+		Node<E> prev = tail.getAndSet(node);
+		prev.next = node;
+	}
+
+	/**
+	 * Réservé au consommateur.
+	 *
+	 * @return le premier élément de la file, null si la file est vide
+	 */
+	public E poll() {
+		Node<E> next = head.next;
+		if (next == null) {
+			// un producteur a pu faire son getAndSet sans avoir encore chaîné
+			// son noeud : la file n'est alors pas vraiment vide, on l'attend.
+			if (tail.get() == head)
+				return null;
+			while ((next = head.next) == null)
+				Thread.onSpinWait();
+		}
+		E value = next.value;
+		next.value = null;
+		head = next;
+		return value;
+	}
+
+	/**
+	 * Réservé au consommateur.
+	 *
+	 * @return true si aucun producteur n'a inséré d'élément non consommé
+	 */
+	public boolean isEmpty() {
+		return tail.get() == head;
+	}
+}
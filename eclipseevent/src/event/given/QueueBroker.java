@@ -8,6 +8,8 @@ public abstract class QueueBroker {
 
 	private Broker broker;
 	private Executor pump;
+	// pool des buffers de messages, partagé par les files de ce broker
+	private BufferPool bufferPool = new BufferPool();
 
 	public QueueBroker(Executor pump, Broker broker) {
 		this.broker = broker;
@@ -18,6 +20,10 @@ public abstract class QueueBroker {
 		return pump;
 	}
 
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
 	public String getName() {
 		return broker.getName();
 	}
@@ -0,0 +1,69 @@
+package event.given;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool des tableaux des {@link CircularBufferEvent}, par capacité (puissances
+ * de deux jusqu'à MAX_SIZE). Chaque capacité garde au plus maxCached tableaux
+ * libres ; les tableaux plus grands que MAX_SIZE ne sont pas poolés.
+ * Le contenu d'un tableau rendu n'est pas effacé. Thread-safe.
+ */
+public class RingPool {
+
+	public static final int MAX_SIZE = 1 << 20;
+	public static final int DEFAULT_MAX_CACHED = 64;
+
+	// tableaux libres, un tas par capacité
+	private ArrayDeque<byte[]>[] free;
+	private int maxCached;
+
+	public RingPool() {
+		this(DEFAULT_MAX_CACHED);
+	}
+
+	/**
+	 * @param maxCached : nombre maximum de tableaux libres gardés par capacité
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public RingPool(int maxCached) {
+		this.maxCached = maxCached;
+		int classes = Integer.numberOfTrailingZeros(MAX_SIZE) + 1;
+		free = new ArrayDeque[classes];
+		for (int i = 0; i < classes; i++)
+			free[i] = new ArrayDeque<byte[]>();
+	}
+
+	/**
+	 * @param capacity : capacité demandée
+	 * @return un tableau de la capacité donnée arrondie à la puissance de deux
+	 *         supérieure
+	 * @see CircularBufferEvent#roundCapacity(int)
+	 */
+	public byte[] acquire(int capacity) {
+		int size = CircularBufferEvent.roundCapacity(capacity);
+		if (size > MAX_SIZE)
+			return new byte[size];
+		ArrayDeque<byte[]> stack = free[Integer.numberOfTrailingZeros(size)];
+		byte[] bytes;
+		synchronized (stack) {
+			bytes = stack.pollFirst();
+		}
+		return bytes != null ? bytes : new byte[size];
+	}
+
+	/**
+	 * Remet un tableau dans sa capacité, s'il y a de la place. Le tableau ne
+	 * doit plus être utilisé par l'appelant.
+	 *
+	 * @param bytes : un tableau obtenu par acquire(), ou null
+	 */
+	public void recycle(byte[] bytes) {
+		if (bytes == null || bytes.length > MAX_SIZE || Integer.bitCount(bytes.length) != 1)
+			return;
+		ArrayDeque<byte[]> stack = free[Integer.numberOfTrailingZeros(bytes.length)];
+		synchronized (stack) {
+			if (stack.size() < maxCached)
+				stack.addFirst(bytes);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package event.given;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Groupe de tâches exécutées par une pompe, par exemple celles d'une paire de
+ * canaux. Le groupe occupe au plus une place dans la file de la pompe : à son
+ * tour, il exécute au plus quota de ses tâches, dans l'ordre où elles ont été
+ * postées, puis se reposte en fin de file s'il lui en reste. Les groupes d'une
+ * même pompe sont donc servis à tour de rôle, quel que soit le nombre de
+ * tâches que chacun accumule.
+ */
+public class TaskGroup implements Runnable {
+
+	// Nombre de tâches exécutées par tour, par défaut
+	public static final int DEFAULT_QUOTA = 4;
+
+	private Executor executor;
+	private MpscQueue<Runnable> tasks = new MpscQueue<Runnable>();
+	// vrai si le groupe est posté dans la pompe ou en train de s'exécuter
+	private AtomicBoolean scheduled = new AtomicBoolean(false);
+	private int quota;
+
+	public TaskGroup(Executor executor) {
+		this(executor, DEFAULT_QUOTA);
+	}
+
+	/**
+	 * @param executor : la pompe du groupe
+	 * @param quota    : nombre maximal de tâches exécutées par tour
+	 * @throws IllegalArgumentException si le quota n'est pas positif
+	 */
+	public TaskGroup(Executor executor, int quota) {
+		if (quota < 1)
+			throw new IllegalArgumentException("TaskGroup : invalid quota " + quota);
+		this.executor = executor;
+		this.quota = quota;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Poste une tâche dans le groupe. Thread-safe et non bloquant ; le groupe
+	 * n'est posté dans la pompe que s'il n'y est pas déjà.
+	 *
+	 * @param r : la tâche
+	 */
+	public void post(Runnable r) {
+		tasks.offer(r);
+		if (!scheduled.get() && scheduled.compareAndSet(false, true))
+			executor.post(this);
+	}
+
+	/*
+	 * Exécute au plus quota tâches du groupe.
+	 * Baisse le drapeau, puis revérifie la file : une tâche postée pendant le
+	 * tour a vu le drapeau levé et ne s'est pas postée elle-même, c'est alors au
+	 * groupe de se reposter, en fin de file de la pompe.
+	 */
+	@Override
+	public void run() {
+		Runnable r;
+		for (int i = 0; i < quota && (r = tasks.poll()) != null; i++)
+			r.run();
+		scheduled.set(false);
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true))
+			executor.post(this);
+	}
+}
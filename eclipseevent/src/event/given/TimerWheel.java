@@ -0,0 +1,228 @@
+package event.given;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Roue temporelle hachée : les échéances sont rangées dans un tableau de
+ * cases, une case par tick, la case d'une échéance lointaine étant réutilisée
+ * à chaque tour de roue (l'échéance compte les tours qu'il lui reste).
+ * Programmer et annuler coûtent O(1) quel que soit le nombre d'échéances ; une
+ * échéance est exécutée au plus un tick après sa date, jamais avant.
+ * schedule() et {@link Timeout#cancel()} sont thread-safe et non bloquants :
+ * ils passent par des files MPSC que seule la pompe propriétaire vide, dans
+ * {@link #expire()}. Une échéance annulée est retirée de sa case au tour de
+ * pompe suivant, si bien qu'elle ne reste pas en mémoire jusqu'à sa date.
+ */
+public class TimerWheel {
+
+	// Durée d'un tick et nombre de cases par défaut
+	public static final long DEFAULT_TICK = TimeUnit.MILLISECONDS.toNanos(1);
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+	/**
+	 * Une échéance programmée.
+	 */
+	public final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		// place dans la roue, lue et écrite uniquement par la pompe
+		private int slot = -1;
+		private long rounds;
+		private Timeout prev, next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Annule l'échéance si elle n'a pas encore été exécutée.
+		 * Thread-safe et non bloquant.
+		 *
+		 * @return true si l'échéance est annulée, false si elle a déjà été
+		 *         exécutée ou annulée
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED))
+				return false;
+			cancelled.offer(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+
+	private final long tick;
+	private final int mask;
+	private final Timeout[] wheel;
+	private final long start = System.nanoTime();
+	// prochain tick à traiter, depuis start
+	private long next = 0;
+	// échéances programmées ou annulées, pas encore traitées par la pompe
+	private final MpscQueue<Timeout> incoming = new MpscQueue<Timeout>();
+	private final MpscQueue<Timeout> cancelled = new MpscQueue<Timeout>();
+	// échéances programmées, ni exécutées ni retirées après annulation
+	private final AtomicInteger size = new AtomicInteger();
+	// échéances rangées dans la roue, compté par la pompe
+	private int placed = 0;
+
+	public TimerWheel() {
+		this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * @param tick      : durée d'un tick en nanosecondes
+	 * @param wheelSize : nombre de cases, arrondi à la puissance de deux
+	 *                  supérieure
+	 * @throws IllegalArgumentException si un paramètre n'est pas positif
+	 */
+	public TimerWheel(long tick, int wheelSize) {
+		if (tick <= 0 || wheelSize <= 0)
+			throw new IllegalArgumentException("TimerWheel : invalid parameters");
+		this.tick = tick;
+		this.wheel = new Timeout[CircularBufferEvent.roundCapacity(wheelSize)];
+		this.mask = wheel.length - 1;
+	}
+
+	/**
+	 * Programme une tâche, exécutée par la pompe propriétaire après le délai
+	 * donné. Thread-safe et non bloquant.
+	 *
+	 * @param task  : la tâche
+	 * @param delay : le délai (négatif ou nul : au prochain tick)
+	 * @param unit  : l'unité du délai
+	 * @return l'échéance, annulable
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null)
+			throw new NullPointerException();
+		Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+		size.incrementAndGet();
+		incoming.offer(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return le nombre d'échéances en attente
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return vrai si des échéances programmées attendent d'être rangées par
+	 *         {@link #expire()}
+	 */
+	public boolean hasIncoming() {
+		return !incoming.isEmpty();
+	}
+
+	/*
+	 * S'il n'y a aucune échéance, retourne aussitôt.
+	 * Si la roue est vide, saute les ticks écoulés depuis le dernier appel : il
+	 * n'y a rien à y rattraper.
+	 * Range dans leur case les échéances programmées depuis le dernier appel,
+	 * sauf celles déjà annulées.
+	 * Retire de leur case les échéances annulées.
+	 * Pour chaque tick écoulé non traité :
+	 * -- parcourt sa case : exécute et retire les échéances de ce tour,
+	 * décompte un tour aux autres
+	 */
+	/**
+	 * Exécute les échéances arrivées. Réservée à la pompe propriétaire.
+	 *
+	 * @return le nombre de tâches exécutées
+	 */
+	public int expire() {
+		if (size.get() == 0)
+			return 0;
+		long now = (System.nanoTime() - start) / tick;
+		if (placed == 0 && next < now)
+			next = now;
+		Timeout t;
+		while ((t = incoming.poll()) != null)
+			if (t.state.get() == PENDING)
+				place(t);
+		while ((t = cancelled.poll()) != null) {
+			if (t.slot >= 0)
+				unlink(t);
+			size.decrementAndGet();
+		}
+		int ran = 0;
+		for (; next <= now; next++) {
+			t = wheel[(int) (next & mask)];
+			while (t != null) {
+				Timeout following = t.next;
+				if (t.rounds > 0) {
+					t.rounds--;
+				} else {
+					unlink(t);
+					if (t.state.compareAndSet(PENDING, EXPIRED)) {
+						size.decrementAndGet();
+						t.task.run();
+						ran++;
+					}
+				}
+				t = following;
+			}
+		}
+		return ran;
+	}
+
+	/**
+	 * Réservée à la pompe propriétaire, après {@link #expire()}.
+	 *
+	 * @return le temps en nanosecondes (au moins 1) jusqu'au prochain tick dont
+	 *         la case n'est pas vide (ou jusqu'au tour de roue suivant), -1 s'il
+	 *         n'y a aucune échéance
+	 */
+	public long nextWait() {
+		if (size.get() == 0)
+			return -1;
+		// des échéances programmées ou annulées attendent d'être rangées
+		long ticks = 0;
+		if (incoming.isEmpty() && cancelled.isEmpty())
+			while (ticks < mask && wheel[(int) ((next + ticks) & mask)] == null)
+				ticks++;
+		long wait = start + (next + ticks) * tick - System.nanoTime();
+		return Math.max(1, wait);
+	}
+
+	/*
+	 * Range l'échéance dans la case de son tick (arrondi au tick supérieur, et au
+	 * plus tôt le prochain tick à traiter), avec le nombre de tours de roue
+	 * restant avant ce tick
+	 */
+	private void place(Timeout t) {
+		long ticks = Math.max(next, (t.deadline - start + tick - 1) / tick);
+		t.rounds = (ticks - next) / wheel.length;
+		t.slot = (int) (ticks & mask);
+		t.next = wheel[t.slot];
+		if (t.next != null)
+			t.next.prev = t;
+		wheel[t.slot] = t;
+		placed++;
+	}
+
+	private void unlink(Timeout t) {
+		if (t.prev != null)
+			t.prev.next = t.next;
+		else
+			wheel[t.slot] = t.next;
+		if (t.next != null)
+			t.next.prev = t.prev;
+		t.prev = t.next = null;
+		t.slot = -1;
+		placed--;
+	}
+}
@@ -0,0 +1,93 @@
+package event.given;
+
+/**
+ * Stratégie d'attente d'une pompe dont les files sont vides. Entre deux
+ * tâches, la pompe appelle idle() avec le nombre d'appels déjà faits ; la
+ * stratégie peut attendre elle-même un instant (spin, yield) et rend :
+ * - SPIN pour revérifier les files aussitôt
+ * - PARK pour endormir la pompe jusqu'au prochain post
+ * - une durée en nanosecondes pour l'endormir au plus cette durée
+ * Une pompe endormie coûte un réveil de thread au prochain post ; une pompe
+ * qui tourne répond plus vite mais consomme un cœur.
+ */
+public abstract class WaitStrategy {
+
+	public static final long SPIN = -1;
+	public static final long PARK = 0;
+
+	/**
+	 * Endort la pompe dès que ses files sont vides : aucun CPU consommé à vide,
+	 * un réveil de thread à chaque reprise (le comportement par défaut).
+	 */
+	public static final WaitStrategy BLOCKING = new WaitStrategy() {
+		@Override
+		public long idle(int count) {
+			return PARK;
+		}
+	};
+
+	/**
+	 * Ne s'endort jamais : latence minimale, un cœur entier consommé.
+	 */
+	public static final WaitStrategy BUSY_SPIN = new WaitStrategy() {
+		@Override
+		public long idle(int count) {
+			Thread.onSpinWait();
+			return SPIN;
+		}
+	};
+
+	/**
+	 * Tourne spins fois, puis cède le processeur à chaque tour sans jamais
+	 * s'endormir.
+	 *
+	 * @param spins : nombre de tours actifs avant de céder
+	 * @throws IllegalArgumentException si spins est négatif
+	 */
+	public static WaitStrategy spinThenYield(int spins) {
+		if (spins < 0)
+			throw new IllegalArgumentException("WaitStrategy : invalid spins " + spins);
+		return new WaitStrategy() {
+			@Override
+			public long idle(int count) {
+				if (count < spins)
+					Thread.onSpinWait();
+				else
+					Thread.yield();
+				return SPIN;
+			}
+		};
+	}
+
+	/**
+	 * Tourne spins fois, puis s'endort au plus timeout nanosecondes à la fois :
+	 * une pompe réveillée par l'échéance revérifie ses files et se rendort.
+	 *
+	 * @param spins   : nombre de tours actifs avant de s'endormir
+	 * @param timeout : durée maximale d'un sommeil en nanosecondes, 0 pour
+	 *                dormir jusqu'au prochain post
+	 * @throws IllegalArgumentException si un paramètre est négatif
+	 */
+	public static WaitStrategy spinThenPark(int spins, long timeout) {
+		if (spins < 0 || timeout < 0)
+			throw new IllegalArgumentException("WaitStrategy : invalid parameters");
+		return new WaitStrategy() {
+			@Override
+			public long idle(int count) {
+				if (count < spins) {
+					Thread.onSpinWait();
+					return SPIN;
+				}
+				return timeout;
+			}
+		};
+	}
+
+	/**
+	 * Appelée par la pompe, dans son thread, tant que ses files sont vides.
+	 *
+	 * @param count : nombre d'appels depuis la dernière tâche exécutée
+	 * @return SPIN, PARK ou la durée maximale du sommeil en nanosecondes
+	 */
+	public abstract long idle(int count);
+}
@@ -0,0 +1,448 @@
+package event.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import event.given.Broker;
+import event.given.Executor;
+import event.given.ExecutorGroup;
+
+/**
+ * Broker dont les canaux sont des sockets non bloquantes (NioChannel),
+ * surveillées par un Reactor. Les sous-classes donnent la famille de sockets
+ * et la correspondance entre (nom de broker, port) et adresse de socket.
+ *
+ * Le rendez-vous garde la sémantique de CBroker :
+ * - accept() ouvre le serveur du port à la première acceptation et le garde
+ * ouvert ; les connexions arrivant sans acceptation en attente patientent
+ * dans la file du système jusqu'à la prochaine acceptation
+ * - connect() réessaie tant que le port distant n'écoute pas, comme un
+ * connect CBroker attend l'acceptation distante
+ *
+ * À l'établissement, le broker qui se connecte envoie son nom (poignée de
+ * main : [longueur (short)] + [nom en UTF-8]), pour le getRemoteName() du
+ * canal accepté. Une connexion n'est remise au listener d'acceptation qu'une
+ * fois ce nom reçu.
+ */
+public abstract class NioBroker extends Broker {
+
+	// délai entre deux tentatives de connexion, en millisecondes
+	public static final int CONNECT_RETRY_DELAY = 50;
+	// taille maximale du nom envoyé à la poignée de main
+	public static final int MAX_NAME_LENGTH = 1024;
+
+	// pompes auxquelles sont rattachées les connexions établies par ce broker
+	private ExecutorGroup executors;
+	private Reactor reactor;
+	private boolean ownsReactor;
+	// serveurs ouverts par port, avec leur acceptation en attente
+	private Map<Integer, Acceptor> acceptors = new HashMap<>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Crée un broker avec son propre réacteur.
+	 *
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 */
+	protected NioBroker(String name, ExecutorGroup executors) {
+		this(name, executors, null);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param reactor   : le réacteur, démarré, partagé avec d'autres brokers ;
+	 *                  null pour un réacteur propre au broker
+	 * @throws IllegalArgumentException si le nom est trop long
+	 */
+	protected NioBroker(String name, ExecutorGroup executors, Reactor reactor) {
+		super(name);
+		if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_LENGTH)
+			throw new IllegalArgumentException("NioBroker : name too long");
+		this.executors = executors;
+		if (reactor == null) {
+			reactor = new Reactor(name + "-reactor");
+			reactor.start();
+			ownsReactor = true;
+		}
+		this.reactor = reactor;
+	}
+
+	public ExecutorGroup getExecutors() {
+		return executors;
+	}
+
+	public Reactor getReactor() {
+		return reactor;
+	}
+
+	/**
+	 * Ouvre et lie le serveur du port donné.
+	 *
+	 * @param port : le port du broker
+	 * @return le serveur, lié
+	 * @throws IOException si le port ne peut pas être ouvert
+	 */
+	protected abstract ServerSocketChannel listen(int port) throws IOException;
+
+	/**
+	 * Appelée après la fermeture du serveur du port donné.
+	 *
+	 * @param port : le port du broker
+	 */
+	protected void unlisten(int port) {
+	}
+
+	/**
+	 * @param name : nom du broker distant
+	 * @param port : le port du broker distant
+	 * @return l'adresse de la socket à joindre, null si le broker est inconnu
+	 */
+	protected abstract SocketAddress remoteAddress(String name, int port);
+
+	/**
+	 * @return une nouvelle socket, non connectée, de la famille du broker
+	 * @throws IOException si la socket ne peut pas être ouverte
+	 */
+	protected abstract SocketChannel openSocket() throws IOException;
+
+	/**
+	 * Règle les options d'une socket, acceptée ou connectée, avant son
+	 * utilisation.
+	 *
+	 * @param socket : la socket
+	 * @throws IOException si une option ne peut pas être réglée
+	 */
+	protected void configure(SocketChannel socket) throws IOException {
+	}
+
+	/*
+	 * Si le broker est fermé : IllegalStateException
+	 * Si une acceptation est déjà en attente sur le port : IllegalArgumentException
+	 * Ouvre le serveur du port s'il ne l'est pas déjà
+	 * Enregistre le listener et arme l'acceptation dans le réacteur
+	 */
+	/**
+	 * @throws IllegalArgumentException si une acceptation est déjà en attente sur
+	 *                                  le port, ou s'il ne peut pas être ouvert
+	 * @throws IllegalStateException    si le broker est fermé
+	 * @see Broker#accept(int, AcceptListener)
+	 */
+	@Override
+	public synchronized void accept(int port, AcceptListener listener) {
+		if (closed)
+			throw new IllegalStateException(this.toString() + " accept : closed");
+		Acceptor acceptor = acceptors.get(port);
+		if (acceptor != null && acceptor.listener != null)
+			throw new IllegalArgumentException(this.toString() + " accept : port invalide");
+		if (acceptor == null) {
+			ServerSocketChannel server;
+			try {
+				server = listen(port);
+				server.configureBlocking(false);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(this.toString() + " accept : port " + port + " unavailable", e);
+			}
+			acceptor = new Acceptor(port, server);
+			acceptors.put(port, acceptor);
+		}
+		acceptor.listener = listener;
+		Acceptor armed = acceptor;
+		reactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				armed.arm();
+			}
+		});
+	}
+
+	/*
+	 * Résout l'adresse du broker distant et retourne false si elle est inconnue.
+	 * Sinon, la tentative de connexion est faite dans le réacteur.
+	 */
+	/**
+	 * @return true si le broker distant est connu, false sinon
+	 * @see Broker#connect(String, int, ConnectListener)
+	 */
+	@Override
+	public boolean connect(String name, int port, ConnectListener listener) {
+		if (closed)
+			return false;
+		SocketAddress address = remoteAddress(name, port);
+		if (address == null)
+			return false;
+		Connector connector = new Connector(name, port, address, listener);
+		reactor.execute(connector.attempt);
+		return true;
+	}
+
+	/**
+	 * Ferme les serveurs du broker (et son réacteur s'il lui est propre, ce qui
+	 * ferme aussi ses canaux). Les acceptations et connexions en attente sont
+	 * abandonnées.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (Acceptor acceptor : acceptors.values()) {
+			try {
+				acceptor.server.close();
+			} catch (IOException e) {
+				// rien à faire
+			}
+			unlisten(acceptor.port);
+		}
+		acceptors.clear();
+		if (ownsReactor)
+			reactor.shutdown();
+	}
+
+	public boolean closed() {
+		return closed;
+	}
+
+	/**
+	 * Encode la poignée de main : [longueur (short)] + [nom en UTF-8]
+	 */
+	private static ByteBuffer handshake(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES + bytes.length);
+		buffer.putShort((short) bytes.length).put(bytes).flip();
+		return buffer;
+	}
+
+	/*
+	 * Serveur d'un port. Dans le réacteur :
+	 * - l'acceptation est armée tant qu'un listener est en attente et qu'aucune
+	 * poignée de main n'est en cours
+	 * - une socket acceptée lit le nom du broker distant (Handshake), puis
+	 * devient un NioChannel remis au listener, qui est alors consommé
+	 * - si la poignée de main échoue, la socket est fermée et l'acceptation
+	 * réarmée
+	 */
+	private class Acceptor implements Reactor.Handler {
+		int port;
+		ServerSocketChannel server;
+		SelectionKey key;
+		// acceptation en attente, protégée par le verrou du broker
+		AcceptListener listener;
+		// vrai si une socket acceptée est en poignée de main (réacteur seulement)
+		boolean handshaking = false;
+
+		Acceptor(int port, ServerSocketChannel server) {
+			this.port = port;
+			this.server = server;
+		}
+
+		/**
+		 * Arme l'acceptation, dans le réacteur
+		 */
+		void arm() {
+			if (!server.isOpen() || handshaking)
+				return;
+			try {
+				if (key == null)
+					key = reactor.register(server, this);
+				key.interestOpsOr(SelectionKey.OP_ACCEPT);
+			} catch (IOException e) {
+				// serveur fermé par close()
+			}
+		}
+
+		@Override
+		public void ready(SelectionKey key) throws IOException {
+			SocketChannel socket = server.accept();
+			if (socket == null) {
+				arm();
+				return;
+			}
+			handshaking = true;
+			try {
+				socket.configureBlocking(false);
+				configure(socket);
+				reactor.register(socket, new Handshake(socket)).interestOps(SelectionKey.OP_READ);
+			} catch (IOException e) {
+				socket.close();
+				handshaking = false;
+				arm();
+			}
+		}
+
+		/*
+		 * Lit la longueur puis le nom du broker distant, sans lire au-delà
+		 */
+		private class Handshake implements Reactor.Handler {
+			SocketChannel socket;
+			ByteBuffer header = ByteBuffer.allocate(Short.BYTES);
+			ByteBuffer name = null;
+
+			Handshake(SocketChannel socket) {
+				this.socket = socket;
+			}
+
+			@Override
+			public void ready(SelectionKey key) {
+				try {
+					ByteBuffer buffer = name == null ? header : name;
+					if (socket.read(buffer) < 0) {
+						fail();
+						return;
+					}
+					if (name == null && !header.hasRemaining()) {
+						int length = header.getShort(0) & 0xFFFF;
+						if (length > MAX_NAME_LENGTH) {
+							fail();
+							return;
+						}
+						name = ByteBuffer.allocate(length);
+					}
+					if (name == null || name.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+				} catch (IOException e) {
+					fail();
+					return;
+				}
+				handshaking = false;
+				AcceptListener l;
+				synchronized (NioBroker.this) {
+					l = listener;
+					listener = null;
+				}
+				if (l == null) {
+					fail();
+					return;
+				}
+				String remoteName = new String(name.array(), StandardCharsets.UTF_8);
+				Executor executor = executors.select(getName(), port);
+				NioChannel channel = new NioChannel(NioBroker.this, port, remoteName, socket, key, reactor,
+						executor);
+				executor.postControl(new Runnable() {
+					@Override
+					public void run() {
+						l.accepted(channel);
+					}
+				});
+			}
+
+			private void fail() {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// rien à faire
+				}
+				handshaking = false;
+				arm();
+			}
+		}
+	}
+
+	/*
+	 * Tentative de connexion, dans le réacteur :
+	 * - ouvre une socket non bloquante et lance la connexion
+	 * - une fois connectée, envoie la poignée de main, puis crée le NioChannel
+	 * et poste connected() dans sa pompe
+	 * - en cas d'échec (port distant fermé, connexion perdue), ferme la socket
+	 * et réessaie après CONNECT_RETRY_DELAY
+	 */
+	private class Connector implements Reactor.Handler {
+		String name;
+		int port;
+		SocketAddress address;
+		ConnectListener listener;
+		SocketChannel socket;
+		SelectionKey key;
+		ByteBuffer handshake;
+		Runnable attempt = new Runnable() {
+			@Override
+			public void run() {
+				attempt();
+			}
+		};
+
+		Connector(String name, int port, SocketAddress address, ConnectListener listener) {
+			this.name = name;
+			this.port = port;
+			this.address = address;
+			this.listener = listener;
+		}
+
+		void attempt() {
+			if (closed)
+				return;
+			try {
+				socket = openSocket();
+				socket.configureBlocking(false);
+				configure(socket);
+				key = reactor.register(socket, this);
+				if (socket.connect(address))
+					connected();
+				else
+					key.interestOps(SelectionKey.OP_CONNECT);
+			} catch (IOException e) {
+				retry();
+			}
+		}
+
+		@Override
+		public void ready(SelectionKey key) {
+			try {
+				if (handshake == null) {
+					if (socket.finishConnect())
+						connected();
+					else
+						key.interestOps(SelectionKey.OP_CONNECT);
+				} else {
+					write();
+				}
+			} catch (IOException e) {
+				retry();
+			}
+		}
+
+		private void connected() throws IOException {
+			handshake = handshake(getName());
+			write();
+		}
+
+		private void write() throws IOException {
+			socket.write(handshake);
+			if (handshake.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			Executor executor = executors.select(name, port);
+			NioChannel channel = new NioChannel(NioBroker.this, port, name, socket, key, reactor, executor);
+			executor.postControl(new Runnable() {
+				@Override
+				public void run() {
+					listener.connected(channel);
+				}
+			});
+		}
+
+		private void retry() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// rien à faire
+				}
+			}
+			socket = null;
+			key = null;
+			handshake = null;
+			if (!closed)
+				reactor.schedule(attempt, CONNECT_RETRY_DELAY);
+		}
+	}
+
+}
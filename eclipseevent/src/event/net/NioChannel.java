@@ -0,0 +1,151 @@
+package event.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import event.given.Broker;
+import event.given.Executor;
+import event.queue.RequestChannel;
+
+/**
+ * Canal sur une socket non bloquante (TCP ou Unix), avec la sémantique de
+ * CChannel : les requêtes et leurs vérifications sont celles de
+ * RequestChannel, le canal ne donne que les transferts sur la socket.
+ *
+ * La pompe lit et écrit directement sur la socket. Lorsque la socket n'a rien
+ * à lire (ou plus de place pour écrire), la file de requêtes est mise en pause
+ * et l'opération est armée dans le réacteur, qui reprendra la file lorsque la
+ * socket sera prête.
+ *
+ * La fin de flux de la socket (le canal distant s'est déconnecté et tous ses
+ * bytes ont été lus) ou une erreur d'entrée/sortie déconnecte le canal.
+ */
+public class NioChannel extends RequestChannel implements Reactor.Handler {
+
+	private SocketChannel socket;
+	private SelectionKey key;
+	private Reactor reactor;
+	private int port;
+	private String remoteName;
+	private volatile boolean disconnected = false;
+
+	/**
+	 * Crée un canal connecté sur une socket déjà enregistrée dans le réacteur.
+	 * Le canal devient le handler de la clé.
+	 *
+	 * @param broker     : Broker parent
+	 * @param port       : port de communication
+	 * @param remoteName : nom du broker distant
+	 * @param socket     : la socket connectée, non bloquante
+	 * @param key        : la clé de la socket, sans opération armée
+	 * @param reactor    : le réacteur de la socket
+	 * @param executor   : la pompe du canal
+	 */
+	NioChannel(Broker broker, int port, String remoteName, SocketChannel socket, SelectionKey key,
+			Reactor reactor, Executor executor) {
+		super(broker, executor);
+		this.port = port;
+		this.remoteName = remoteName;
+		this.socket = socket;
+		this.key = key;
+		this.reactor = reactor;
+		key.attach(this);
+	}
+
+	/*
+	 * Appelé par le réacteur : la socket a des bytes à lire ou de la place pour
+	 * écrire, on reprend la file correspondante
+	 */
+	@Override
+	public void ready(SelectionKey key) {
+		int ops = key.readyOps();
+		if ((ops & SelectionKey.OP_READ) != 0)
+			post(readRequests.resume());
+		if ((ops & SelectionKey.OP_WRITE) != 0)
+			post(writeRequests.resume());
+	}
+
+	@Override
+	public String getRemoteName() {
+		return remoteName;
+	}
+
+	@Override
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	protected long push(byte[] bytes, int offset, int length) throws IOException {
+		return socket.write(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	@Override
+	protected long push(ByteBuffer src) throws IOException {
+		return socket.write(src);
+	}
+
+	@Override
+	protected long push(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		return socket.write(srcs, offset, length);
+	}
+
+	@Override
+	protected long pull(byte[] bytes, int offset, int length) throws IOException {
+		return socket.read(ByteBuffer.wrap(bytes, offset, length));
+	}
+
+	@Override
+	protected long pull(ByteBuffer dst) throws IOException {
+		return socket.read(dst);
+	}
+
+	@Override
+	protected long pull(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		return socket.read(dsts, offset, length);
+	}
+
+	/*
+	 * La socket n'a plus de place : l'écriture est armée dans le réacteur, qui
+	 * reprendra la file
+	 */
+	@Override
+	protected void awaitWritable() {
+		reactor.interest(key, SelectionKey.OP_WRITE);
+	}
+
+	@Override
+	protected void awaitReadable() {
+		reactor.interest(key, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Déconnecte le canal et ferme sa socket : les bytes déjà écrits sont
+	 * livrés au canal distant, les requêtes en attente sont abandonnées (leurs
+	 * listeners en sont prévenus par ended()).
+	 */
+	@Override
+	public void disconnect() {
+		disconnected = true;
+		stopIdleTimeout();
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// la socket est fermée quand même
+		}
+		resumeRequests();
+	}
+
+	@Override
+	public boolean disconnected() {
+		return disconnected;
+	}
+
+	@Override
+	public String toString() {
+		return "NioChannel[" + this.getBroker().getName() + ":" + port + "]-[" + remoteName + "]";
+	}
+
+}
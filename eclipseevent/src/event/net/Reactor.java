@@ -0,0 +1,210 @@
+package event.net;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread du Selector des transports réseau.
+ *
+ * Le réacteur ne fait que surveiller les sockets : les lectures et écritures
+ * des canaux sont faites par leur pompe (Executor). Un canal qui ne peut plus
+ * avancer arme l'opération voulue avec interest() ; lorsqu'elle est prête, le
+ * réacteur la désarme et prévient le handler de la clé, qui reposte sa requête
+ * dans la pompe. Les établissements de connexion (accept, connect, poignée de
+ * main) sont faits entièrement dans le réacteur.
+ *
+ * Les enregistrements de sockets et les tâches différées ne se font que dans
+ * le thread du réacteur : execute() y fait passer une tâche depuis n'importe
+ * quel thread.
+ */
+public class Reactor extends Thread {
+
+	/**
+	 * Handler attaché à une clé du Selector, appelé dans le réacteur
+	 */
+	interface Handler {
+		/**
+		 * @param key : la clé prête, dont les opérations prêtes ont été désarmées
+		 * @throws IOException si la socket est inutilisable : la clé est alors
+		 *                     annulée et la socket fermée
+		 */
+		void ready(SelectionKey key) throws IOException;
+	}
+
+	/*
+	 * Tâche différée, exécutée dans le réacteur à son échéance
+	 */
+	private static class Timed implements Comparable<Timed> {
+		long deadline;
+		Runnable task;
+
+		Timed(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(Timed other) {
+			return Long.compare(deadline, other.deadline);
+		}
+	}
+
+	private Selector selector;
+	// tâches postées par les autres threads
+	private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	// tâches différées, manipulées uniquement par le réacteur
+	private PriorityQueue<Timed> timers = new PriorityQueue<>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Crée un réacteur démon, non démarré.
+	 *
+	 * @param name : nom du thread
+	 * @throws UncheckedIOException si le Selector ne peut pas être ouvert
+	 */
+	public Reactor(String name) {
+		super(name);
+		setDaemon(true);
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Exécute la tâche donnée dans le réacteur. Thread-safe.
+	 *
+	 * @param task : la tâche
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Exécute la tâche donnée dans le réacteur, après le délai donné. Ne doit
+	 * être appelée que dans le réacteur.
+	 *
+	 * @param task  : la tâche
+	 * @param delay : le délai en millisecondes
+	 */
+	void schedule(Runnable task, long delay) {
+		timers.add(new Timed(System.nanoTime() + delay * 1_000_000L, task));
+	}
+
+	/**
+	 * Enregistre la socket donnée, sans opération armée. Ne doit être appelée que
+	 * dans le réacteur.
+	 *
+	 * @param channel : la socket, non bloquante
+	 * @param handler : le handler de sa clé
+	 * @return la clé de la socket
+	 * @throws IOException si la socket est fermée
+	 */
+	SelectionKey register(SelectableChannel channel, Handler handler) throws IOException {
+		return channel.register(selector, 0, handler);
+	}
+
+	/**
+	 * Arme les opérations données sur la clé. Thread-safe.
+	 *
+	 * @param key : la clé
+	 * @param ops : les opérations à surveiller
+	 */
+	void interest(SelectionKey key, int ops) {
+		try {
+			key.interestOpsOr(ops);
+		} catch (CancelledKeyException e) {
+			return;
+		}
+		selector.wakeup();
+	}
+
+	/**
+	 * Arrête le réacteur : toutes les sockets enregistrées sont fermées.
+	 */
+	public void shutdown() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	/*
+	 * Tant que le réacteur n'est pas arrêté :
+	 * - attend une socket prête, une tâche ou la prochaine échéance
+	 * - exécute les tâches postées puis les tâches échues
+	 * - pour chaque clé prête : désarme ses opérations prêtes et appelle son
+	 * handler ; une IOException ferme la socket
+	 * À l'arrêt, ferme toutes les sockets enregistrées et le Selector
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				Timed next = timers.peek();
+				if (next == null) {
+					selector.select();
+				} else {
+					long timeout = (next.deadline - System.nanoTime()) / 1_000_000L;
+					if (timeout > 0)
+						selector.select(timeout);
+					else
+						selector.selectNow();
+				}
+				Runnable task;
+				while ((task = tasks.poll()) != null)
+					run(task);
+				long now = System.nanoTime();
+				while (!timers.isEmpty() && timers.peek().deadline - now <= 0)
+					run(timers.poll().task);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						key.interestOpsAnd(~key.readyOps());
+						((Handler) key.attachment()).ready(key);
+					} catch (CancelledKeyException e) {
+						// socket fermée entre temps
+					} catch (IOException e) {
+						close(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys())
+				close(key);
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// rien à faire
+			}
+		}
+	}
+
+	private void run(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// rien à faire
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package event.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import event.given.Executor;
+import event.given.ExecutorGroup;
+
+/**
+ * Broker TCP : le port p d'un broker écoute sur hôte:(basePort + p).
+ *
+ * Chaque broker connaît sa propre adresse ; les adresses des autres brokers
+ * (dans ce processus ou ailleurs) sont déclarées avec route(). Les sockets
+ * sont en TCP_NODELAY : les trames des files de messages partent sans
+ * attendre.
+ */
+public class TcpBroker extends NioBroker {
+
+	// Port TCP du port 0 des brokers par défaut
+	public static final int DEFAULT_BASE_PORT = 20000;
+
+	private InetAddress host;
+	private int basePort;
+	// adresse de base (hôte, port TCP du port 0) des brokers connus
+	private Map<String, InetSocketAddress> routes = new ConcurrentHashMap<>();
+
+	/**
+	 * Crée un broker sur l'interface locale (loopback) et DEFAULT_BASE_PORT.
+	 *
+	 * @param name     : nom du broker
+	 * @param executor : la pompe du broker
+	 */
+	public TcpBroker(String name, Executor executor) {
+		this(name, new ExecutorGroup(executor), InetAddress.getLoopbackAddress(), DEFAULT_BASE_PORT);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param host      : l'adresse d'écoute
+	 * @param basePort  : le port TCP du port 0 du broker
+	 */
+	public TcpBroker(String name, ExecutorGroup executors, InetAddress host, int basePort) {
+		this(name, executors, null, host, basePort);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param reactor   : le réacteur partagé, null pour un réacteur propre
+	 * @param host      : l'adresse d'écoute
+	 * @param basePort  : le port TCP du port 0 du broker
+	 * @throws IllegalArgumentException si basePort n'est pas un port TCP
+	 */
+	public TcpBroker(String name, ExecutorGroup executors, Reactor reactor, InetAddress host, int basePort) {
+		super(name, executors, reactor);
+		if (basePort < 0 || basePort > 0xFFFF)
+			throw new IllegalArgumentException("TcpBroker : invalid base port");
+		this.host = host;
+		this.basePort = basePort;
+		route(name, host, basePort);
+	}
+
+	/**
+	 * Déclare l'adresse d'un broker.
+	 *
+	 * @param name     : nom du broker
+	 * @param host     : son adresse d'écoute
+	 * @param basePort : le port TCP de son port 0
+	 */
+	public void route(String name, InetAddress host, int basePort) {
+		routes.put(name, new InetSocketAddress(host, basePort));
+	}
+
+	/**
+	 * @param name : nom du broker à oublier
+	 */
+	public void unroute(String name) {
+		routes.remove(name);
+	}
+
+	public InetAddress getHost() {
+		return host;
+	}
+
+	public int getBasePort() {
+		return basePort;
+	}
+
+	/**
+	 * @throws IllegalArgumentException si basePort + port n'est pas un port TCP
+	 */
+	private static int tcpPort(int basePort, int port) {
+		int tcp = basePort + port;
+		if (port < 0 || tcp > 0xFFFF)
+			throw new IllegalArgumentException("TcpBroker : port " + port + " out of range");
+		return tcp;
+	}
+
+	@Override
+	protected ServerSocketChannel listen(int port) throws IOException {
+		InetSocketAddress address = new InetSocketAddress(host, tcpPort(basePort, port));
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try {
+			server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			server.bind(address);
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		return server;
+	}
+
+	@Override
+	protected SocketAddress remoteAddress(String name, int port) {
+		InetSocketAddress base = routes.get(name);
+		if (base == null)
+			return null;
+		return new InetSocketAddress(base.getAddress(), tcpPort(base.getPort(), port));
+	}
+
+	@Override
+	protected SocketChannel openSocket() throws IOException {
+		return SocketChannel.open();
+	}
+
+	@Override
+	protected void configure(SocketChannel socket) throws IOException {
+		socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	@Override
+	public String toString() {
+		return "[TcpBroker " + this.getName() + "]";
+	}
+
+}
@@ -0,0 +1,240 @@
+package event.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import event.given.Executor;
+import event.given.ExecutorGroup;
+
+/**
+ * Broker sur sockets Unix, pour les brokers d'une même machine : pas de pile
+ * TCP entre les deux processus.
+ *
+ * Les brokers partagent un répertoire : le port p du broker n écoute sur le
+ * fichier n.p.sock, et le fichier n.broker signale que le broker existe
+ * (connect() retourne false sinon). Le broker vivant garde un verrou exclusif
+ * sur son fichier n.broker, que le système relâche à la mort du processus : un
+ * fichier sans verrou a été laissé par un broker mort, ses fichiers peuvent
+ * être repris. Les chemins des sockets Unix sont limités (environ 100
+ * caractères) : le répertoire doit rester court.
+ */
+public class UnixBroker extends NioBroker {
+
+	// Répertoire par défaut des sockets
+	public static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "event-brokers");
+
+	// fichiers n.broker des brokers vivants de ce processus. Fermer un
+	// FileChannel relâche tous les verrous du processus sur le fichier : on
+	// n'ouvre donc jamais le fichier d'un broker de ce processus, et les
+	// ouvertures de fichiers n.broker se font sous le verrou de l'ensemble
+	private static final Set<Path> LOCAL = new HashSet<>();
+
+	private Path directory;
+	// fichier n.broker ouvert et son verrou, gardés jusqu'à close()
+	private FileChannel markerChannel;
+	private FileLock markerLock;
+
+	/**
+	 * Crée un broker dans DEFAULT_DIRECTORY.
+	 *
+	 * @param name     : nom du broker
+	 * @param executor : la pompe du broker
+	 */
+	public UnixBroker(String name, Executor executor) {
+		this(name, new ExecutorGroup(executor), DEFAULT_DIRECTORY);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param directory : le répertoire des sockets, créé si besoin
+	 */
+	public UnixBroker(String name, ExecutorGroup executors, Path directory) {
+		this(name, executors, null, directory);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param reactor   : le réacteur partagé, null pour un réacteur propre
+	 * @param directory : le répertoire des sockets, créé si besoin
+	 * @throws IllegalArgumentException si le nom n'est pas un nom de fichier, ou
+	 *                                  s'il est déjà pris par un broker vivant
+	 * @throws UncheckedIOException     si le répertoire ou le fichier du broker
+	 *                                  ne peut pas être créé
+	 */
+	public UnixBroker(String name, ExecutorGroup executors, Reactor reactor, Path directory) {
+		super(checkName(name), executors, reactor);
+		this.directory = directory.toAbsolutePath().normalize();
+		synchronized (LOCAL) {
+			Path marker = marker(name);
+			if (LOCAL.contains(marker)) {
+				super.close();
+				throw new IllegalArgumentException("UnixBroker name not unique (" + name + ")");
+			}
+			try {
+				Files.createDirectories(directory);
+				markerChannel = FileChannel.open(marker, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				markerLock = lock(markerChannel);
+			} catch (IOException e) {
+				abandon();
+				throw new UncheckedIOException(e);
+			}
+			if (markerLock == null) {
+				abandon();
+				throw new IllegalArgumentException("UnixBroker name not unique (" + name + ")");
+			}
+			LOCAL.add(marker);
+		}
+	}
+
+	/**
+	 * Tente de prendre le verrou exclusif d'un fichier n.broker.
+	 *
+	 * @return le verrou, null s'il est tenu par un broker vivant
+	 */
+	private static FileLock lock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Construction échouée : ferme le fichier n.broker sans le supprimer (il
+	 * est celui d'un broker vivant d'un autre processus) et arrête le réacteur
+	 * propre
+	 */
+	private void abandon() {
+		try {
+			if (markerChannel != null)
+				markerChannel.close();
+		} catch (IOException e) {
+			// rien à faire
+		}
+		super.close();
+	}
+
+	/**
+	 * @param name : nom d'un broker
+	 * @return true si le fichier n.broker existe et qu'un broker vivant en tient
+	 *         le verrou
+	 */
+	private boolean alive(String name) {
+		Path marker = marker(name);
+		synchronized (LOCAL) {
+			if (LOCAL.contains(marker))
+				return true;
+			try (FileChannel channel = FileChannel.open(marker, StandardOpenOption.WRITE)) {
+				FileLock lock = lock(channel);
+				if (lock == null)
+					return true;
+				lock.release();
+				return false;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException si le nom n'est pas un nom de fichier
+	 */
+	private static String checkName(String name) {
+		if (name.isEmpty() || name.contains("/") || name.contains(File.separator))
+			throw new IllegalArgumentException("UnixBroker : invalid name " + name);
+		return name;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	private Path marker(String name) {
+		return directory.resolve(name + ".broker");
+	}
+
+	private Path socket(String name, int port) {
+		return directory.resolve(name + "." + port + ".sock");
+	}
+
+	/*
+	 * Un fichier de socket restant d'un processus précédent empêche le bind : il
+	 * est supprimé avant. Il ne peut pas appartenir à un broker vivant, ce
+	 * broker tenant le verrou du nom.
+	 */
+	@Override
+	protected ServerSocketChannel listen(int port) throws IOException {
+		Path path = socket(getName(), port);
+		Files.deleteIfExists(path);
+		ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			server.bind(UnixDomainSocketAddress.of(path));
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		return server;
+	}
+
+	@Override
+	protected void unlisten(int port) {
+		try {
+			Files.deleteIfExists(socket(getName(), port));
+		} catch (IOException e) {
+			// rien à faire
+		}
+	}
+
+	@Override
+	protected SocketAddress remoteAddress(String name, int port) {
+		if (!alive(name))
+			return null;
+		return UnixDomainSocketAddress.of(socket(name, port));
+	}
+
+	@Override
+	protected SocketChannel openSocket() throws IOException {
+		return SocketChannel.open(StandardProtocolFamily.UNIX);
+	}
+
+	/**
+	 * Ferme le broker et supprime ses fichiers, puis relâche le verrou du nom.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed())
+			return;
+		super.close();
+		synchronized (LOCAL) {
+			try {
+				Files.deleteIfExists(marker(getName()));
+				markerChannel.close();
+			} catch (IOException e) {
+				// rien à faire
+			}
+			LOCAL.remove(marker(getName()));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[UnixBroker " + this.getName() + "]";
+	}
+
+}
@@ -1,25 +1,26 @@
 package event.queue;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Permet de gérer l'ensemble des Brokers (leur permet de se trouver par leur
  * nom)
  * Doit être unique pour garder l'unicité des noms de Broker
+ * Les lectures ne prennent aucun verrou : la map est concurrente et l'ajout
+ * atomique.
  */
 public class BrokerManager {
 
-	private static Map<String, CBroker> brokers = new HashMap<>();
+	private static ConcurrentMap<String, CBroker> brokers = new ConcurrentHashMap<>();
 
 	/**
 	 * @param broker : Broker à ajouter
 	 * @throws IllegalArgumentException si le nom du Broker est déjà utilisé
 	 */
-	public synchronized static void addBroker(CBroker broker) throws IllegalArgumentException {
-		if (isNameUsed(broker.getName()))
+	public static void addBroker(CBroker broker) throws IllegalArgumentException {
+		if (brokers.putIfAbsent(broker.getName(), broker) != null)
 			throw new IllegalArgumentException("Broker name not unique (" + broker.getName() + ")");
-		brokers.put(broker.getName(), broker);
 	}
 
 	/**
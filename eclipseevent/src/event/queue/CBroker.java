@@ -1,125 +1,495 @@
 package event.queue;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import event.given.Broker;
+import event.given.CircularBufferEvent;
 import event.given.Executor;
+import event.given.ExecutorGroup;
+import event.given.RingPool;
+import event.given.TimerWheel;
 
 public class CBroker extends Broker {
 
-	// map stockant les acceptlisteners sur les ports ouverts
-	private Map<Integer, AcceptListener> acceptingPorts = new HashMap<>();
-	// map stockant les connectlisteners en attente d'une acceptation sur les ports
-	private Map<Integer, List<ConnectListener>> connectingPorts = new HashMap<>();
-	private Executor executor;
+	// rendez-vous de chaque port utilisé, chacun avec son propre verrou
+	private ConcurrentMap<Integer, Port> ports = new ConcurrentHashMap<>();
+	// pompes auxquelles sont rattachées les connexions établies par ce broker
+	private ExecutorGroup executors;
+	// capacité des buffers des canaux, si l'accept/connect n'en précise pas
+	private volatile int bufferCapacity = CChannel.DEFAULT_CAPACITY;
+	private volatile int turnQuota = CChannel.DEFAULT_TURN_QUOTA;
+	// tableaux des buffers des canaux, rendus quand les deux canaux d'une paire
+	// sont déconnectés
+	private RingPool rings = new RingPool();
+
+	/*
+	 * Rendez-vous d'un port : l'AcceptListener en attente s'il y en a un, ou les
+	 * acceptors permanents du port et le prochain à servir, et les
+	 * ConnectListener en attente d'une acceptation, dans l'ordre d'arrivée.
+	 * Les accept et connect d'un même port se synchronisent sur cet objet ;
+	 * ceux de ports différents ne se bloquent pas.
+	 * Un port qui n'a plus ni AcceptListener, ni acceptor, ni ConnectListener
+	 * est retiré de la map sous son verrou et marqué retiré : une opération qui
+	 * obtient ensuite ce verrou reprend le port dans la map, où il est recréé.
+	 */
+	private static class Port {
+		Pending<AcceptListener> accepting;
+		ArrayList<Acceptor> acceptors = new ArrayList<>();
+		int next = 0;
+		ArrayDeque<Pending<ConnectListener>> connecting = new ArrayDeque<>();
+		boolean removed = false;
+
+		/**
+		 * @return le prochain acceptor, à tour de rôle
+		 */
+		Acceptor nextAcceptor() {
+			next = (next + 1) % acceptors.size();
+			return acceptors.get(next);
+		}
+	}
+
+	/*
+	 * Un listener en attente de rendez-vous, avec la capacité du buffer que son
+	 * canal lira, et pour un connect avec délai, son échéance
+	 */
+	private static class Pending<L> {
+		L listener;
+		int capacity;
+		TimerWheel.Timeout timeout;
+
+		Pending(L listener, int capacity) {
+			this.listener = listener;
+			this.capacity = capacity;
+		}
+	}
+
+	/*
+	 * Un acceptor permanent, avec la pompe de ses connexions (null pour laisser
+	 * choisir le groupe du broker)
+	 */
+	private static class Acceptor extends Pending<AcceptListener> {
+		Executor executor;
+
+		Acceptor(AcceptListener listener, int capacity, Executor executor) {
+			super(listener, capacity);
+			this.executor = executor;
+		}
+	}
 
 	public CBroker(String name, Executor executor) {
+		this(name, new ExecutorGroup(executor));
+	}
+
+	/**
+	 * Crée un broker dont les connexions sont réparties sur les pompes du groupe
+	 * donné. Chaque paire de canaux est rattachée à une seule pompe, choisie au
+	 * moment du rendez-vous selon l'affinité du groupe.
+	 *
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 */
+	public CBroker(String name, ExecutorGroup executors) {
 		super(name);
 		BrokerManager.addBroker(this);
-		this.executor = executor;
+		this.executors = executors;
+	}
+
+	/**
+	 * @param port : le numéro du port
+	 * @return le rendez-vous du port, créé s'il n'est pas dans la map ; à
+	 *         reprendre s'il est marqué retiré une fois son verrou obtenu
+	 */
+	private Port port(int port) {
+		return ports.computeIfAbsent(port, p -> new Port());
+	}
+
+	/**
+	 * Retire le rendez-vous donné de la map s'il ne sert plus. Appelée sous son
+	 * verrou.
+	 */
+	private void release(int port, Port rendezVous) {
+		if (rendezVous.accepting == null && rendezVous.acceptors.isEmpty() && rendezVous.connecting.isEmpty()) {
+			rendezVous.removed = true;
+			ports.remove(port, rendezVous);
+		}
+	}
+
+	public ExecutorGroup getExecutors() {
+		return executors;
+	}
+
+	public RingPool getRingPool() {
+		return rings;
+	}
+
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+
+	/**
+	 * @param capacity : capacité par défaut des buffers des canaux créés par ce
+	 *                 broker, arrondie à la puissance de deux supérieure
+	 */
+	public void setBufferCapacity(int capacity) {
+		this.bufferCapacity = CircularBufferEvent.roundCapacity(capacity);
+	}
+
+	public int getTurnQuota() {
+		return turnQuota;
+	}
+
+	/**
+	 * @param bytes : bytes transférés au plus par une requête à son tour sur
+	 *              les canaux créés par ce broker, 0 pour ne pas limiter
+	 * @see CChannel#setTurnQuota(int)
+	 */
+	public void setTurnQuota(int bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("CBroker : invalid turn quota " + bytes);
+		this.turnQuota = bytes;
+	}
+
+	@Override
+	public void accept(int port, AcceptListener listener) {
+		accept(port, bufferCapacity, listener);
 	}
 
 	/*
-	 * Si la map acceptingPorts possède un AcceptListener sur le port donné :
+	 * Dans un bloc synchronisé sur le rendez-vous du port donné :
+	 * Si le port possède un AcceptListener ou des acceptors :
 	 * IllegalArgumentException
-	 * Si la map connectingPorts a un/des écouteurs sur le port donné :
-	 * - récupère le premier ConnectListener de la liste et l'en retire
-	 * - crée 2 nouveaux CChannels liés
-	 * - crée un nouveau Runnable appelant la méthode accepted() du listener donné
-	 * sur l'un des channels depuis sa méthode run() (du runnable)
-	 * - crée un autre nouveau Runnable appelant la méthode connected() du
-	 * ConnectListener récupéré avec l'autre channel depuis sa méthode run().
-	 * - poste ces 2 Runnable dans la pompe
+	 * Si le port a un/des ConnectListener en attente :
+	 * - récupère le premier ConnectListener de la file et l'en retire (seul
+	 * ce retrait se fait sous le verrou du port), et retire le port s'il ne
+	 * sert plus
+	 * - établit la connexion (voir accepted())
 	 * Sinon :
-	 * - Ajoute le listener donné à la map acceptingPorts sur le port donné
+	 * - Enregistre le listener donné comme AcceptListener du port
 	 */
-	@Override
-	public synchronized void accept(int port, AcceptListener listener) {
-		if (acceptingPorts.get(port) != null)
-			throw new IllegalArgumentException(this.toString() + " accept : port invalide");
-		if (connectingPorts.get(port) != null && connectingPorts.get(port).size() > 0) {
-			ConnectListener connectListener = connectingPorts.get(port).get(0);
-			connectingPorts.get(port).remove(connectListener);
-			if (connectingPorts.get(port).size() == 0)
-				connectingPorts.remove(port);
-			CChannel acceptChannel = new CChannel(this, port, executor);
-			CChannel connectChannel = new CChannel(this, port, acceptChannel, executor);
-			Runnable runnableAccept = new Runnable() {
-				@Override
-				public void run() {
-					listener.accepted(acceptChannel);
+	/**
+	 * @param port     : le port de connexion
+	 * @param capacity : capacité du buffer lu par le canal accepté
+	 * @param listener : le listener à appeler lors de la connexion
+	 * @see Broker#accept(int, AcceptListener)
+	 */
+	public void accept(int port, int capacity, AcceptListener listener) {
+		CircularBufferEvent.roundCapacity(capacity);
+		Pending<ConnectListener> connecting;
+		for (;;) {
+			Port rendezVous = port(port);
+			synchronized (rendezVous) {
+				if (rendezVous.removed)
+					continue;
+				if (rendezVous.accepting != null || !rendezVous.acceptors.isEmpty())
+					throw new IllegalArgumentException(this.toString() + " accept : port invalide");
+				connecting = rendezVous.connecting.poll();
+				if (connecting == null) {
+					rendezVous.accepting = new Pending<AcceptListener>(listener, capacity);
+					return;
+				}
+				release(port, rendezVous);
+				break;
+			}
+		}
+		accepted(port, new Pending<AcceptListener>(listener, capacity), connecting,
+				executors.select(getName(), port));
+	}
+
+	/**
+	 * Accepte toutes les connexions sur le port donné jusqu'à l'appel de
+	 * unbind(), y compris celles déjà en attente, avec les capacités par défaut
+	 * du broker.
+	 *
+	 * @see #bind(int, int, Executor, AcceptListener)
+	 */
+	public void bind(int port, AcceptListener listener) {
+		bind(port, bufferCapacity, null, listener);
+	}
+
+	/*
+	 * Dans un bloc synchronisé sur le rendez-vous du port donné :
+	 * Si le port possède un AcceptListener : IllegalArgumentException
+	 * Ajoute l'acceptor aux acceptors du port
+	 * Retire tous les ConnectListener en attente, chacun attribué au prochain
+	 * acceptor
+	 * Puis, hors du verrou, établit chacune de ces connexions
+	 */
+	/**
+	 * Ajoute un acceptor permanent au port donné : il accepte toutes les
+	 * connexions jusqu'à l'appel de unbind(), sans avoir à se réarmer, y compris
+	 * celles déjà en attente sur le port. Plusieurs acceptors peuvent partager un
+	 * port : les connexions leur sont réparties à tour de rôle, chacune sur la
+	 * pompe de son acceptor.
+	 * Méthode non bloquante et thread-safe.
+	 *
+	 * @param port     : le port de connexion
+	 * @param capacity : capacité du buffer lu par les canaux acceptés
+	 * @param executor : la pompe des connexions de cet acceptor, null pour
+	 *                 laisser choisir le groupe du broker
+	 * @param listener : le listener à appeler à chaque connexion
+	 * @throws IllegalArgumentException si un accept() est en attente sur le port
+	 */
+	public void bind(int port, int capacity, Executor executor, AcceptListener listener) {
+		CircularBufferEvent.roundCapacity(capacity);
+		ArrayList<Pending<ConnectListener>> connects = new ArrayList<>();
+		ArrayList<Acceptor> acceptors = new ArrayList<>();
+		for (;;) {
+			Port rendezVous = port(port);
+			synchronized (rendezVous) {
+				if (rendezVous.removed)
+					continue;
+				if (rendezVous.accepting != null)
+					throw new IllegalArgumentException(this.toString() + " bind : port invalide");
+				rendezVous.acceptors.add(new Acceptor(listener, capacity, executor));
+				Pending<ConnectListener> connecting;
+				while ((connecting = rendezVous.connecting.poll()) != null) {
+					connects.add(connecting);
+					acceptors.add(rendezVous.nextAcceptor());
 				}
-			};
-			Runnable runnableConnect = new Runnable() {
-				@Override
-				public void run() {
-					connectListener.connected(connectChannel);
+				break;
+			}
+		}
+		for (int i = 0; i < connects.size(); i++)
+			accepted(port, acceptors.get(i), connects.get(i), executorOf(acceptors.get(i), getName(), port));
+	}
+
+	/**
+	 * Retire l'acceptor permanent du listener donné. Les connexions déjà
+	 * établies ne sont pas fermées.
+	 *
+	 * @param port     : le port de connexion
+	 * @param listener : le listener passé à bind()
+	 * @return true si le listener était un acceptor du port
+	 */
+	public boolean unbind(int port, AcceptListener listener) {
+		Port rendezVous = ports.get(port);
+		if (rendezVous == null)
+			return false;
+		synchronized (rendezVous) {
+			for (int i = 0; i < rendezVous.acceptors.size(); i++) {
+				if (rendezVous.acceptors.get(i).listener == listener) {
+					rendezVous.acceptors.remove(i);
+					release(port, rendezVous);
+					return true;
 				}
-			};
-			executor.post(runnableAccept);
-			executor.post(runnableConnect);
-		} else {
-			acceptingPorts.put(port, listener);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Retire tous les acceptors permanents du port donné. Les connexions déjà
+	 * établies ne sont pas fermées.
+	 *
+	 * @param port : le port de connexion
+	 * @return true si le port avait au moins un acceptor
+	 */
+	public boolean unbind(int port) {
+		Port rendezVous = ports.get(port);
+		if (rendezVous == null)
+			return false;
+		synchronized (rendezVous) {
+			boolean bound = !rendezVous.acceptors.isEmpty();
+			rendezVous.acceptors.clear();
+			release(port, rendezVous);
+			return bound;
 		}
 	}
 
+	/**
+	 * @return la pompe des connexions de l'acceptor donné
+	 */
+	private Executor executorOf(Acceptor acceptor, String name, int port) {
+		return acceptor.executor != null ? acceptor.executor : executors.select(name, port);
+	}
+
+	/*
+	 * Établit une connexion côté acceptation :
+	 * - annule l'échéance du connect s'il en a une
+	 * - crée 2 nouveaux CChannels liés sur la pompe donnée
+	 * - crée un nouveau Runnable appelant la méthode accepted() de l'acceptor
+	 * sur l'un des channels depuis sa méthode run() (du runnable)
+	 * - crée un autre nouveau Runnable appelant la méthode connected() du
+	 * ConnectListener avec l'autre channel depuis sa méthode run().
+	 * - poste ces 2 Runnable dans la pompe
+	 */
+	private void accepted(int port, Pending<AcceptListener> accepting, Pending<ConnectListener> connecting,
+			Executor executor) {
+		AcceptListener listener = accepting.listener;
+		ConnectListener connectListener = connecting.listener;
+		if (connecting.timeout != null)
+			connecting.timeout.cancel();
+		CChannel acceptChannel = new CChannel(this, port, accepting.capacity, connecting.capacity, rings, executor);
+		CChannel connectChannel = new CChannel(this, port, acceptChannel, executor);
+		acceptChannel.setTurnQuota(turnQuota);
+		connectChannel.setTurnQuota(turnQuota);
+		Runnable runnableAccept = new Runnable() {
+			@Override
+			public void run() {
+				listener.accepted(acceptChannel);
+			}
+		};
+		Runnable runnableConnect = new Runnable() {
+			@Override
+			public void run() {
+				connectListener.connected(connectChannel);
+			}
+		};
+		executor.postControl(runnableAccept);
+		executor.postControl(runnableConnect);
+	}
+
+	@Override
+	public boolean connect(String name, int port, ConnectListener listener) {
+		return connect(name, port, bufferCapacity, listener);
+	}
+
 	/*
 	 * Récupère le broker distant et retourne false s'il est null.
-	 * Dans un bloc synchronisé sur l'objet broker récupéré :
-	 * | Si la map acceptingPorts possède un AcceptListener sur le port donné :
-	 * | - récupère l'AcceptListener de la map distante et le retire ensuite
-	 * | - crée 2 nouveaux CChannels liés
-	 * | - crée un nouveau Runnable appelant la méthode accepted() de
-	 * l'AcceptListener récupéré sur l'un des channels depuis sa méthode run() (du
-	 * runnable)
-	 * | - crée un autre nouveau Runnable appelant la méthode connected() du
-	 * listener donné avec l'autre channel depuis sa méthode run().
-	 * | - poste ces 2 Runnable dans la pompe
+	 * Dans un bloc synchronisé sur le rendez-vous du port donné du broker
+	 * distant :
+	 * | Si le port possède des acceptors :
+	 * | - prend le prochain acceptor, qui reste sur le port
+	 * | Sinon si le port possède un AcceptListener :
+	 * | - récupère l'AcceptListener du port et le retire ensuite (seul ce
+	 * retrait se fait sous le verrou du port), et retire le port s'il ne sert
+	 * plus
 	 * | Sinon :
-	 * | - Initialise liste des ConnectListener distants dans la map si ellle ne
-	 * l'est pas déjà
-	 * | - Ajoute l'écouteur donné à la liste de la map distante sur le port donné
+	 * | - Ajoute l'écouteur donné à la file des ConnectListener du port
+	 * | - Retourne true
+	 * Établit la connexion (voir connected()) sur la pompe de l'acceptor, ou
+	 * sinon celle choisie dans le groupe
 	 * Retourne true
 	 */
-	@Override
-	public boolean connect(String name, int port, ConnectListener listener) {
+	/**
+	 * @param name     : nom du broker à connecter.
+	 * @param port     : le port de connexion
+	 * @param capacity : capacité du buffer lu par le canal connecté
+	 * @param listener : le listener à appeler lors de la connexion
+	 * @see Broker#connect(String, int, ConnectListener)
+	 */
+	public boolean connect(String name, int port, int capacity, ConnectListener listener) {
+		return connect(name, port, capacity, 0, listener);
+	}
+
+	/*
+	 * Comme connect() sans délai, mais un ConnectListener mis en attente est
+	 * accompagné d'une échéance, programmée sur une pompe du groupe avant
+	 * d'entrer dans la file. À l'échéance, s'il est encore dans la file, il en
+	 * est retiré sous le verrou du port, et timedOut() est appelée. L'échéance
+	 * est annulée si la connexion est acceptée avant.
+	 */
+	/**
+	 * Tente une connexion qui abandonne si elle n'est pas acceptée dans le délai
+	 * donné : {@link ConnectListener#timedOut()} est alors appelée.
+	 *
+	 * @param name     : nom du broker à connecter.
+	 * @param port     : le port de connexion
+	 * @param capacity : capacité du buffer lu par le canal connecté
+	 * @param timeout  : délai en millisecondes, 0 pour attendre indéfiniment
+	 * @param listener : le listener à appeler lors de la connexion
+	 * @return true si le broker distant a été trouvé, false sinon.
+	 * @throws IllegalArgumentException si le délai est négatif
+	 */
+	public boolean connect(String name, int port, int capacity, long timeout, ConnectListener listener) {
+		if (timeout < 0)
+			throw new IllegalArgumentException(this.toString() + " connect : délai invalide");
+		CircularBufferEvent.roundCapacity(capacity);
 		CBroker broker = BrokerManager.getBroker(name);
 		if (broker == null)
 			return false;
-		synchronized (broker) {
-			if (broker.acceptingPorts.get(port) != null) {
-				AcceptListener acceptListener = broker.acceptingPorts.get(port);
-				broker.acceptingPorts.remove(port);
-				CChannel connectChannel = new CChannel(this, port, executor);
-				CChannel acceptChannel = new CChannel(this, port, connectChannel, executor);
-				Runnable runnableConnect = new Runnable() {
-					@Override
-					public void run() {
-						listener.connected(connectChannel);
+		Pending<AcceptListener> accepting;
+		Executor executor;
+		for (;;) {
+			Port rendezVous = broker.port(port);
+			synchronized (rendezVous) {
+				if (rendezVous.removed)
+					continue;
+				if (!rendezVous.acceptors.isEmpty()) {
+					Acceptor acceptor = rendezVous.nextAcceptor();
+					accepting = acceptor;
+					executor = broker.executorOf(acceptor, name, port);
+				} else {
+					accepting = rendezVous.accepting;
+					if (accepting == null) {
+						Pending<ConnectListener> pending = new Pending<ConnectListener>(listener, capacity);
+						// l'échéance ne place aucun canal : elle va à la première pompe,
+						// sans avancer le tourniquet de select()
+						if (timeout > 0)
+							pending.timeout = executors.get(0).schedule(broker.expiry(port, rendezVous, pending),
+									timeout, TimeUnit.MILLISECONDS);
+						rendezVous.connecting.add(pending);
+						return true;
 					}
-				};
-				Runnable runnableAccept = new Runnable() {
-					@Override
-					public void run() {
-						acceptListener.accepted(acceptChannel);
-					}
-				};
-				executor.post(runnableConnect);
-				executor.post(runnableAccept);
-			} else {
-				if (broker.connectingPorts.get(port) == null) {
-					ArrayList<ConnectListener> list = new ArrayList<>();
-					broker.connectingPorts.put(port, list);
+					rendezVous.accepting = null;
+					broker.release(port, rendezVous);
+					executor = executors.select(name, port);
 				}
-				broker.connectingPorts.get(port).add(listener);
+				break;
 			}
 		}
+		connected(port, new Pending<ConnectListener>(listener, capacity), accepting, executor);
 		return true;
 	}
 
+	/**
+	 * @return la tâche retirant le connect donné de la file du port s'il y est
+	 *         encore (et le port s'il ne sert plus), et prévenant alors son
+	 *         listener
+	 */
+	private Runnable expiry(int port, Port rendezVous, Pending<ConnectListener> pending) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				boolean expired;
+				synchronized (rendezVous) {
+					expired = rendezVous.connecting.remove(pending);
+					if (expired)
+						release(port, rendezVous);
+				}
+				if (expired)
+					pending.listener.timedOut();
+			}
+		};
+	}
+
+	/*
+	 * Établit une connexion côté connexion :
+	 * - crée 2 nouveaux CChannels liés sur la pompe donnée
+	 * - crée un nouveau Runnable appelant la méthode connected() du
+	 * ConnectListener sur l'un des channels depuis sa méthode run() (du runnable)
+	 * - crée un autre nouveau Runnable appelant la méthode accepted() de
+	 * l'AcceptListener avec l'autre channel depuis sa méthode run().
+	 * - poste ces 2 Runnable dans la pompe
+	 */
+	private void connected(int port, Pending<ConnectListener> connecting, Pending<AcceptListener> accepting,
+			Executor executor) {
+		ConnectListener listener = connecting.listener;
+		AcceptListener acceptListener = accepting.listener;
+		CChannel connectChannel = new CChannel(this, port, connecting.capacity, accepting.capacity, rings, executor);
+		CChannel acceptChannel = new CChannel(this, port, connectChannel, executor);
+		connectChannel.setTurnQuota(turnQuota);
+		acceptChannel.setTurnQuota(turnQuota);
+		Runnable runnableConnect = new Runnable() {
+			@Override
+			public void run() {
+				listener.connected(connectChannel);
+			}
+		};
+		Runnable runnableAccept = new Runnable() {
+			@Override
+			public void run() {
+				acceptListener.accepted(acceptChannel);
+			}
+		};
+		executor.postControl(runnableConnect);
+		executor.postControl(runnableAccept);
+	}
+
 	@Override
 	public String toString() {
 		return "[CBroker " + this.getName() + "]";
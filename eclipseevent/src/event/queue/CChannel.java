@@ -1,45 +1,46 @@
 package event.queue;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import event.given.Broker;
 import event.given.Channel;
 import event.given.CircularBufferEvent;
 import event.given.Executor;
+import event.given.RingPool;
+import event.given.TaskGroup;
 
-public class CChannel extends Channel {
+public class CChannel extends RequestChannel {
+
+	// Capacité par défaut des buffers d'un canal
+	public static final int DEFAULT_CAPACITY = 256;
+	// Nombre maximal de bytes transférés par une requête à son tour, par défaut
+	public static final int DEFAULT_TURN_QUOTA = 16 << 10;
 
 	// Buffers d'entrée et de sortie
 	private CircularBufferEvent in, out;
 	// Indicateur d'état de déconnexion
-	private boolean disconnected = false;
+	private volatile boolean disconnected = false;
 	// Le canal avec lequel vous communiquez ('canal distant')
 	private CChannel linkedChannel;
 	// Port de communication
 	private int port;
-	// la pompe de l'exécuteur d'événements
+	// la pompe de l'exécuteur d'événements, commune aux deux canaux de la paire,
+	// et le groupe de tâches de la paire, servi à tour de rôle avec les autres
 	private Executor executor;
-
-	// Liste des WriteRequest et ReadRequest
-	private List<WriteRequest> writeRequests = new ArrayList<>();
-	private List<ReadRequest> readRequests = new ArrayList<>();
-
-	// Utilisé pour savoir si on est en train d'écrire ou de lire
-	private boolean writing = false, reading = false;
+	private TaskGroup tasks;
+	// bytes transférés au plus par une requête avant de repasser son tour
+	private volatile int turnQuota = DEFAULT_TURN_QUOTA;
+	// pool des tableaux des buffers (null si non poolés), et drapeau commun aux
+	// deux canaux de la paire, levé quand les tableaux sont rendus
+	private RingPool rings;
+	private AtomicBoolean recycled;
 
 	/*
 	 * Appelle le constructeur super() avec le broker donné.
 	 * Stocke le port donné
-	 * Initialise les buffers in et out avec deux CircularBuffer différents :
-	 * 
-	 * Synchronise readRequests et vérifie s'il y a une nouvelle demande et si on
-	 * n'est pas déjà en train de lire :
-	 * --- si vrai : executor travaille sur la première demande
-	 * Synchronise writeRequests et vérifie s'il y a une nouvelle demande et si on
-	 * n'est pas déjà en train d'écrire :
-	 * --- si vrai : executor travaille sur la première demande
+	 * Initialise les buffers in et out avec deux CircularBuffer différents,
+	 * écoutés par inListener() et outListener()
 	 */
 	/**
 	 * Crée un canal partiellementconnecté
@@ -49,35 +50,54 @@ public class CChannel extends Channel {
 	 * @see {@link Channel#Channel(Broker) Channel(Broker)}
 	 */
 	protected CChannel(Broker broker, int port, Executor executor) {
-		super(broker);
-		this.port = port;
-		this.in = new CircularBufferEvent(256, executor, new CircularBufferEvent.InListener() {
-			@Override
-			public void bytesAvailable() {
-				synchronized (readRequests) {
-					if (readRequests.size() > 0 && !reading) {
-						executor.post(readRequests.get(0));
-						reading = true;
-					}
-				}
+		this(broker, port, DEFAULT_CAPACITY, DEFAULT_CAPACITY, executor);
+	}
 
-			}
-		});
-		this.out = new CircularBufferEvent(256, executor, new CircularBufferEvent.OutListener() {
-			@Override
-			public void spaceFreed() {
-				synchronized (writeRequests) {
-					if (writeRequests.size() > 0 && !writing) {
-						executor.post(writeRequests.get(0));
-						writing = true;
-					}
+	/**
+	 * Crée un canal partiellement connecté dont les buffers ont les capacités
+	 * données (arrondies à la puissance de deux supérieure)
+	 * 
+	 * @param broker      : Broker parent
+	 * @param port        : port de communication
+	 * @param inCapacity  : capacité du buffer lu par ce canal
+	 * @param outCapacity : capacité du buffer lu par le canal distant
+	 */
+	protected CChannel(Broker broker, int port, int inCapacity, int outCapacity, Executor executor) {
+		this(broker, port, inCapacity, outCapacity, null, executor);
+	}
 
-				}
-			}
-		});
+	/**
+	 * Crée un canal partiellement connecté dont les buffers sont pris dans le
+	 * pool donné. Les tableaux appartiennent à la paire de canaux jusqu'à ce que
+	 * les deux soient déconnectés : la pompe les détache alors des buffers (qui
+	 * restent vides, sans capacité) et les rend au pool. Les canaux et les
+	 * buffers eux-mêmes ne sont jamais réutilisés, si bien qu'une référence
+	 * périmée ne peut pas atteindre une connexion suivante.
+	 * 
+	 * @param broker      : Broker parent
+	 * @param port        : port de communication
+	 * @param inCapacity  : capacité du buffer lu par ce canal
+	 * @param outCapacity : capacité du buffer lu par le canal distant
+	 * @param rings       : le pool des tableaux, null pour ne pas les recycler
+	 */
+	protected CChannel(Broker broker, int port, int inCapacity, int outCapacity, RingPool rings,
+			Executor executor) {
+		super(broker, executor);
+		this.port = port;
+		this.rings = rings;
+		this.recycled = new AtomicBoolean(false);
+		this.tasks = new TaskGroup(executor);
+		this.in = new CircularBufferEvent(ring(inCapacity), executor);
+		this.out = new CircularBufferEvent(ring(outCapacity), executor);
+		this.in.setInListener(inListener());
+		this.out.setOutListener(outListener());
 		this.executor = executor;
 	}
 
+	private byte[] ring(int capacity) {
+		return rings != null ? rings.acquire(capacity) : new byte[CircularBufferEvent.roundCapacity(capacity)];
+	}
+
 	/*
 	 * Appelle le constructeur super().
 	 * Stocke le port donné
@@ -85,6 +105,8 @@ public class CChannel extends Channel {
 	 * Appelle la méthode setLinkedChannel() du canal donné avec this
 	 * Stocke le buffer in du canal donné dans notre champ out.
 	 * Stocke le buffer out du canal donné dans notre champ in.
+	 * Enregistre nos listeners sur ces buffers partagés (le canal distant n'y a
+	 * enregistré que les siens)
 	 * Stocke l'exécuteur donné
 	 */
 	/**
@@ -93,18 +115,59 @@ public class CChannel extends Channel {
 	 * 
 	 * @param broker  : Broker parent
 	 * @param port    : port de communication
-	 * @param channel : channel 'distant'
+	 * @param channel : channel 'distant', rattaché à la même pompe
 	 */
 	protected CChannel(Broker broker, int port, CChannel channel, Executor executor) {
-		super(broker);
+		super(broker, executor);
 		this.port = port;
 		this.linkedChannel = channel;
 		channel.setLinkedChannel(this);
+		this.rings = channel.rings;
+		this.recycled = channel.recycled;
+		this.tasks = channel.tasks;
 		this.in = channel.getOutBuffer();
 		this.out = channel.getInBuffer();
+		this.in.setInListener(inListener());
+		this.out.setOutListener(outListener());
 		this.executor = executor;
 	}
 
+	/*
+	 * S'il y a une demande en attente et qu'on n'est pas déjà en train de lire :
+	 * --- executor travaille sur la première demande
+	 */
+	private CircularBufferEvent.InListener inListener() {
+		return new CircularBufferEvent.InListener() {
+			@Override
+			public void bytesAvailable() {
+				post(readRequests.resume());
+			}
+		};
+	}
+
+	/*
+	 * S'il y a une demande en attente et qu'on n'est pas déjà en train d'écrire :
+	 * --- executor travaille sur la première demande
+	 */
+	private CircularBufferEvent.OutListener outListener() {
+		return new CircularBufferEvent.OutListener() {
+			@Override
+			public void spaceFreed() {
+				post(writeRequests.resume());
+			}
+		};
+	}
+
+	/*
+	 * Les requêtes et les appels de listeners passent par le groupe de tâches de
+	 * la paire
+	 */
+	@Override
+	protected void post(Runnable task) {
+		if (task != null)
+			tasks.post(task);
+	}
+
 	@Override
 	public String getRemoteName() {
 		return this.linkedChannel.getBroker().getName();
@@ -116,66 +179,42 @@ public class CChannel extends Channel {
 	}
 
 	/*
-	 * Poste une readRequest
-	 * Vérifie si le channel est lié
-	 * Vérifie si les arguments sont corrects
-	 * Vérifie si le canal n'est pas déconnecté
-	 * Ajoute une nouvelle ReadRequest avec les arguments donnés
-	 * Synchronisation sur la liste des readRequests et si on n'est pas déjà en
-	 * train de lire :
-	 * --- La pompe se charge de la première requête
-	 * --- Le flag read passe à true
+	 * Un canal partiellement connecté ne peut recevoir aucune requête
 	 */
 	@Override
-	public void read(byte[] bytes, int offset, int length, ReadListener listener) {
+	protected void checkUsable(String operation) {
 		if (!this.isLinked())
 			throw new IllegalStateException(
-					"CChannel[" + this.getBroker().getName() + ":" + port + "] read : not linked");
-		if (bytes == null || offset < 0 || length < 0 || offset + length > bytes.length)
-			throw new IllegalArgumentException(this.toString() + " read : Illegal arguments");
-		if (disconnected())
-			throw new IllegalStateException(this.toString() + " read : disconnected");
-		readRequests.add(new ReadRequest(bytes, offset, length, listener));
-		synchronized (readRequests) {
-			if (!reading) {
-				executor.post(readRequests.get(0));
-				reading = true;
-			}
-		}
+					"CChannel[" + this.getBroker().getName() + ":" + port + "] " + operation + " : not linked");
 	}
 
 	/*
-	 * Poste une writeRequest
-	 * Vérifie si le channel est lié
-	 * Vérifie si les arguments sont corrects
-	 * Vérifie si le canal n'est pas déconnecté
-	 * Ajoute une nouvelle WriteRequest avec les arguments donnés
-	 * Synchronisation sur la liste des writeRequests et si on n'est pas déjà en
-	 * train d'écrire :
-	 * --- La pompe se charge de la première requête
-	 * --- Le flag write passe à true
+	 * Marque le canal déconnecté.
+	 * Si le canal distant l'est aussi et que les tableaux de la paire n'ont pas
+	 * déjà été rendus :
+	 * -- poste leur recyclage dans la pompe, après les requêtes en cours (qui
+	 * voient la déconnexion et ne touchent plus aux buffers)
+	 * Reprend les requêtes en pause des deux canaux, qui voient ainsi la
+	 * déconnexion sans attendre de bytes ou de place
 	 */
-	@Override
-	public void write(byte[] bytes, int offset, int length, WriteListener listener) {
-		if (!this.isLinked())
-			throw new IllegalStateException(
-					"CChannel[" + this.getBroker().getName() + ":" + port + "] read : not linked");
-		if (bytes == null || offset < 0 || length < 0 || offset + length > bytes.length)
-			throw new IllegalArgumentException(this.toString() + " write : Illegal arguments");
-		if (disconnected())
-			throw new IllegalStateException(this.toString() + " write : disconnected");
-		writeRequests.add(new WriteRequest(bytes, offset, length, listener));
-		synchronized (writeRequests) {
-			if (!writing) {
-				executor.post(writeRequests.get(0));
-				writing = true;
-			}
-		}
-	}
-
 	@Override
 	public void disconnect() {
 		this.disconnected = true;
+		stopIdleTimeout();
+		if (rings != null && linkedChannel != null && linkedChannel.disconnected()
+				&& recycled.compareAndSet(false, true)) {
+			executor.post(new Runnable() {
+				@Override
+				public void run() {
+					rings.recycle(in.detach());
+					rings.recycle(out.detach());
+				}
+			});
+		}
+		resumeRequests();
+		CChannel linked = linkedChannel;
+		if (linked != null && !linked.disconnected())
+			linked.resumeRequests();
 	}
 
 	@Override
@@ -199,170 +238,146 @@ public class CChannel extends Channel {
 		return this.linkedChannel != null;
 	}
 
-	/*
-	 * Chaque WriteRequest est un Runnable
-	 * Chaque WriteRequest a :
-	 * -- le tableau d'octets à écrire
-	 * -- Un offset
-	 * -- la longueur
-	 * -- Un WriteListener
+	/**
+	 * Limite les bytes transférés par une requête à son tour : le transfert est
+	 * partiel, comme quand le buffer est plein ou vide, et la requête suivante
+	 * repasse par la fin de la file de la pompe.
 	 * 
-	 * Si le canal est déconnecté, la liste des writeRequests est purgée
-	 * Si le outCircularBuffer n'est pas plein :
-	 * -- si le canal distant est déconnecté et qu'il n'y a rien à lire dans le
-	 * InCircularBuffer :
-	 * -------- Le channel est déconnecté et la liste des writeRequests est purgée
-	 * -- Tant que possible, on écrit dans le outCircularBuffer
-	 * -- Un nouveau runnable est créé et le listener sait qu'un message a été écrit
-	 * et connaît le nombre d'octets écrits
-	 * -- Le runnable est posté
-	 * -- La requête venant d'être exécutée est supprimée de la liste des
-	 * WriteRequest
-	 * -- Si le outCircularBuffer n'est pas plein et s'il y a une autre writeRequest
-	 * dans la liste
-	 * -------- On poste la première de la liste des writeRequests
-	 * -- sinon le flag write passe à false
-	 * sinon le flag wriite passe à false
+	 * @param bytes : bytes transférés au plus par une requête, 0 pour ne pas
+	 *              limiter
+	 * @throws IllegalArgumentException si bytes est négatif
 	 */
+	public void setTurnQuota(int bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("CChannel : invalid turn quota " + bytes);
+		this.turnQuota = bytes;
+	}
 
-	private class WriteRequest implements Runnable {
-		byte[] bytes;
-		int offset;
-		int length;
-		WriteListener listener;
-
-		public WriteRequest(byte[] bytes, int offset, int length, WriteListener listener) {
-			this.bytes = bytes;
-			this.offset = offset;
-			this.length = length;
-			this.listener = listener;
+	public int getTurnQuota() {
+		return turnQuota;
+	}
+
+	private int quota() {
+		int quota = turnQuota;
+		return quota > 0 ? quota : Integer.MAX_VALUE;
+	}
+
+	/*
+	 * Pousse au plus max bytes du ByteBuffer en réduisant temporairement sa
+	 * limite
+	 */
+	private int pushAtMost(ByteBuffer src, int max) {
+		if (src.remaining() <= max)
+			return out.push(src);
+		int limit = src.limit();
+		src.limit(src.position() + max);
+		try {
+			return out.push(src);
+		} finally {
+			src.limit(limit);
 		}
+	}
 
-		@Override
-		public void run() {
-			if (disconnected()) {
-				writeRequests.clear();
-				return;
-			}
-			if (!out.full()) {
-				if (linkedChannel.disconnected() && in.empty()) {
-					disconnect();
-					writeRequests.clear();
-					return;
-				}
-				int writtenBytes = 0;
-				while (!out.full() && writtenBytes < length && !disconnected()) {
-					try {
-						out.push(bytes[writtenBytes + offset]);
-						writtenBytes++;
-					} catch (IllegalStateException e) {
-						break;
-					}
-				}
-				final int b = writtenBytes;
-				Runnable r = new Runnable() {
-					@Override
-					public void run() {
-						listener.written(bytes, offset, length, b);
-					}
-				};
-				executor.post(r);
-				writeRequests.remove(this);
-				if (!out.full() && writeRequests.size() > 0)
-					executor.post(writeRequests.get(0));
-				else
-					synchronized (writeRequests) {
-						writing = false;
-					}
-			} else {
-				synchronized (writeRequests) {
-					writing = false;
-				}
-			}
+	private int pullAtMost(ByteBuffer dst, int max) {
+		if (dst.remaining() <= max)
+			return in.pull(dst);
+		int limit = dst.limit();
+		dst.limit(dst.position() + max);
+		try {
+			return in.pull(dst);
+		} finally {
+			dst.limit(limit);
 		}
 	}
 
 	/*
-	 * Chaque ReadRequest est un Runnable
-	 * Chaque ReadRequest a :
-	 * -- le tableau d'octets à lire
-	 * -- Un offset
-	 * -- la longueur
-	 * -- Un ReadListener
-	 * 
-	 * Si le canal est déconnecté, la liste des readRequests est purgée
-	 * Si le inCircularBuffer n'est pas vide :
-	 * -- Tant que possible, on lit dans le inCircularBuffer
-	 * -- Un nouveau runnable est créé et le listener sait qu'un message a été lu et
-	 * connaît le nombre d'octets lus
-	 * -- Le runnable est posté
-	 * -- La requête venant d'être exécutée est supprimée de la liste des
-	 * ReadRequest
-	 * -- Si le inCircularBuffer est vide et que le canal distant est déconnecté :
-	 * * -------- Le canal est déconnecté et la liste des readRequests est purgée
-	 * -- Si le inCircularBuffer n'est pas vide et s'il y a une autre ReadRequest
-	 * dans la liste
-	 * -------- On poste la première de la liste des readRequests
-	 * -- sinon le flag red passe à false
-	 * sinon le flag read passe à false
+	 * Transferts d'une requête, limités au quota de son tour
 	 */
+	@Override
+	protected long push(byte[] bytes, int offset, int length) {
+		return out.push(bytes, offset, Math.min(length, quota()));
+	}
+
+	@Override
+	protected long push(ByteBuffer src) {
+		return pushAtMost(src, quota());
+	}
 
-	private class ReadRequest implements Runnable {
-		byte[] bytes;
-		int offset;
-		int length;
-		ReadListener listener;
-
-		public ReadRequest(byte[] bytes, int offset, int length, ReadListener listener) {
-			this.bytes = bytes;
-			this.offset = offset;
-			this.length = length;
-			this.listener = listener;
+	@Override
+	protected long push(ByteBuffer[] srcs, int offset, int length) {
+		int written = 0, quota = quota();
+		for (int i = offset; i < offset + length && written < quota; i++) {
+			written += pushAtMost(srcs[i], quota - written);
+			if (srcs[i].hasRemaining())
+				break;
 		}
+		return written;
+	}
 
-		@Override
-		public void run() {
-			if (disconnected()) {
-				readRequests.clear();
-				return;
-			}
-			if (!in.empty()) {
-				int readBytes = 0;
-				while (readBytes < length && !disconnected()) {
-					try {
-						bytes[offset + readBytes] = in.pull();
-						readBytes++;
-					} catch (IllegalStateException e) {
-						break;
-					}
-				}
-				final int b = readBytes;
-				Runnable r = new Runnable() {
-					@Override
-					public void run() {
-						listener.read(Arrays.copyOfRange(bytes, offset, offset + b));
-					}
-				};
-				executor.post(r);
-				readRequests.remove(this);
-
-				if (in.empty() && linkedChannel.disconnected()) {
-					disconnect();
-					readRequests.clear();
-					return;
-				}
-				if (!in.empty() && readRequests.size() > 0)
-					executor.post(readRequests.get(0));
-				else
-					synchronized (readRequests) {
-						reading = false;
-					}
-			} else {
-				synchronized (readRequests) {
-					reading = false;
-				}
-			}
+	@Override
+	protected long pull(byte[] bytes, int offset, int length) {
+		return in.pull(bytes, offset, Math.min(length, quota()));
+	}
+
+	@Override
+	protected long pull(ByteBuffer dst) {
+		return pullAtMost(dst, quota());
+	}
+
+	@Override
+	protected long pull(ByteBuffer[] dsts, int offset, int length) {
+		int read = 0, quota = quota();
+		for (int i = offset; i < offset + length && read < quota; i++) {
+			read += pullAtMost(dsts[i], quota - read);
+			if (dsts[i].hasRemaining())
+				break;
 		}
+		return read;
+	}
+
+	/*
+	 * Une requête ne peut plus aboutir lorsque le canal distant est déconnecté
+	 * et qu'il n'y a plus rien à lire dans le inCircularBuffer
+	 */
+	@Override
+	protected boolean writeEnded() {
+		return linkedChannel.disconnected() && in.empty();
+	}
+
+	@Override
+	protected boolean readEnded() {
+		return in.empty() && linkedChannel.disconnected();
+	}
+
+	/*
+	 * On passe à la requête suivante tant que le outCircularBuffer n'est pas
+	 * plein (le inCircularBuffer pas vide) ; sinon spaceFreed() (bytesAvailable())
+	 * la reprendra
+	 */
+	@Override
+	protected boolean writeReady() {
+		return !out.full();
+	}
+
+	@Override
+	protected boolean readReady() {
+		return !in.empty();
+	}
+
+	/*
+	 * spaceFreed() ou la déconnexion du canal distant reprendra la file ; le
+	 * canal distant a pu se déconnecter avant la pause
+	 */
+	@Override
+	protected void awaitWritable() {
+		if (writeEnded())
+			post(writeRequests.resume());
+	}
+
+	@Override
+	protected void awaitReadable() {
+		if (readEnded())
+			post(readRequests.resume());
 	}
 
 	@Override
@@ -1,27 +1,100 @@
 package event.queue;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import event.given.Channel;
 import event.given.Channel.ReadListener;
-import event.given.Channel.WriteListener;
+import event.given.Channel.VectorWriteListener;
 import event.given.Executor;
+import event.given.MessageBuffer;
 import event.given.MessageQueue;
 import event.given.QueueBroker;
+import event.given.TimerWheel;
 
 public class CMessageQueue extends MessageQueue {
 
 	public static final byte[] UNBINDING_QUEUE_PAYLOAD = { 0 }, REGULAR_QUEUE_PAYLOAD = { 1 };
+	// en-tête (taille négative) de la trame de contrôle accordant un crédit de
+	// bytes à l'émetteur : [CREDIT_FRAME][crédit (int)]
+	public static final int CREDIT_FRAME = -1;
+	// fenêtre de réception par défaut, qui est aussi le crédit initial de chaque
+	// émetteur
+	public static final int DEFAULT_RECEIVE_WINDOW = 1 << 20;
 	private Channel channel;
 	private Executor executor;
 	private QueueBroker broker;
 	private Listener listener;
+	// vrai une fois le listener prévenu de la fermeture
+	private boolean closeNotified = false;
+	// trames en attente (taille puis message, d'un seul tenant) et écriture en
+	// cours sur le canal
+	private ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+	private boolean writing = false;
+	// trames de contrôle en attente, écrites avant les messages et sans crédit
+	private ArrayDeque<ByteBuffer> control = new ArrayDeque<>();
+	// bytes de trames que le pair accepte encore (négatif après un message plus
+	// grand que le crédit restant)
+	private long credit = DEFAULT_RECEIVE_WINDOW;
+	// côté réception : fenêtre, total des crédits accordés au pair et total des
+	// bytes de trames remis au listener
+	private int receiveWindow = DEFAULT_RECEIVE_WINDOW;
+	private long granted = DEFAULT_RECEIVE_WINDOW, delivered = 0;
+	// service (nom:port) du pool de connexions du broker si la file a été
+	// ouverte en mode poolé, null sinon ; vrai tant qu'elle est dans le pool.
+	// Manipulés sous le verrou du broker.
+	String service;
+	boolean idle = false;
+	// décodeur des trames reçues
+	private FrameDecoder decoder;
+	// mode coalescent : seuil de vidage (0 si désactivé), attente maximale (en
+	// millisecondes, 0 pour la fin du tour de pompe), trames encadrées à la
+	// suite dans un même tableau en attente du seuil ou du vidage, et échéance
+	// du vidage programmé (null s'il est posté ou s'il n'y en a pas)
+	private int flushThreshold = 0;
+	private long maxLinger = 0;
+	private byte[] coalesced = null;
+	private int coalescedLength = 0;
+	private boolean flushPosted = false;
+	private TimerWheel.Timeout linger;
+	// délai d'envoi (en nanosecondes, 0 si aucun), date du dernier progrès de
+	// l'écriture, et échéance de la vérification en cours (null si aucune)
+	private volatile long sendTimeout = 0;
+	private volatile long lastProgress;
+	private TimerWheel.Timeout sendCheck;
+	private Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (CMessageQueue.this) {
+				flushPosted = false;
+				linger = null;
+				flushCoalesced();
+			}
+		}
+	};
 
 	public CMessageQueue(Channel channel, QueueBroker broker, Executor executor) {
 		this.channel = channel;
 		this.executor = executor;
 		this.broker = broker;
+		this.decoder = new FrameDecoder(channel, executor, new FrameDecoder.ControlHandler() {
+			@Override
+			public void control(int type, int value) {
+				if (type == CREDIT_FRAME && value > 0)
+					credited(value);
+				else
+					close();
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+		decoder.listen(broker != null ? broker.getBufferPool() : null);
 	}
 
 	@Override
@@ -29,106 +102,50 @@ public class CMessageQueue extends MessageQueue {
 		return this.broker;
 	}
 
+	/**
+	 * @return la pompe de la file
+	 */
+	Executor getExecutor() {
+		return executor;
+	}
+
 	/*
 	 * Définit le listener de manière synchronisée et vérifie que c'est la première
 	 * fois
 	 * si c'est la première fois :
-	 * -- startReadMessage() est lancée
+	 * -- le décodeur de trames est (re)démarré et remet chaque message au
+	 * listener, dans un buffer du pool du broker si c'est un BufferListener
+	 * -- les bytes de chaque message sont rendus à l'émetteur en crédit une fois
+	 * le listener revenu
 	 */
 	@Override
 	public synchronized void setListener(Listener l) {
 		boolean firstTime = this.listener == null;
 		this.listener = l;
-		if (firstTime) {
-			startReadMessage();
-		}
-	}
-
-	/**
-	 * Démarre la lecture d'un message à partir du canal.
-	 * - Iinitialise un tableau de bytes pour stocker la taille du message
-	 * - Définit un readlistener pour traiter les données lues. Si la taille du
-	 * message est complètement lue, elle appelle la méthode
-	 * readMessage avec la taille du message. Sinon, elle continue à lire les
-	 * données restantes.
-	 * 
-	 * En cas d'erreur lors de la lecture du channel, la méthode close est appelée
-	 * pour fermer la connexion.
-	 */
-	private void startReadMessage() {
-		byte[] messageSize = new byte[Integer.BYTES * 2];
-		ReadListener listenerSize = new ReadListener() {
-			@Override
-			public void read(byte[] bytes) {
-				if (byteArrayToInt(Arrays.copyOf(messageSize, Integer.BYTES)) + bytes.length == Integer.BYTES) {
-					readMessage(byteArrayToInt(Arrays.copyOfRange(messageSize, Integer.BYTES, messageSize.length)));
-				} else {
-					int index = byteArrayToInt(Arrays.copyOf(messageSize, Integer.BYTES)) + bytes.length;
-					byte[] indexArray = intToByteArray(index);
-					for (int y = 0; y < indexArray.length; y++)
-						messageSize[y] = indexArray[y];
-					try {
-						channel.read(messageSize, index + Integer.BYTES, Integer.BYTES - index, this);
-					} catch (Exception e) {
-						close();
+		if (firstTime && l instanceof BufferListener && broker != null) {
+			decoder.start(new FrameDecoder.BufferFrameHandler() {
+				@Override
+				public void frame(MessageBuffer payload) {
+					Listener l = listener;
+					int length = payload.length();
+					if (l instanceof BufferListener) {
+						((BufferListener) l).received(payload);
+					} else {
+						byte[] msg = payload.toArray();
+						payload.release();
+						l.received(msg);
 					}
+					delivered(length);
 				}
-			}
-		};
-		try {
-			channel.read(messageSize, Integer.BYTES, Integer.BYTES, listenerSize);
-		} catch (Exception e) {
-			close();
-		}
-	}
-
-	/**
-	 * Lit un message de la taille spécifiée à partir du canal et le traite.
-	 *
-	 * @param size la taille du message à lire en octets
-	 *
-	 *             Crée un tableau d'octets pour stocker le message,
-	 *             Utilise un ReadListener pour lire les octets du canal.
-	 *             Si la taille totale des octets lus correspond à la taille
-	 *             spécifiée,
-	 *             - exécute un Runnable pour traiter le message reçu.
-	 *             Sinon, elle met à jour l'indiex de lecture et continue à lire les
-	 *             octets restants.
-	 *
-	 *             En cas d'erreur lors de la lecture du channel, la méthode ferme
-	 *             le channel.
-	 */
-	private void readMessage(int size) {
-		byte[] message = new byte[Integer.BYTES + size];
-		ReadListener listenerSize = new ReadListener() {
-			@Override
-			public void read(byte[] bytes) {
-				if (byteArrayToInt(Arrays.copyOf(message, Integer.BYTES)) + bytes.length == size) {
-					Runnable r = new Runnable() {
-						@Override
-						public void run() {
-							listener.received(Arrays.copyOfRange(message, Integer.BYTES, message.length));
-						}
-					};
-					executor.post(r);
-					startReadMessage();
-				} else {
-					int index = byteArrayToInt(Arrays.copyOf(message, Integer.BYTES)) + bytes.length;
-					byte[] indexArray = intToByteArray(index);
-					for (int y = 0; y < indexArray.length; y++)
-						message[y] = indexArray[y];
-					try {
-						channel.read(message, index + Integer.BYTES, size - index, this);
-					} catch (Exception e) {
-						close();
-					}
+			}, broker.getBufferPool(), false);
+		} else if (firstTime) {
+			decoder.start(new FrameDecoder.FrameHandler() {
+				@Override
+				public void frame(byte[] payload) {
+					listener.received(payload);
+					delivered(payload.length);
 				}
-			}
-		};
-		try {
-			channel.read(message, Integer.BYTES, size, listenerSize);
-		} catch (Exception e) {
-			close();
+			}, false);
 		}
 	}
 
@@ -136,193 +153,426 @@ public class CMessageQueue extends MessageQueue {
 	 * Envoie un message sous forme de tableau d'octets.
 	 * 
 	 * Méthode synchronisée pour garantir que l'envoi du message est thread-safe.
-	 * On convertit d'abord la taille du message en tableau d'octets, puis on
-	 * concatène cette taille
-	 * avec le message original.
-	 * On utilise un WriteListener pour gérer l'écriture asynchrone sur le canal.
+	 * Le tableau appartient toujours à l'appelant : le message est copié une
+	 * seule fois, précédé de sa taille, dans la trame ajoutée aux trames en
+	 * attente. Si aucune écriture n'est en cours sur le canal, les trames en
+	 * attente sont écrites d'un bloc (écriture vectorisée, sans nouvelle
+	 * concaténation) ; sinon elles partiront à la fin de l'écriture en cours. Une seule écriture est en cours à la fois : une
+	 * écriture partielle ne peut donc pas être entrelacée avec un autre message.
+	 * Les trames attendent tant que le pair n'a plus de crédit pour elles.
+	 * Le message est refusé si la file a dépassé son seuil haut.
 	 * 
 	 * @param bytes Le message à envoyer sous forme de tableau d'octets.
-	 * @return true si le message a été envoyé avec succès.
+	 * @return true si le message a été envoyé avec succès, false s'il est
+	 *         refusé.
 	 */
 	@Override
 	public synchronized boolean send(byte[] bytes) {
-		byte[] size = intToByteArray(bytes.length);
-		byte[] message = concatArray(size, 0, size.length, bytes, 0, bytes.length);
-		WriteListener writeListener = new WriteListener() {
-			@Override
-			public void written(byte[] bytes, int offset, int length, int written) {
-				if (written != length) {
-					try {
-						channel.write(bytes, offset + written, length - written, this);
-					} catch (Exception e) {
-						close();
-					}
-				}
-			}
-		};
-		try {
-			channel.write(message, 0, message.length, writeListener);
-		} catch (Exception e) {
-			close();
+		if (!isWritable())
+			return false;
+		post(pending(Integer.BYTES + bytes.length));
+		armSendCheck();
+		if (flushThreshold > 0) {
+			coalesce(bytes);
+			return true;
 		}
+		byte[] frame = new byte[Integer.BYTES + bytes.length];
+		frame(bytes, frame, 0);
+		outgoing.add(ByteBuffer.wrap(frame));
+		if (!writing)
+			flush();
 		return true;
 	}
 
+	/**
+	 * Encadre tous les messages à la suite dans un seul tableau, écrit en une
+	 * seule requête sur le canal et acquitté d'un coup.
+	 * En mode coalescent, les messages rejoignent les trames en attente.
+	 * Les messages sont tous refusés si la file a dépassé son seuil haut.
+	 * 
+	 * @param messages : les messages à envoyer
+	 * @return true si les messages ont été envoyés avec succès, false s'ils sont
+	 *         refusés.
+	 */
 	@Override
-	public void close() {
-		if (!channel.disconnected())
-			channel.disconnect();
-		if (listener != null) {
-			Runnable r = new Runnable() {
-				@Override
-				public void run() {
-					listener.closed();
-				}
-			};
-			executor.post(r);
+	public synchronized boolean send(List<byte[]> messages) {
+		if (!isWritable())
+			return false;
+		int length = 0;
+		for (byte[] message : messages)
+			length += Integer.BYTES + message.length;
+		post(pending(length));
+		armSendCheck();
+		if (flushThreshold > 0) {
+			for (byte[] message : messages)
+				coalesce(message);
+			return true;
 		}
+		byte[] frames = new byte[length];
+		int offset = 0;
+		for (byte[] message : messages)
+			offset = frame(message, frames, offset);
+		outgoing.add(ByteBuffer.wrap(frames));
+		if (!writing)
+			flush();
+		return true;
 	}
 
-	@Override
-	public boolean closed() {
-		return channel.disconnected();
+	/**
+	 * Active le mode coalescent : les messages envoyés sont encadrés à la suite
+	 * dans un même tableau, écrit sur le canal dès qu'il atteint le seuil donné,
+	 * et au plus tard à la fin du tour de pompe en cours (une tâche de vidage est
+	 * postée au premier message en attente).
+	 * 
+	 * @param flushThreshold : nombre de bytes déclenchant l'écriture, 0 pour
+	 *                       désactiver le mode (les trames en attente sont alors
+	 *                       écrites)
+	 * @throws IllegalArgumentException si le seuil est négatif
+	 * @see #setCoalescing(int, long)
+	 */
+	public void setCoalescing(int flushThreshold) {
+		setCoalescing(flushThreshold, 0);
 	}
 
-	@Override
-	public String getRemoteName() {
-		return this.channel.getRemoteName();
+	/**
+	 * Active le mode coalescent avec une attente maximale : le tableau est écrit
+	 * dès qu'il atteint le seuil, et au plus tard maxLinger millisecondes après
+	 * son premier message (le vidage est programmé sur la roue de la pompe, et
+	 * annulé si le seuil est atteint avant). Attendre regroupe davantage de
+	 * messages par écriture quand ils arrivent sur plusieurs tours de pompe.
+	 * 
+	 * @param flushThreshold : nombre de bytes déclenchant l'écriture, 0 pour
+	 *                       désactiver le mode (les trames en attente sont alors
+	 *                       écrites)
+	 * @param maxLinger      : attente maximale en millisecondes, 0 pour vider à
+	 *                       la fin du tour de pompe
+	 * @throws IllegalArgumentException si un paramètre est négatif
+	 */
+	public synchronized void setCoalescing(int flushThreshold, long maxLinger) {
+		if (flushThreshold < 0)
+			throw new IllegalArgumentException("CMessageQueue : negative flush threshold");
+		if (maxLinger < 0)
+			throw new IllegalArgumentException("CMessageQueue : negative linger");
+		this.flushThreshold = flushThreshold;
+		this.maxLinger = maxLinger;
+		if (flushThreshold == 0)
+			flushCoalesced();
 	}
 
 	/**
-	 * Convertis un tableau de bytes en un entier
-	 * 
-	 * @param array
-	 * @return
+	 * Ajoute la trame du message donné au tableau coalescent, et l'écrit si le
+	 * seuil est atteint. Doit être appelée avec le verrou de la file.
 	 */
-	private int byteArrayToInt(byte[] array) {
-		ByteBuffer buffer = ByteBuffer.wrap(array);
-		return buffer.getInt();
+	private void coalesce(byte[] bytes) {
+		int needed = coalescedLength + Integer.BYTES + bytes.length;
+		if (coalesced == null || needed > coalesced.length)
+			coalesced = Arrays.copyOf(coalesced == null ? new byte[0] : coalesced,
+					Math.max(needed, Math.max(flushThreshold, 2 * coalescedLength)));
+		coalescedLength = frame(bytes, coalesced, coalescedLength);
+		if (coalescedLength >= flushThreshold) {
+			flushCoalesced();
+		} else if (!flushPosted) {
+			flushPosted = true;
+			if (maxLinger > 0)
+				linger = executor.schedule(flushTask, maxLinger, TimeUnit.MILLISECONDS);
+			else
+				executor.post(flushTask);
+		}
 	}
 
 	/**
-	 * Convertit un entier en un tableau de bytes
-	 * 
-	 * @param i : l'entier à convertir
-	 * @return : L'interprétation sous forme de tableau de bytes
+	 * Passe le tableau coalescent aux trames en attente, et annule le vidage
+	 * programmé s'il y en a un. Doit être appelée avec le verrou de la file.
 	 */
-	private byte[] intToByteArray(int i) {
-		ByteBuffer buffer = ByteBuffer.wrap(new byte[Integer.BYTES]);
-		buffer.putInt(i);
-		return buffer.array();
+	private void flushCoalesced() {
+		if (linger != null) {
+			// déjà échu, le vidage attend le verrou et remettra flushPosted
+			if (linger.cancel())
+				flushPosted = false;
+			linger = null;
+		}
+		if (coalescedLength == 0)
+			return;
+		outgoing.add(ByteBuffer.wrap(coalesced, 0, coalescedLength));
+		coalesced = null;
+		coalescedLength = 0;
+		if (!writing)
+			flush();
 	}
 
 	/**
-	 * Lit la taille de la charge utile et appelle la méthode
-	 * {@link #readPayload(int)}
-	 * lorsqu'elle est terminée.
+	 * Écrit la trame du message donné (taille puis message) dans un tableau.
 	 * 
-	 * @param listener : le listener à appeler lorsque la charge utile est lue
+	 * @param message : le message
+	 * @param dst     : le tableau destination, assez grand
+	 * @param offset  : l'index de la trame dans dst
+	 * @return l'index suivant la trame
 	 */
-	public void startReadPayload(ReadListener listener) {
-		byte[] messageSize = new byte[Integer.BYTES * 2]; // messageSize[] = [reading index (int)] + [message size
-															// (int)]
-		ReadListener listenerSize = new ReadListener() {
-			@Override
-			public void read(byte[] bytes) {
-				if (byteArrayToInt(Arrays.copyOf(messageSize, Integer.BYTES)) + bytes.length == Integer.BYTES) {
-					readPayload(byteArrayToInt(Arrays.copyOfRange(messageSize, Integer.BYTES, messageSize.length)),
-							listener);
-				} else {
-					int index = byteArrayToInt(Arrays.copyOf(messageSize, Integer.BYTES)) + bytes.length;
-					byte[] indexArray = intToByteArray(index);
-					for (int y = 0; y < indexArray.length; y++)
-						messageSize[y] = indexArray[y];
-					try {
-						channel.read(messageSize, index + Integer.BYTES, Integer.BYTES - index, this);
-					} catch (Exception e) {
-						close();
-					}
-				}
-			}
-		};
+	private static int frame(byte[] message, byte[] dst, int offset) {
+		int size = message.length;
+		dst[offset] = (byte) (size >>> 24);
+		dst[offset + 1] = (byte) (size >>> 16);
+		dst[offset + 2] = (byte) (size >>> 8);
+		dst[offset + 3] = (byte) size;
+		System.arraycopy(message, 0, dst, offset + Integer.BYTES, size);
+		return offset + Integer.BYTES + size;
+	}
+
+	/**
+	 * Écrit en une seule requête vectorisée les trames de contrôle en attente,
+	 * puis les trames de messages tant que le pair a du crédit : une trame part
+	 * dès qu'il reste du crédit, quitte à le rendre négatif, pour qu'un message
+	 * plus grand que la fenêtre du pair passe quand même. N'écrit rien s'il n'y
+	 * a rien à écrire.
+	 * Doit être appelée avec le verrou de la file, lorsqu'aucune écriture n'est
+	 * en cours.
+	 */
+	private void flush() {
+		ByteBuffer[] frames = new ByteBuffer[control.size() + outgoing.size()];
+		int count = 0;
+		while (!control.isEmpty())
+			frames[count++] = control.poll();
+		while (credit > 0 && !outgoing.isEmpty()) {
+			ByteBuffer frame = outgoing.poll();
+			credit -= frame.remaining();
+			frames[count++] = frame;
+		}
+		if (count == 0)
+			return;
+		writing = true;
 		try {
-			channel.read(messageSize, Integer.BYTES, Integer.BYTES, listenerSize);
+			channel.write(frames, 0, count, writeListener);
 		} catch (Exception e) {
 			close();
 		}
 	}
 
 	/**
-	 * Lit une charge utile et appelle la méthode read() du listener lorsqu'elle est
-	 * terminée
+	 * Ajoute le crédit accordé par le pair et reprend l'écriture des trames qui
+	 * l'attendaient.
+	 */
+	private synchronized void credited(int bytes) {
+		credit += bytes;
+		if (!writing)
+			flush();
+	}
+
+	/*
+	 * Compte les bytes de la trame remise au listener (en-tête compris)
+	 * puis accorde du crédit au pair si besoin
+	 */
+	private synchronized void delivered(int length) {
+		delivered += Integer.BYTES + length;
+		grant();
+	}
+
+	/*
+	 * Si le crédit que le pair n'a pas encore utilisé est tombé à la moitié de la
+	 * fenêtre :
+	 * -- lui accorde de quoi remonter à la fenêtre complète, dans une trame de
+	 * contrôle écrite avant les messages en attente
+	 * Doit être appelée avec le verrou de la file.
+	 */
+	private void grant() {
+		if (granted - delivered > receiveWindow / 2 || channel.disconnected())
+			return;
+		int bytes = (int) Math.min(delivered + receiveWindow - granted, Integer.MAX_VALUE);
+		granted += bytes;
+		ByteBuffer frame = ByteBuffer.allocate(2 * Integer.BYTES).putInt(0, CREDIT_FRAME).putInt(Integer.BYTES,
+				bytes);
+		post(pending(frame.remaining()));
+		control.add(frame);
+		if (!writing)
+			flush();
+	}
+
+	/**
+	 * Définit la fenêtre de réception : le nombre de bytes de trames (en-têtes
+	 * compris) que le pair peut envoyer avant que le listener ne les ait reçus.
+	 * Le pair part d'un crédit de {@link #DEFAULT_RECEIVE_WINDOW} ; une fenêtre
+	 * plus grande lui est accordée aussitôt, une fenêtre plus petite s'applique
+	 * à mesure que ce crédit est consommé.
+	 * Sans listener, les messages reçus sont gardés par la file : la fenêtre
+	 * borne aussi cette mémoire.
 	 * 
-	 * @param size     : la taille de la charge utile
-	 * @param listener : le listener à appeler lorsqu'elle est terminée
+	 * @param window : la fenêtre, en bytes
+	 * @throws IllegalArgumentException si la fenêtre n'est pas positive
 	 */
-	private void readPayload(int size, ReadListener listener) {
-		byte[] message = new byte[Integer.BYTES + size]; // message[] = [reading index (int)] + [message]
-		ReadListener listenerSize = new ReadListener() {
-			@Override
-			public void read(byte[] bytes) {
-				if (byteArrayToInt(Arrays.copyOf(message, Integer.BYTES)) + bytes.length == size) {
-					Runnable r = new Runnable() {
-						@Override
-						public void run() {
-							listener.read(Arrays.copyOfRange(message, Integer.BYTES, message.length));
-						}
-					};
-					executor.post(r);
-				} else {
-					int index = byteArrayToInt(Arrays.copyOf(message, Integer.BYTES)) + bytes.length;
-					byte[] indexArray = intToByteArray(index);
-					for (int y = 0; y < indexArray.length; y++)
-						message[y] = indexArray[y];
+	public synchronized void setReceiveWindow(int window) {
+		if (window <= 0)
+			throw new IllegalArgumentException("CMessageQueue : invalid receive window");
+		this.receiveWindow = window;
+		grant();
+	}
+
+	/**
+	 * Ferme la file si des messages attendent d'être écrits sur le canal sans
+	 * que l'écriture progresse pendant le délai donné (pair qui ne lit plus ou
+	 * n'accorde plus de crédit). Le listener en est prévenu par closed().
+	 * Une seule échéance est programmée à la fois : elle est reprogrammée tant
+	 * que l'écriture progresse, et n'est pas reprogrammée une fois la file vide.
+	 * 
+	 * @param millis : le délai en millisecondes, 0 pour désactiver
+	 * @throws IllegalArgumentException si le délai est négatif
+	 */
+	public synchronized void setSendTimeout(long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("CMessageQueue : invalid send timeout");
+		if (sendCheck != null) {
+			sendCheck.cancel();
+			sendCheck = null;
+		}
+		sendTimeout = TimeUnit.MILLISECONDS.toNanos(millis);
+		armSendCheck();
+	}
+
+	/**
+	 * Programme la vérification du délai d'envoi s'il y en a un, qu'aucune
+	 * n'est programmée et que des bytes attendent. Doit être appelée avec le
+	 * verrou de la file.
+	 */
+	private void armSendCheck() {
+		if (sendTimeout == 0 || sendCheck != null || pendingBytes() == 0)
+			return;
+		lastProgress = System.nanoTime();
+		sendCheck = executor.schedule(sendCheckTask, sendTimeout, TimeUnit.NANOSECONDS);
+	}
+
+	/*
+	 * Si la file est ouverte et que des bytes attendent encore :
+	 * -- si l'écriture n'a pas progressé depuis le délai, ferme la file
+	 * -- sinon, se reprogramme à la date où le délai serait dépassé
+	 */
+	private Runnable sendCheckTask = new Runnable() {
+		@Override
+		public void run() {
+			boolean expired = false;
+			synchronized (CMessageQueue.this) {
+				sendCheck = null;
+				if (!closed() && pendingBytes() > 0) {
+					long stalled = System.nanoTime() - lastProgress;
+					expired = stalled >= sendTimeout;
+					if (!expired)
+						sendCheck = executor.schedule(this, sendTimeout - stalled, TimeUnit.NANOSECONDS);
+				}
+			}
+			if (expired)
+				close();
+		}
+	};
+
+	/*
+	 * Retire les bytes écrits du compte des seuils, et note le progrès pour le
+	 * délai d'envoi.
+	 * Continue l'écriture en cours tant que ses buffers ne sont pas vides,
+	 * puis écrit les trames arrivées entre temps, selon le crédit du pair.
+	 */
+	private VectorWriteListener writeListener = new VectorWriteListener() {
+		@Override
+		public void written(ByteBuffer[] buffers, int offset, int length, int written) {
+			post(pending(-written));
+			if (written > 0 && sendTimeout > 0)
+				lastProgress = System.nanoTime();
+			for (int i = offset; i < offset + length; i++) {
+				if (buffers[i].hasRemaining()) {
 					try {
-						channel.read(message, index + Integer.BYTES, Integer.BYTES - index, this);
+						channel.write(buffers, i, offset + length - i, this);
 					} catch (Exception e) {
 						close();
 					}
+					return;
 				}
 			}
-		};
-		try {
-			channel.read(message, Integer.BYTES, size, listenerSize);
-		} catch (Exception e) {
-			close();
+			synchronized (CMessageQueue.this) {
+				writing = false;
+				flush();
+			}
 		}
-	}
+	};
 
 	/**
-	 * <pre>
-	 * Exemple : concatArray([0,1,2,3,4], 1, 3, [5,6,7,8,9], 0, 4) <br>	retourne [1,2,3,5,6,7,8]
-	 * </pre>
-	 * 
-	 * @param a        : le premier tableau
-	 * @param offset_a : l'index de départ du premier tableau
-	 * @param length_a : le nombre d'octets à copier du premier tableau
-	 * @param b        : le deuxième tableau
-	 * @param offset_b : l'index de départ du deuxième tableau
-	 * @param length_b : le nombre d'octets à copier du deuxième tableau
-	 * @return Les deux tableaux concaténés
+	 * Poste le runnable donné dans la pompe de la file, s'il y en a un
+	 */
+	private void post(Runnable r) {
+		if (r != null)
+			executor.post(r);
+	}
+
+	/*
+	 * Annule les échéances, oublie les bytes en attente d'envoi et déconnecte
+	 * le canal.
+	 * Prévient le listener une seule fois, après les messages gardés par le
+	 * décodeur s'il est en pause.
 	 */
-	private byte[] concatArray(byte[] a, int offset_a, int length_a, byte[] b, int offset_b, int length_b) {
-		// exception si les arguments ne sont pas valide
-		if (a == null || offset_a < 0 || length_a < 0 || a.length < offset_a + length_a)
-			throw new IllegalArgumentException("Illegal arguments for byte[] concatenation");
-		if (b == null || offset_b < 0 || length_b < 0 || b.length < offset_b + length_b)
-			throw new IllegalArgumentException("Illegal arguments for byte[] concatenation");
-		// concaténation du tableau a et b
-		byte[] result = new byte[length_a + length_b];
-		int index = 0;
-		for (int i = offset_a; i < length_a; i++) {
-			result[index] = a[i];
-			index++;
+	@Override
+	public void close() {
+		boolean notify;
+		synchronized (this) {
+			if (sendCheck != null) {
+				sendCheck.cancel();
+				sendCheck = null;
+			}
+			if (linger != null) {
+				linger.cancel();
+				linger = null;
+			}
+			post(clearPending());
+			notify = listener != null && !closeNotified;
+			if (notify)
+				closeNotified = true;
 		}
-		for (int i = offset_b; i < length_b; i++) {
-			result[index] = b[i];
-			index++;
+		if (!channel.disconnected())
+			channel.disconnect();
+		if (notify) {
+			decoder.afterHeld(new Runnable() {
+				@Override
+				public void run() {
+					listener.closed();
+				}
+			});
 		}
-		return result;
+	}
+
+	/**
+	 * Les messages reçus pendant la pause sont gardés par le décodeur sans être
+	 * rendus en crédit : le pair cesse d'envoyer une fois la fenêtre de
+	 * réception consommée.
+	 */
+	@Override
+	public void pause() {
+		decoder.pause();
+	}
+
+	@Override
+	public void resume() {
+		decoder.resume();
+	}
+
+	@Override
+	public boolean closed() {
+		return channel.disconnected();
+	}
+
+	@Override
+	public String getRemoteName() {
+		return this.channel.getRemoteName();
+	}
+
+	/**
+	 * Lit la prochaine trame et la remet au listener donné, puis met le décodage
+	 * en pause jusqu'à l'appel de {@link #setListener(Listener)}. Les bytes déjà
+	 * reçus après cette trame sont gardés pour le listener de la file.
+	 * 
+	 * @param listener : le listener à appeler lorsque la charge utile est lue
+	 */
+	public void startReadPayload(ReadListener listener) {
+		decoder.start(new FrameDecoder.FrameHandler() {
+			@Override
+			public void frame(byte[] payload) {
+				listener.read(payload);
+				delivered(payload.length);
+			}
+		}, true);
 	}
 
 }
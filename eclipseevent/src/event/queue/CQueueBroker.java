@@ -1,39 +1,73 @@
 package event.queue;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import event.given.Broker;
 import event.given.Channel;
 import event.given.Executor;
+import event.given.MessageQueue;
 import event.given.QueueBroker;
+import event.given.TimerWheel;
 
 public class CQueueBroker extends QueueBroker {
 
 	// map des ports bindés avec leur objet pour synchronisation
 	private Map<Integer, Object> binds = new HashMap<>();
 	private List<Integer> unbinds = new ArrayList<>();
+	// mode poolé : files inactives par service (nom:port), la plus récente en
+	// tête, nombre maximal de files inactives par service (0 si le mode est
+	// désactivé) et durée d'inactivité avant fermeture
+	private Map<String, ArrayDeque<Idle>> idle = new HashMap<>();
+	private int maxIdle = 0;
+	private long idleTimeout = 0;
+	// prochaine éviction, programmée sur la pompe du broker tant que le pool
+	// n'est pas vide (null sinon)
+	private Eviction eviction;
+
+	/*
+	 * Une file rendue au pool, avec la date de son retour
+	 */
+	private static class Idle {
+		CMessageQueue queue;
+		long since;
+
+		Idle(CMessageQueue queue, long since) {
+			this.queue = queue;
+			this.since = since;
+		}
+	}
 
 	public CQueueBroker(Executor pump, Broker broker) {
 		super(pump, broker);
 	}
 
+	/*
+	 * Sur un CBroker, le port est lié par un acceptor permanent du broker :
+	 * toutes les connexions en attente sont acceptées d'un coup, sans attendre
+	 * la lecture de la charge utile de la précédente. Sur un autre broker,
+	 * l'accept est réarmé après chaque charge utile lue.
+	 */
 	@Override
 	public synchronized boolean bind(int port, AcceptListener listener) {
 		if (binds.containsKey(port))
 			return false;
 		binds.put(port, new Object());
+		boolean persistent = getBroker() instanceof CBroker;
 
 		Broker.AcceptListener acceptListener = new Broker.AcceptListener() {
 			@Override
 			public void accepted(Channel channel) {
-				CMessageQueue messageQueue = new CMessageQueue(channel, self(), getEventPump());
+				CMessageQueue messageQueue = new CMessageQueue(channel, self(), pumpOf(channel));
 				Channel.ReadListener readListener = new Channel.ReadListener() {
 					@Override
 					public void read(byte[] bytes) {
-						if (bytes.equals(CMessageQueue.UNBINDING_QUEUE_PAYLOAD)) {
+						if (Arrays.equals(bytes, CMessageQueue.UNBINDING_QUEUE_PAYLOAD)) {
 							messageQueue.close();
 							unbinds.add(port);
 						} else {
@@ -43,8 +77,8 @@ public class CQueueBroker extends QueueBroker {
 									listener.accepted(messageQueue);
 								}
 							};
-							getEventPump().post(r);
-							if (binds.containsKey(port) || !unbinds.contains(port))
+							pumpOf(channel).postControl(r);
+							if (!persistent && (binds.containsKey(port) || !unbinds.contains(port)))
 								getBroker().accept(port, acceptListener());
 						}
 					}
@@ -56,7 +90,10 @@ public class CQueueBroker extends QueueBroker {
 				return this;
 			}
 		};
-		getBroker().accept(port, acceptListener);
+		if (persistent)
+			((CBroker) getBroker()).bind(port, acceptListener);
+		else
+			getBroker().accept(port, acceptListener);
 		unbinds.remove(Integer.valueOf(port));
 		return true;
 	}
@@ -66,10 +103,12 @@ public class CQueueBroker extends QueueBroker {
 		synchronized (binds.get(Integer.valueOf(port)) == null ? new Object() : binds.get(Integer.valueOf(port))) {
 			if (binds.remove(Integer.valueOf(port)) == null)
 				return false;
+			if (getBroker() instanceof CBroker)
+				return ((CBroker) getBroker()).unbind(port);
 			Broker.ConnectListener connectListener = new Broker.ConnectListener() {
 				@Override
 				public void connected(Channel channel) {
-					CMessageQueue queue = new CMessageQueue(channel, self(), self().getEventPump());
+					CMessageQueue queue = new CMessageQueue(channel, self(), pumpOf(channel));
 					queue.send(CMessageQueue.UNBINDING_QUEUE_PAYLOAD);
 				}
 			};
@@ -81,12 +120,48 @@ public class CQueueBroker extends QueueBroker {
 		}
 	}
 
+	/*
+	 * En mode poolé, s'il y a une file inactive valide pour ce service :
+	 * - poste l'appel de connected() avec cette file, sans rendez-vous
+	 * Sinon, connexion au broker distant, puis envoi de la charge utile
+	 * REGULAR_QUEUE_PAYLOAD ; en mode poolé, la file est rattachée au service
+	 */
 	@Override
 	public boolean connect(String name, int port, ConnectListener listener) {
+		return connect(name, port, 0, listener);
+	}
+
+	/**
+	 * Tente une connexion qui est refusée si elle n'est pas acceptée dans le
+	 * délai donné : refused() est alors appelée. Le délai ne s'applique que si
+	 * le broker sous-jacent est un CBroker ; une file prise dans le pool est
+	 * donnée sans délai.
+	 *
+	 * @param name     : nom du broker à connecter
+	 * @param port     : le port de connexion
+	 * @param timeout  : délai en millisecondes, 0 pour attendre indéfiniment
+	 * @param listener : le listener à appeler lors de la connexion
+	 * @return true si le broker distant a été trouvé, false sinon
+	 * @see CBroker#connect(String, int, int, long, Broker.ConnectListener)
+	 */
+	public boolean connect(String name, int port, long timeout, ConnectListener listener) {
+		String service = service(name, port);
+		CMessageQueue pooled = lease(service);
+		if (pooled != null) {
+			Runnable r = new Runnable() {
+				@Override
+				public void run() {
+					listener.connected(pooled);
+				}
+			};
+			pooled.getExecutor().postControl(r);
+			return true;
+		}
 		Broker.ConnectListener connectListener = new Broker.ConnectListener() {
 			@Override
 			public void connected(Channel channel) {
-				CMessageQueue queue = new CMessageQueue(channel, self(), self().getEventPump());
+				CMessageQueue queue = new CMessageQueue(channel, self(), pumpOf(channel));
+				queue.service = service;
 				queue.send(CMessageQueue.REGULAR_QUEUE_PAYLOAD);
 				Runnable r = new Runnable() {
 					@Override
@@ -94,23 +169,230 @@ public class CQueueBroker extends QueueBroker {
 						listener.connected(queue);
 					}
 				};
-				getEventPump().post(r);
+				pumpOf(channel).postControl(r);
+			}
+
+			@Override
+			public void timedOut() {
+				listener.refused();
+			}
+
+			@Override
+			public void refused() {
+				listener.refused();
 			}
 		};
 
-		if (!getBroker().connect(name, port, connectListener)) {
+		Broker broker = getBroker();
+		boolean found = timeout > 0 && broker instanceof CBroker
+				? ((CBroker) broker).connect(name, port, ((CBroker) broker).getBufferCapacity(), timeout,
+						connectListener)
+				: broker.connect(name, port, connectListener);
+		if (!found) {
 			Runnable r = new Runnable() {
 				@Override
 				public void run() {
 					listener.refused();
 				}
 			};
-			this.getEventPump().post(r);
+			this.getEventPump().postControl(r);
 			return false;
 		}
 		return true;
 	}
 
+	/**
+	 * Active le mode poolé : les files rendues par {@link #release(MessageQueue)}
+	 * restent ouvertes et sont redonnées par les connect() suivants vers le même
+	 * broker et le même port, sans rendez-vous ni charge utile. Une file inactive
+	 * plus longtemps que la durée donnée est fermée, à son échéance programmée
+	 * sur la pompe du broker.
+	 * 
+	 * @param maxIdle     : nombre maximal de files inactives par service (broker
+	 *                    et port), 0 pour désactiver le mode et fermer les files
+	 *                    inactives
+	 * @param idleTimeout : durée d'inactivité en millisecondes avant fermeture
+	 * @throws IllegalArgumentException si un paramètre est négatif
+	 */
+	public synchronized void setPooling(int maxIdle, long idleTimeout) {
+		if (maxIdle < 0 || idleTimeout < 0)
+			throw new IllegalArgumentException("CQueueBroker : invalid pooling parameters");
+		this.maxIdle = maxIdle;
+		this.idleTimeout = idleTimeout;
+		if (maxIdle == 0) {
+			closeIdle();
+		} else {
+			evict(System.nanoTime());
+			// l'échéance dépend de la durée d'inactivité
+			cancelEviction();
+			scheduleEviction(System.nanoTime());
+		}
+	}
+
+	/*
+	 * Si le mode poolé est actif, que la file vient d'un connect() de ce broker,
+	 * qu'elle est ouverte et pas déjà dans le pool, et que le pool de son service
+	 * n'est pas plein :
+	 * - la file est mise en tête du pool de son service
+	 * Sinon elle est fermée (sauf si elle est déjà dans le pool)
+	 */
+	/**
+	 * Rend une file obtenue par connect() : en mode poolé, elle reste ouverte
+	 * pour un prochain connect() vers le même service ; sinon elle est fermée.
+	 * La file ne doit plus être utilisée par l'appelant, et ne doit être rendue
+	 * qu'une fois les échanges terminés : son listener reste en place jusqu'au
+	 * setListener() du prochain utilisateur.
+	 * Méthode thread-safe et non bloquante.
+	 * 
+	 * @param queue : la file à rendre
+	 * @return true si la file est gardée dans le pool, false si elle est fermée
+	 */
+	public synchronized boolean release(MessageQueue queue) {
+		if (!(queue instanceof CMessageQueue) || queue.broker() != this) {
+			queue.close();
+			return false;
+		}
+		CMessageQueue q = (CMessageQueue) queue;
+		if (q.idle)
+			return false;
+		long now = System.nanoTime();
+		evict(now);
+		ArrayDeque<Idle> pool = q.service == null ? null : idle.get(q.service);
+		if (maxIdle == 0 || q.service == null || q.closed() || (pool != null && pool.size() >= maxIdle)) {
+			q.close();
+			return false;
+		}
+		if (pool == null) {
+			pool = new ArrayDeque<>();
+			idle.put(q.service, pool);
+		}
+		q.idle = true;
+		pool.push(new Idle(q, now));
+		scheduleEviction(now);
+		return true;
+	}
+
+	/**
+	 * Ferme toutes les files inactives du pool.
+	 */
+	public synchronized void closeIdle() {
+		for (ArrayDeque<Idle> pool : idle.values())
+			for (Idle entry : pool) {
+				entry.queue.idle = false;
+				entry.queue.close();
+			}
+		idle.clear();
+		cancelEviction();
+	}
+
+	/**
+	 * Retire du pool la file inactive la plus récente du service donné qui est
+	 * encore ouverte.
+	 * 
+	 * @return la file, ou null s'il n'y en a pas
+	 */
+	private synchronized CMessageQueue lease(String service) {
+		if (maxIdle == 0)
+			return null;
+		evict(System.nanoTime());
+		ArrayDeque<Idle> pool = idle.get(service);
+		if (pool == null)
+			return null;
+		Idle entry;
+		while ((entry = pool.poll()) != null) {
+			entry.queue.idle = false;
+			if (!entry.queue.closed())
+				return entry.queue;
+		}
+		return null;
+	}
+
+	/*
+	 * Pour chaque service du pool :
+	 * - ferme et retire, en partant des plus anciennes, les files inactives
+	 * depuis plus longtemps que idleTimeout ou déjà fermées
+	 * - retire le service si son pool est vide
+	 * Doit être appelée avec le verrou du broker.
+	 */
+	private void evict(long now) {
+		long timeout = idleTimeout * 1_000_000;
+		Iterator<ArrayDeque<Idle>> pools = idle.values().iterator();
+		while (pools.hasNext()) {
+			ArrayDeque<Idle> pool = pools.next();
+			Idle oldest;
+			while ((oldest = pool.peekLast()) != null
+					&& (now - oldest.since > timeout || oldest.queue.closed())) {
+				pool.pollLast();
+				oldest.queue.idle = false;
+				oldest.queue.close();
+			}
+			if (pool.isEmpty())
+				pools.remove();
+		}
+	}
+
+	/*
+	 * Éviction programmée : à son échéance, si elle est toujours la prochaine,
+	 * évince les files expirées et programme la suivante
+	 */
+	private class Eviction implements Runnable {
+		TimerWheel.Timeout timeout;
+
+		@Override
+		public void run() {
+			synchronized (CQueueBroker.this) {
+				if (eviction != this)
+					return;
+				eviction = null;
+				long now = System.nanoTime();
+				evict(now);
+				scheduleEviction(now);
+			}
+		}
+	}
+
+	/*
+	 * Si aucune éviction n'est programmée et que le pool n'est pas vide :
+	 * programme sur la pompe du broker une éviction à l'échéance de la file la
+	 * plus ancienne.
+	 * Doit être appelée avec le verrou du broker.
+	 */
+	private void scheduleEviction(long now) {
+		if (eviction != null || idle.isEmpty())
+			return;
+		long oldest = now;
+		for (ArrayDeque<Idle> pool : idle.values())
+			oldest = Math.min(oldest, pool.peekLast().since);
+		long delay = Math.max(0, idleTimeout - (now - oldest) / 1_000_000) + 1;
+		eviction = new Eviction();
+		eviction.timeout = getEventPump().postDelayed(eviction, delay);
+	}
+
+	/*
+	 * Doit être appelée avec le verrou du broker.
+	 */
+	private void cancelEviction() {
+		if (eviction != null) {
+			eviction.timeout.cancel();
+			eviction = null;
+		}
+	}
+
+	private static String service(String name, int port) {
+		return name + ":" + port;
+	}
+
+	/**
+	 * Les files de messages s'exécutent sur la pompe de leur canal, afin que
+	 * chaque connexion reste sur une seule pompe.
+	 *
+	 * @param channel : le canal de la file
+	 * @return la pompe du canal, ou celle du broker si le canal n'en a pas
+	 */
+	private Executor pumpOf(Channel channel) {
+		return channel.getExecutor() != null ? channel.getExecutor() : getEventPump();
+	}
+
 	private CQueueBroker self() {
 		return this;
 	}
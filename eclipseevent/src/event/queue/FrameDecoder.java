@@ -0,0 +1,360 @@
+package event.queue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import event.given.BufferPool;
+import event.given.Channel;
+import event.given.Channel.BufferReadListener;
+import event.given.Executor;
+import event.given.MessageBuffer;
+
+/**
+ * Décodeur incrémental des trames d'une file de messages : [taille (int)] +
+ * [message], ou trame de contrôle [type (int négatif)] + [valeur (int)].
+ *
+ * Un décodeur par file, réutilisé pour toute sa durée de vie : les bytes
+ * disponibles sont lus d'un bloc dans un buffer d'entrée, duquel on extrait
+ * autant de trames complètes que possible. Les positions de lecture sont des
+ * champs ; la seule allocation par message reçu est son tableau, ou aucune
+ * si les messages sont pris dans un BufferPool.
+ *
+ * Une fois {@link #listen()} appelée, le canal est lu même quand le décodage
+ * est en pause : les trames de contrôle sont traitées aussitôt et les messages
+ * gardés jusqu'à la reprise. C'est à l'émetteur de borner ce qu'il envoie.
+ * La fin du flux (lecture abandonnée par le canal) est traitée comme une
+ * erreur de lecture.
+ *
+ * L'état du décodeur n'est manipulé que par la pompe de la file.
+ */
+public class FrameDecoder implements BufferReadListener {
+
+	// Taille par défaut du buffer d'entrée
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	/**
+	 * Reçoit les trames décodées, dans la pompe de la file
+	 */
+	public interface FrameHandler {
+		/**
+		 * @param payload : le message de la trame, qui appartient au handler
+		 */
+		void frame(byte[] payload);
+	}
+
+	/**
+	 * Reçoit les trames décodées dans des buffers poolés, dans la pompe de la
+	 * file
+	 */
+	public interface BufferFrameHandler {
+		/**
+		 * @param payload : le message de la trame, avec une référence que le
+		 *                handler doit libérer
+		 */
+		void frame(MessageBuffer payload);
+	}
+
+	/**
+	 * Reçoit les trames de contrôle, dans la pompe de la file, même quand le
+	 * décodage est en pause
+	 */
+	public interface ControlHandler {
+		/**
+		 * @param type  : le type de la trame (en-tête négatif)
+		 * @param value : la valeur qui suit l'en-tête
+		 */
+		void control(int type, int value);
+	}
+
+	private Channel channel;
+	private Executor executor;
+	// null si les trames de contrôle sont invalides
+	private ControlHandler controlHandler;
+	// appelé si le canal ne peut plus être lu ou si une trame est invalide
+	private Runnable onError;
+	// bytes lus et pas encore décodés, en mode écriture entre deux lectures
+	private ByteBuffer input;
+
+	// en-tête en cours : nombre de bytes déjà lus et valeur partielle, et type
+	// de la trame de contrôle dont on lit la valeur (0 sinon)
+	private int headerRead = 0, size = 0, control = 0;
+	// message en cours (et son buffer s'il est poolé), sa taille et le nombre
+	// de bytes déjà copiés
+	private byte[] payload = null;
+	private MessageBuffer buffer = null;
+	private int payloadLength = 0, payloadRead = 0;
+
+	private FrameHandler handler;
+	private BufferFrameHandler bufferHandler;
+	private BufferPool pool;
+	// vrai si le décodage s'arrête après la prochaine trame
+	private boolean oneShot;
+	private boolean paused = true;
+	// vrai si le canal est lu même en pause, et messages reçus en pause
+	private boolean listening = false;
+	private ArrayDeque<MessageBuffer> held = new ArrayDeque<>();
+	// tâche à lancer une fois les messages gardés remis, null si aucune
+	private Runnable afterHeld = null;
+	// vrai si une lecture est en attente sur le canal
+	private boolean reading = false;
+
+	public FrameDecoder(Channel channel, Executor executor, Runnable onError) {
+		this(channel, executor, DEFAULT_BUFFER_SIZE, onError);
+	}
+
+	public FrameDecoder(Channel channel, Executor executor, int bufferSize, Runnable onError) {
+		this(channel, executor, bufferSize, null, onError);
+	}
+
+	public FrameDecoder(Channel channel, Executor executor, ControlHandler controlHandler, Runnable onError) {
+		this(channel, executor, DEFAULT_BUFFER_SIZE, controlHandler, onError);
+	}
+
+	public FrameDecoder(Channel channel, Executor executor, int bufferSize, ControlHandler controlHandler,
+			Runnable onError) {
+		this.channel = channel;
+		this.executor = executor;
+		this.controlHandler = controlHandler;
+		this.onError = onError;
+		this.input = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Lit le canal dès maintenant et pour toute la vie du décodeur, même en
+	 * pause : les trames de contrôle sont remises au ControlHandler, les
+	 * messages gardés jusqu'au prochain start(). Thread-safe.
+	 *
+	 * @param pool : le pool des buffers des messages gardés, null pour des
+	 *             tableaux
+	 */
+	public void listen(BufferPool pool) {
+		executor.post(new Runnable() {
+			@Override
+			public void run() {
+				FrameDecoder.this.pool = pool;
+				listening = true;
+				decode();
+			}
+		});
+	}
+
+	/**
+	 * Démarre (ou reprend) le décodage, dans la pompe. Les messages gardés
+	 * pendant la pause, puis les bytes déjà lus et non décodés sont traités en
+	 * premier. Thread-safe.
+	 *
+	 * @param handler : le handler des trames
+	 * @param oneShot : vrai pour s'arrêter après la prochaine trame, en gardant
+	 *                les bytes suivants pour la reprise
+	 */
+	public void start(FrameHandler handler, boolean oneShot) {
+		start(handler, null, null, oneShot);
+	}
+
+	/**
+	 * Comme {@link #start(FrameHandler, boolean)}, les messages étant pris dans
+	 * le pool donné.
+	 *
+	 * @param handler : le handler des trames
+	 * @param pool    : le pool des buffers de messages
+	 * @param oneShot : vrai pour s'arrêter après la prochaine trame
+	 */
+	public void start(BufferFrameHandler handler, BufferPool pool, boolean oneShot) {
+		start(null, handler, pool, oneShot);
+	}
+
+	private void start(FrameHandler handler, BufferFrameHandler bufferHandler, BufferPool pool, boolean oneShot) {
+		executor.post(new Runnable() {
+			@Override
+			public void run() {
+				FrameDecoder.this.handler = handler;
+				FrameDecoder.this.bufferHandler = bufferHandler;
+				if (pool != null)
+					FrameDecoder.this.pool = pool;
+				FrameDecoder.this.oneShot = oneShot;
+				restart();
+			}
+		});
+	}
+
+	/**
+	 * Met le décodage en pause : les messages suivants sont gardés jusqu'à
+	 * {@link #resume()}, le canal restant lu si le décodeur écoute.
+	 * Thread-safe.
+	 */
+	public void pause() {
+		executor.post(new Runnable() {
+			@Override
+			public void run() {
+				paused = true;
+			}
+		});
+	}
+
+	/**
+	 * Reprend le décodage avec le handler en place, en commençant par les
+	 * messages gardés. Sans effet avant le premier start(). Thread-safe.
+	 */
+	public void resume() {
+		executor.post(new Runnable() {
+			@Override
+			public void run() {
+				if (handler != null || bufferHandler != null)
+					restart();
+			}
+		});
+	}
+
+	/**
+	 * Lance la tâche donnée dans la pompe, par la voie de contrôle, une fois
+	 * les messages gardés remis : aussitôt s'il n'y en a pas, sinon à la
+	 * reprise du décodage qui les remet tous. Thread-safe.
+	 *
+	 * @param task : la tâche, par exemple la notification de fermeture de la
+	 *             file
+	 */
+	public void afterHeld(Runnable task) {
+		executor.postControl(new Runnable() {
+			@Override
+			public void run() {
+				if (held.isEmpty())
+					task.run();
+				else
+					afterHeld = task;
+			}
+		});
+	}
+
+	/*
+	 * Sort de la pause : remet les messages gardés, puis la tâche qui les
+	 * attendait, et décode les bytes déjà lus
+	 */
+	private void restart() {
+		paused = false;
+		while (!paused && !held.isEmpty())
+			deliver(null, held.poll());
+		if (held.isEmpty() && afterHeld != null) {
+			Runnable task = afterHeld;
+			afterHeld = null;
+			task.run();
+		}
+		decode();
+	}
+
+	@Override
+	public void read(ByteBuffer buffer, int count) {
+		reading = false;
+		decode();
+	}
+
+	/*
+	 * La lecture est abandonnée (canal déconnecté, ou canal distant déconnecté
+	 * et plus rien à lire) : les trames déjà décodées ont été remises ou
+	 * gardées, le décodeur s'arrête
+	 */
+	@Override
+	public void ended() {
+		reading = false;
+		paused = true;
+		listening = false;
+		onError.run();
+	}
+
+	/*
+	 * Extrait toutes les trames complètes du buffer d'entrée :
+	 * - une trame de contrôle est remise au ControlHandler
+	 * - un message est remis au handler, ou gardé si le décodage est en pause
+	 * puis relance une lecture sur le canal si le décodage n'est pas en pause
+	 * ou si le décodeur écoute.
+	 */
+	private void decode() {
+		input.flip();
+		while ((!paused || listening) && input.hasRemaining()) {
+			if (payload == null) {
+				while (headerRead < Integer.BYTES && input.hasRemaining()) {
+					size = (size << 8) | (input.get() & 0xFF);
+					headerRead++;
+				}
+				if (headerRead < Integer.BYTES)
+					break;
+				if (control != 0) {
+					int type = control, value = size;
+					control = 0;
+					headerRead = 0;
+					size = 0;
+					controlHandler.control(type, value);
+					continue;
+				}
+				if (size < 0 && controlHandler != null) {
+					control = size;
+					headerRead = 0;
+					size = 0;
+					continue;
+				}
+				if (size < 0) {
+					input.clear();
+					paused = true;
+					listening = false;
+					onError.run();
+					return;
+				}
+				if (pool != null && (bufferHandler != null || paused)) {
+					buffer = pool.acquire(size);
+					payload = buffer.array();
+				} else {
+					payload = new byte[size];
+				}
+				payloadLength = size;
+				payloadRead = 0;
+			}
+			int n = Math.min(input.remaining(), payloadLength - payloadRead);
+			input.get(payload, payloadRead, n);
+			payloadRead += n;
+			if (payloadRead == payloadLength)
+				deliver();
+		}
+		input.compact();
+		if ((!paused || listening) && !reading) {
+			try {
+				reading = true;
+				channel.read(input, this);
+			} catch (Exception e) {
+				reading = false;
+				paused = true;
+				listening = false;
+				onError.run();
+			}
+		}
+	}
+
+	private void deliver() {
+		byte[] frame = payload;
+		MessageBuffer pooled = buffer;
+		payload = null;
+		buffer = null;
+		headerRead = 0;
+		size = 0;
+		if (paused)
+			held.add(pooled != null ? pooled : MessageBuffer.wrap(frame));
+		else
+			deliver(frame, pooled);
+	}
+
+	/**
+	 * Remet un message au handler, qu'il soit dans un tableau ou dans un
+	 * buffer
+	 */
+	private void deliver(byte[] frame, MessageBuffer pooled) {
+		if (oneShot)
+			paused = true;
+		if (bufferHandler != null) {
+			bufferHandler.frame(pooled != null ? pooled : MessageBuffer.wrap(frame));
+		} else if (pooled != null) {
+			byte[] msg = pooled.toArray();
+			pooled.release();
+			handler.frame(msg);
+		} else {
+			handler.frame(frame);
+		}
+	}
+}
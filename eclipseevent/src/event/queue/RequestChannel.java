@@ -0,0 +1,693 @@
+package event.queue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import event.given.Broker;
+import event.given.Channel;
+import event.given.Executor;
+
+/**
+ * Base des canaux à files de requêtes (CChannel, NioChannel, ShmChannel) :
+ * requêtes FIFO servies une à une par la pompe du canal, listeners appelés dans
+ * la pompe, au moins 1 byte transféré par requête, ou ended() pour une requête
+ * abandonnée.
+ *
+ * La base porte les vérifications des arguments, les files de requêtes et
+ * toutes les requêtes (tableau, ByteBuffer ou suite de ByteBuffer, en lecture
+ * et en écriture). Le transport ne donne que le transfert des bytes (push,
+ * pull), la fin de la connexion distante, et la reprise d'une file mise en
+ * pause faute de bytes ou de place.
+ */
+public abstract class RequestChannel extends Channel {
+
+	// Files des WriteRequest et ReadRequest, qui savent aussi si la pompe est en
+	// train d'écrire ou de lire
+	protected final RequestQueue<Request> writeRequests = new RequestQueue<>();
+	protected final RequestQueue<Request> readRequests = new RequestQueue<>();
+
+	protected RequestChannel(Broker broker, Executor executor) {
+		super(broker, executor);
+	}
+
+	/**
+	 * Poste une tâche du canal (requête rendue par une RequestQueue, appel de
+	 * listener), s'il y en a une. Par défaut dans la pompe du canal.
+	 *
+	 * @param task : la tâche à poster, ou null
+	 */
+	protected void post(Runnable task) {
+		if (task != null)
+			getExecutor().post(task);
+	}
+
+	/**
+	 * Vérifie que le canal peut recevoir une requête, avant les arguments. Par
+	 * défaut, rien à vérifier.
+	 *
+	 * @param operation : "read" ou "write"
+	 * @throws IllegalStateException si le canal ne peut pas recevoir de requête
+	 */
+	protected void checkUsable(String operation) {
+	}
+
+	/**
+	 * Pousse au plus length bytes du tableau vers le canal distant.
+	 *
+	 * @return le nombre de bytes poussés, -1 si la connexion est terminée
+	 * @throws IOException en cas d'erreur du transport (le canal est alors
+	 *                     déconnecté)
+	 */
+	protected abstract long push(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Pousse les bytes restants du buffer, en avançant sa position.
+	 *
+	 * @return le nombre de bytes poussés, -1 si la connexion est terminée
+	 * @throws IOException en cas d'erreur du transport
+	 */
+	protected abstract long push(ByteBuffer src) throws IOException;
+
+	/**
+	 * Pousse les bytes restants des buffers, dans l'ordre.
+	 *
+	 * @return le nombre de bytes poussés, -1 si la connexion est terminée
+	 * @throws IOException en cas d'erreur du transport
+	 */
+	protected abstract long push(ByteBuffer[] srcs, int offset, int length) throws IOException;
+
+	/**
+	 * Tire au plus length bytes reçus dans le tableau.
+	 *
+	 * @return le nombre de bytes tirés, -1 si la connexion est terminée
+	 * @throws IOException en cas d'erreur du transport
+	 */
+	protected abstract long pull(byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Tire des bytes reçus dans la place restante du buffer.
+	 *
+	 * @return le nombre de bytes tirés, -1 si la connexion est terminée
+	 * @throws IOException en cas d'erreur du transport
+	 */
+	protected abstract long pull(ByteBuffer dst) throws IOException;
+
+	/**
+	 * Tire des bytes reçus dans les buffers, remplis dans l'ordre.
+	 *
+	 * @return le nombre de bytes tirés, -1 si la connexion est terminée
+	 * @throws IOException en cas d'erreur du transport
+	 */
+	protected abstract long pull(ByteBuffer[] dsts, int offset, int length) throws IOException;
+
+	/**
+	 * @return vrai si une écriture ne peut plus aboutir (canal distant
+	 *         déconnecté) ; par défaut, la fin est signalée par push()
+	 */
+	protected boolean writeEnded() {
+		return false;
+	}
+
+	/**
+	 * @return vrai si une lecture ne peut plus aboutir (canal distant
+	 *         déconnecté et plus rien à lire) ; par défaut, la fin est signalée
+	 *         par pull()
+	 */
+	protected boolean readEnded() {
+		return false;
+	}
+
+	/**
+	 * @return vrai si l'écriture suivante peut être servie aussitôt après une
+	 *         écriture
+	 */
+	protected boolean writeReady() {
+		return true;
+	}
+
+	/**
+	 * @return vrai si la lecture suivante peut être servie aussitôt après une
+	 *         lecture
+	 */
+	protected boolean readReady() {
+		return true;
+	}
+
+	/**
+	 * Appelée dans la pompe après la mise en pause de la file d'écriture, faute
+	 * de place : le transport fera reprendre la file (resume()) quand il y aura
+	 * de la place ou que la connexion sera terminée.
+	 */
+	protected abstract void awaitWritable();
+
+	/**
+	 * Appelée dans la pompe après la mise en pause de la file de lecture, faute
+	 * de bytes : le transport fera reprendre la file quand il y aura des bytes
+	 * ou que la connexion sera terminée.
+	 */
+	protected abstract void awaitReadable();
+
+	/**
+	 * Reprend les files mises en pause, à appeler par disconnect() : leurs
+	 * requêtes voient la déconnexion et préviennent leurs listeners au lieu
+	 * d'attendre des bytes ou de la place qui ne viendront plus.
+	 */
+	protected void resumeRequests() {
+		post(readRequests.resume());
+		post(writeRequests.resume());
+	}
+
+	/*
+	 * Vérifie que le canal peut recevoir une requête
+	 * Vérifie si les arguments sont corrects
+	 * Vérifie si le canal n'est pas déconnecté
+	 * Ajoute une nouvelle ReadRequest avec les arguments donnés
+	 * Si on n'était pas déjà en train de lire :
+	 * --- La pompe se charge de la première requête
+	 */
+	@Override
+	public void read(byte[] bytes, int offset, int length, ReadListener listener) {
+		checkUsable("read");
+		if (bytes == null || offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IllegalArgumentException(this.toString() + " read : Illegal arguments");
+		if (disconnected())
+			throw new IllegalStateException(this.toString() + " read : disconnected");
+		post(readRequests.add(new ArrayReadRequest(bytes, offset, length, listener)));
+	}
+
+	/*
+	 * Comme read(), et les bytes de la requête entrent dans le compte des seuils
+	 * d'écriture jusqu'à son retrait
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int length, WriteListener listener) {
+		checkUsable("write");
+		if (bytes == null || offset < 0 || length < 0 || offset + length > bytes.length)
+			throw new IllegalArgumentException(this.toString() + " write : Illegal arguments");
+		if (disconnected())
+			throw new IllegalStateException(this.toString() + " write : disconnected");
+		WriteRequest request = new ArrayWriteRequest(bytes, offset, length, listener);
+		post(queued(request.size));
+		post(writeRequests.add(request));
+	}
+
+	@Override
+	public void read(ByteBuffer buffer, BufferReadListener listener) {
+		checkUsable("read");
+		if (buffer == null || buffer.isReadOnly())
+			throw new IllegalArgumentException(this.toString() + " read : Illegal arguments");
+		if (disconnected())
+			throw new IllegalStateException(this.toString() + " read : disconnected");
+		post(readRequests.add(new BufferReadRequest(buffer, listener)));
+	}
+
+	@Override
+	public void write(ByteBuffer buffer, BufferWriteListener listener) {
+		checkUsable("write");
+		if (buffer == null)
+			throw new IllegalArgumentException(this.toString() + " write : Illegal arguments");
+		if (disconnected())
+			throw new IllegalStateException(this.toString() + " write : disconnected");
+		WriteRequest request = new BufferWriteRequest(buffer, listener);
+		post(queued(request.size));
+		post(writeRequests.add(request));
+	}
+
+	@Override
+	public void read(ByteBuffer[] buffers, int offset, int length, VectorReadListener listener) {
+		checkUsable("read");
+		if (buffers == null || offset < 0 || length < 0 || offset + length > buffers.length)
+			throw new IllegalArgumentException(this.toString() + " read : Illegal arguments");
+		if (disconnected())
+			throw new IllegalStateException(this.toString() + " read : disconnected");
+		post(readRequests.add(new VectorReadRequest(buffers, offset, length, listener)));
+	}
+
+	@Override
+	public void write(ByteBuffer[] buffers, int offset, int length, VectorWriteListener listener) {
+		checkUsable("write");
+		if (buffers == null || offset < 0 || length < 0 || offset + length > buffers.length)
+			throw new IllegalArgumentException(this.toString() + " write : Illegal arguments");
+		if (disconnected())
+			throw new IllegalStateException(this.toString() + " write : disconnected");
+		WriteRequest request = new VectorWriteRequest(buffers, offset, length, listener);
+		post(queued(request.size));
+		post(writeRequests.add(request));
+	}
+
+	/*
+	 * Chaque requête est un Runnable servi par la pompe, avec :
+	 * -- les bytes à transférer (tableau, ByteBuffer ou suite de ByteBuffer)
+	 * -- un listener
+	 *
+	 * Si le canal est déconnecté, la file est purgée : chaque requête retirée
+	 * (celle-ci comprise) prévient son listener par ended()
+	 * Si la connexion est terminée (canal distant déconnecté et, en lecture,
+	 * plus rien à lire) : le canal est déconnecté et la file purgée
+	 * On transfère d'un coup autant que possible :
+	 * -- fin de connexion ou erreur : le canal est déconnecté et la file purgée
+	 * -- rien de transféré : la file est mise en pause et le transport la
+	 * reprendra
+	 * -- sinon le listener est posté avec le nombre de bytes transférés, la
+	 * requête est retirée (une écriture sort du compte des seuils d'écriture) ;
+	 * si la connexion est alors terminée, le canal est déconnecté et la file
+	 * purgée, sinon on passe à la suivante si le transport le permet
+	 */
+	protected abstract class Request implements Runnable {
+
+		/**
+		 * @return la file de la requête
+		 */
+		abstract RequestQueue<Request> queue();
+
+		/**
+		 * @return vrai si la connexion est terminée pour cette requête
+		 */
+		abstract boolean ended();
+
+		/**
+		 * @return vrai si la requête suivante peut être servie aussitôt
+		 */
+		abstract boolean ready();
+
+		/**
+		 * Fait reprendre la file, mise en pause, par le transport
+		 */
+		abstract void await();
+
+		/**
+		 * @return vrai s'il reste des bytes à transférer
+		 */
+		abstract boolean hasRemaining();
+
+		/**
+		 * @return le nombre de bytes transférés, -1 en fin de connexion
+		 */
+		abstract long transfer() throws IOException;
+
+		/**
+		 * @param n : le nombre de bytes transférés
+		 * @return le runnable appelant le listener
+		 */
+		abstract Runnable done(int n);
+
+		/**
+		 * @return le runnable prévenant le listener que la requête est
+		 *         abandonnée
+		 */
+		abstract Runnable abandoned();
+
+		/**
+		 * Appelée lorsque la requête est retirée de sa file après avoir été
+		 * servie
+		 */
+		void retired() {
+		}
+
+		/**
+		 * Appelée lorsque la file de la requête est purgée
+		 */
+		void cleared() {
+		}
+
+		/**
+		 * Purge la file de la requête, dont les requêtes retirées préviennent
+		 * leurs listeners
+		 */
+		private void abandon() {
+			for (Request request : queue().clear())
+				post(request.abandoned());
+			cleared();
+		}
+
+		/**
+		 * Déconnecte le canal et purge la file de la requête
+		 */
+		private void end() {
+			disconnect();
+			abandon();
+		}
+
+		@Override
+		public void run() {
+			RequestQueue<Request> queue = queue();
+			if (disconnected()) {
+				abandon();
+				return;
+			}
+			if (ended()) {
+				end();
+				return;
+			}
+			long n;
+			try {
+				n = hasRemaining() ? transfer() : 0;
+			} catch (IOException e) {
+				n = -1;
+			}
+			if (n < 0) {
+				end();
+				return;
+			}
+			if (n == 0 && hasRemaining()) {
+				queue.pause();
+				await();
+				return;
+			}
+			post(done((int) n));
+			active();
+			retired();
+			if (ended()) {
+				queue.advance(false);
+				end();
+				return;
+			}
+			post(queue.advance(ready()));
+		}
+	}
+
+	private abstract class WriteRequest extends Request {
+		// bytes comptés dans la file d'écriture jusqu'au retrait de la requête
+		long size;
+
+		@Override
+		void retired() {
+			post(queued(-size));
+		}
+
+		@Override
+		void cleared() {
+			clearQueued();
+		}
+
+		@Override
+		RequestQueue<Request> queue() {
+			return writeRequests;
+		}
+
+		@Override
+		boolean ended() {
+			return writeEnded();
+		}
+
+		@Override
+		boolean ready() {
+			return writeReady();
+		}
+
+		@Override
+		void await() {
+			awaitWritable();
+		}
+	}
+
+	private abstract class ReadRequest extends Request {
+		@Override
+		RequestQueue<Request> queue() {
+			return readRequests;
+		}
+
+		@Override
+		boolean ended() {
+			return readEnded();
+		}
+
+		@Override
+		boolean ready() {
+			return readReady();
+		}
+
+		@Override
+		void await() {
+			awaitReadable();
+		}
+	}
+
+	private class ArrayWriteRequest extends WriteRequest {
+		byte[] bytes;
+		int offset;
+		int length;
+		WriteListener listener;
+
+		ArrayWriteRequest(byte[] bytes, int offset, int length, WriteListener listener) {
+			this.size = length;
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+			this.listener = listener;
+		}
+
+		@Override
+		boolean hasRemaining() {
+			return length > 0;
+		}
+
+		@Override
+		long transfer() throws IOException {
+			return push(bytes, offset, length);
+		}
+
+		@Override
+		Runnable done(int written) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.written(bytes, offset, length, written);
+				}
+			};
+		}
+
+		@Override
+		Runnable abandoned() {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.ended();
+				}
+			};
+		}
+	}
+
+	private class BufferWriteRequest extends WriteRequest {
+		ByteBuffer buffer;
+		BufferWriteListener listener;
+
+		BufferWriteRequest(ByteBuffer buffer, BufferWriteListener listener) {
+			this.size = buffer.remaining();
+			this.buffer = buffer;
+			this.listener = listener;
+		}
+
+		@Override
+		boolean hasRemaining() {
+			return buffer.hasRemaining();
+		}
+
+		@Override
+		long transfer() throws IOException {
+			return push(buffer);
+		}
+
+		@Override
+		Runnable done(int written) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.written(buffer, written);
+				}
+			};
+		}
+
+		@Override
+		Runnable abandoned() {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.ended();
+				}
+			};
+		}
+	}
+
+	private class VectorWriteRequest extends WriteRequest {
+		ByteBuffer[] buffers;
+		int offset;
+		int length;
+		VectorWriteListener listener;
+
+		VectorWriteRequest(ByteBuffer[] buffers, int offset, int length, VectorWriteListener listener) {
+			for (int i = offset; i < offset + length; i++)
+				this.size += buffers[i].remaining();
+			this.buffers = buffers;
+			this.offset = offset;
+			this.length = length;
+			this.listener = listener;
+		}
+
+		@Override
+		boolean hasRemaining() {
+			return RequestChannel.hasRemaining(buffers, offset, length);
+		}
+
+		@Override
+		long transfer() throws IOException {
+			return push(buffers, offset, length);
+		}
+
+		@Override
+		Runnable done(int written) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.written(buffers, offset, length, written);
+				}
+			};
+		}
+
+		@Override
+		Runnable abandoned() {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.ended();
+				}
+			};
+		}
+	}
+
+	private class ArrayReadRequest extends ReadRequest {
+		byte[] bytes;
+		int offset;
+		int length;
+		ReadListener listener;
+
+		ArrayReadRequest(byte[] bytes, int offset, int length, ReadListener listener) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+			this.listener = listener;
+		}
+
+		@Override
+		boolean hasRemaining() {
+			return length > 0;
+		}
+
+		@Override
+		long transfer() throws IOException {
+			return pull(bytes, offset, length);
+		}
+
+		@Override
+		Runnable done(int read) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.read(Arrays.copyOfRange(bytes, offset, offset + read));
+				}
+			};
+		}
+
+		@Override
+		Runnable abandoned() {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.ended();
+				}
+			};
+		}
+	}
+
+	private class BufferReadRequest extends ReadRequest {
+		ByteBuffer buffer;
+		BufferReadListener listener;
+
+		BufferReadRequest(ByteBuffer buffer, BufferReadListener listener) {
+			this.buffer = buffer;
+			this.listener = listener;
+		}
+
+		@Override
+		boolean hasRemaining() {
+			return buffer.hasRemaining();
+		}
+
+		@Override
+		long transfer() throws IOException {
+			return pull(buffer);
+		}
+
+		@Override
+		Runnable done(int read) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.read(buffer, read);
+				}
+			};
+		}
+
+		@Override
+		Runnable abandoned() {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.ended();
+				}
+			};
+		}
+	}
+
+	private class VectorReadRequest extends ReadRequest {
+		ByteBuffer[] buffers;
+		int offset;
+		int length;
+		VectorReadListener listener;
+
+		VectorReadRequest(ByteBuffer[] buffers, int offset, int length, VectorReadListener listener) {
+			this.buffers = buffers;
+			this.offset = offset;
+			this.length = length;
+			this.listener = listener;
+		}
+
+		@Override
+		boolean hasRemaining() {
+			return RequestChannel.hasRemaining(buffers, offset, length);
+		}
+
+		@Override
+		long transfer() throws IOException {
+			return pull(buffers, offset, length);
+		}
+
+		@Override
+		Runnable done(int read) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.read(buffers, offset, length, read);
+				}
+			};
+		}
+
+		@Override
+		Runnable abandoned() {
+			return new Runnable() {
+				@Override
+				public void run() {
+					listener.ended();
+				}
+			};
+		}
+	}
+
+	private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+		for (int i = offset; i < offset + length; i++)
+			if (buffers[i].hasRemaining())
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,96 @@
+package event.queue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File FIFO des requêtes d'un canal (lecture ou écriture), en O(1) à l'ajout
+ * comme au retrait, avec un unique protocole de propriété du drapeau
+ * "la pompe est en train de vider la file".
+ *
+ * Au plus une requête de la file est postée dans la pompe à la fois : celui
+ * qui fait passer le drapeau à vrai (add(), resume()) reçoit la tête de file
+ * et doit la poster ; la requête en cours rend la main avec advance() ou
+ * pause(). Toutes les méthodes sont thread-safe : add() peut être appelée par
+ * n'importe quel thread, les autres par la pompe.
+ *
+ * @param <R> : le type des requêtes
+ */
+public class RequestQueue<R> {
+
+	private ArrayDeque<R> requests = new ArrayDeque<R>();
+	private boolean draining = false;
+
+	/**
+	 * Ajoute une requête en fin de file.
+	 *
+	 * @param r : la requête
+	 * @return la requête à poster si la pompe ne vidait pas la file (elle le
+	 *         fait désormais), null sinon
+	 */
+	public synchronized R add(R r) {
+		requests.addLast(r);
+		if (draining)
+			return null;
+		draining = true;
+		return requests.peekFirst();
+	}
+
+	/**
+	 * Reprend le vidage de la file après un pause(), par exemple lorsque le
+	 * buffer du canal a de nouveau de la place ou des bytes.
+	 *
+	 * @return la requête à poster, null si la file est vide ou déjà en cours de
+	 *         vidage
+	 */
+	public synchronized R resume() {
+		if (draining || requests.isEmpty())
+			return null;
+		draining = true;
+		return requests.peekFirst();
+	}
+
+	/**
+	 * Retire la requête de tête, qui vient d'être servie, et décide de la suite.
+	 *
+	 * @param canContinue : vrai si la requête suivante peut être servie
+	 *                    immédiatement
+	 * @return la requête suivante à poster, null si le vidage s'arrête
+	 */
+	public synchronized R advance(boolean canContinue) {
+		requests.pollFirst();
+		if (canContinue && !requests.isEmpty())
+			return requests.peekFirst();
+		draining = false;
+		return null;
+	}
+
+	/**
+	 * Arrête le vidage sans retirer la requête de tête, qui sera reprise par
+	 * resume().
+	 */
+	public synchronized void pause() {
+		draining = false;
+	}
+
+	/**
+	 * Vide la file et arrête le vidage (canal déconnecté).
+	 *
+	 * @return les requêtes retirées, dans l'ordre de la file
+	 */
+	public synchronized List<R> clear() {
+		List<R> cleared = new ArrayList<R>(requests);
+		requests.clear();
+		draining = false;
+		return cleared;
+	}
+
+	public synchronized int size() {
+		return requests.size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return requests.isEmpty();
+	}
+}
@@ -0,0 +1,158 @@
+package event.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Buffer circulaire à un producteur et un consommateur, dans une mémoire
+ * partagée entre deux processus. Même discipline que CircularBufferEvent :
+ * compteurs head et tail libres (jamais ramenés dans [0, capacité)), indexés
+ * avec un masque, capacité en puissance de deux.
+ *
+ * Chaque compteur n'est écrit que par son côté et publié avec une écriture
+ * release : le producteur copie les bytes puis publie tail, le consommateur
+ * les lit après une lecture acquire de tail (et symétriquement pour head). Les
+ * deux compteurs sont sur des lignes de cache séparées.
+ *
+ * Disposition à partir de base : [tail (long)] ... [head (long)] ... [données]
+ */
+class SharedRing {
+
+	// taille de l'en-tête d'un ring : tail et head sur deux lignes de cache
+	static final int HEADER_SIZE = 128;
+	private static final int TAIL = 0, HEAD = 64;
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.nativeOrder());
+
+	private ByteBuffer memory;
+	private int tailIndex, headIndex, data;
+	private int capacity, mask;
+
+	/**
+	 * @param memory   : la mémoire partagée (buffer direct)
+	 * @param base     : l'index du ring, aligné sur 8
+	 * @param capacity : la capacité des données, puissance de deux
+	 */
+	SharedRing(ByteBuffer memory, int base, int capacity) {
+		this.memory = memory;
+		this.tailIndex = base + TAIL;
+		this.headIndex = base + HEAD;
+		this.data = base + HEADER_SIZE;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return la taille d'un ring de la capacité donnée, en-tête compris
+	 */
+	static int size(int capacity) {
+		return HEADER_SIZE + capacity;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return le nombre de bytes à lire
+	 */
+	int available() {
+		return (int) ((long) LONGS.getAcquire(memory, tailIndex) - (long) LONGS.getAcquire(memory, headIndex));
+	}
+
+	/**
+	 * @return le nombre de bytes pouvant être écrits
+	 */
+	int remaining() {
+		return capacity - available();
+	}
+
+	/**
+	 * Producteur : copie au plus length bytes du tableau.
+	 *
+	 * @return le nombre de bytes copiés
+	 */
+	int push(byte[] bytes, int offset, int length) {
+		long tail = (long) LONGS.get(memory, tailIndex);
+		long head = (long) LONGS.getAcquire(memory, headIndex);
+		int n = Math.min(length, capacity - (int) (tail - head));
+		if (n <= 0)
+			return 0;
+		int index = (int) tail & mask;
+		int first = Math.min(n, capacity - index);
+		memory.put(data + index, bytes, offset, first);
+		if (n > first)
+			memory.put(data, bytes, offset + first, n - first);
+		LONGS.setRelease(memory, tailIndex, tail + n);
+		return n;
+	}
+
+	/**
+	 * Producteur : copie au plus src.remaining() bytes, la position de src
+	 * avance d'autant.
+	 *
+	 * @return le nombre de bytes copiés
+	 */
+	int push(ByteBuffer src) {
+		long tail = (long) LONGS.get(memory, tailIndex);
+		long head = (long) LONGS.getAcquire(memory, headIndex);
+		int n = Math.min(src.remaining(), capacity - (int) (tail - head));
+		if (n <= 0)
+			return 0;
+		int index = (int) tail & mask;
+		int first = Math.min(n, capacity - index);
+		int position = src.position();
+		memory.put(data + index, src, position, first);
+		if (n > first)
+			memory.put(data, src, position + first, n - first);
+		src.position(position + n);
+		LONGS.setRelease(memory, tailIndex, tail + n);
+		return n;
+	}
+
+	/**
+	 * Consommateur : copie au plus length bytes dans le tableau.
+	 *
+	 * @return le nombre de bytes copiés
+	 */
+	int pull(byte[] bytes, int offset, int length) {
+		long head = (long) LONGS.get(memory, headIndex);
+		long tail = (long) LONGS.getAcquire(memory, tailIndex);
+		int n = Math.min(length, (int) (tail - head));
+		if (n <= 0)
+			return 0;
+		int index = (int) head & mask;
+		int first = Math.min(n, capacity - index);
+		memory.get(data + index, bytes, offset, first);
+		if (n > first)
+			memory.get(data, bytes, offset + first, n - first);
+		LONGS.setRelease(memory, headIndex, head + n);
+		return n;
+	}
+
+	/**
+	 * Consommateur : copie au plus dst.remaining() bytes, la position de dst
+	 * avance d'autant.
+	 *
+	 * @return le nombre de bytes copiés
+	 */
+	int pull(ByteBuffer dst) {
+		long head = (long) LONGS.get(memory, headIndex);
+		long tail = (long) LONGS.getAcquire(memory, tailIndex);
+		int n = Math.min(dst.remaining(), (int) (tail - head));
+		if (n <= 0)
+			return 0;
+		int index = (int) head & mask;
+		int first = Math.min(n, capacity - index);
+		int position = dst.position();
+		dst.put(position, memory, data + index, first);
+		if (n > first)
+			dst.put(position + first, memory, data, n - first);
+		dst.position(position + n);
+		LONGS.setRelease(memory, headIndex, head + n);
+		return n;
+	}
+}
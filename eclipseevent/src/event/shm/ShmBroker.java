@@ -0,0 +1,454 @@
+package event.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import event.given.Broker;
+import event.given.CircularBufferEvent;
+import event.given.Executor;
+import event.given.ExecutorGroup;
+
+/**
+ * Broker dont les canaux sont en mémoire partagée (ShmChannel), pour relier
+ * deux processus d'une même machine sans appel système sur le chemin des
+ * données.
+ *
+ * Les brokers partagent un répertoire (par défaut sous /dev/shm), qui joue le
+ * rôle de BrokerManager :
+ * - n.broker signale que le broker n existe (connect() retourne false sinon)
+ * - pour se connecter au port p du broker n, un broker crée le segment de la
+ * connexion sous un nom temporaire, puis le renomme n.p.id.conn (le
+ * renommage est atomique : le fichier est complet quand il apparaît)
+ * - un accept en attente sur le port p cherche ces fichiers, en réclame un en
+ * le renommant n.p.id.acc (un seul accept le gagne), le projette, marque la
+ * connexion acceptée puis supprime le fichier (les projections restent)
+ * - le broker qui se connecte surveille ce marqueur ; si le fichier a disparu
+ * sans que la connexion soit acceptée, elle est refusée : le broker distant
+ * s'est fermé, ou n'a pas pu projeter le fichier. Il retire lui-même sa
+ * demande si le broker distant n'existe plus.
+ * - un broker qui se ferme supprime les demandes qui lui sont adressées et
+ * celles qu'il a déposées (marquées fermées de son côté, pour un accept qui
+ * les aurait déjà réclamées)
+ * Les recherches et surveillances sont faites par le ShmPoller du broker.
+ */
+public class ShmBroker extends Broker {
+
+	// Répertoire par défaut des segments
+	public static final Path DEFAULT_DIRECTORY = Files.isDirectory(Path.of("/dev/shm"))
+			? Path.of("/dev/shm", "event-brokers")
+			: Path.of(System.getProperty("java.io.tmpdir"), "event-brokers");
+	// Capacité par défaut de chaque ring d'une connexion
+	public static final int DEFAULT_CAPACITY = 64 << 10;
+	// intervalle entre deux recherches de connexions d'un accept en attente
+	public static final long SCAN_INTERVAL = 1_000_000;
+
+	private static AtomicLong sequence = new AtomicLong();
+
+	private ExecutorGroup executors;
+	private ShmPoller poller;
+	private boolean ownsPoller;
+	private Path directory;
+	private volatile int capacity = DEFAULT_CAPACITY;
+	// acceptations en attente par port
+	private Map<Integer, AcceptListener> accepting = new HashMap<>();
+	// demandes de connexion déposées, pas encore acceptées ni refusées
+	private Set<Connector> connecting = new HashSet<>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Crée un broker dans DEFAULT_DIRECTORY.
+	 *
+	 * @param name     : nom du broker
+	 * @param executor : la pompe du broker
+	 */
+	public ShmBroker(String name, Executor executor) {
+		this(name, new ExecutorGroup(executor), DEFAULT_DIRECTORY);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param directory : le répertoire des segments, créé si besoin
+	 */
+	public ShmBroker(String name, ExecutorGroup executors, Path directory) {
+		this(name, executors, null, directory);
+	}
+
+	/**
+	 * @param name      : nom du broker
+	 * @param executors : les pompes du broker
+	 * @param poller    : le poller, démarré, partagé avec d'autres brokers ;
+	 *                  null pour un poller propre au broker
+	 * @param directory : le répertoire des segments, créé si besoin
+	 * @throws IllegalArgumentException si le nom n'est pas un nom de fichier
+	 * @throws UncheckedIOException     si le répertoire ne peut pas être créé
+	 */
+	public ShmBroker(String name, ExecutorGroup executors, ShmPoller poller, Path directory) {
+		super(checkName(name));
+		this.executors = executors;
+		this.directory = directory;
+		try {
+			Files.createDirectories(directory);
+			Files.deleteIfExists(marker(name));
+			Files.createFile(marker(name));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (poller == null) {
+			poller = new ShmPoller(name + "-poller");
+			poller.start();
+			ownsPoller = true;
+		}
+		this.poller = poller;
+	}
+
+	/**
+	 * @throws IllegalArgumentException si le nom n'est pas un nom de fichier
+	 */
+	private static String checkName(String name) {
+		if (name.isEmpty() || name.contains("/") || name.contains(File.separator)
+				|| name.getBytes(StandardCharsets.UTF_8).length > ShmSegment.MAX_NAME_LENGTH)
+			throw new IllegalArgumentException("ShmBroker : invalid name " + name);
+		return name;
+	}
+
+	public ExecutorGroup getExecutors() {
+		return executors;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity : capacité de chaque ring des connexions établies par ce
+	 *                 broker, arrondie à la puissance de deux supérieure
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = CircularBufferEvent.roundCapacity(capacity);
+	}
+
+	private Path marker(String name) {
+		return directory.resolve(name + ".broker");
+	}
+
+	/*
+	 * Si le broker est fermé : IllegalStateException
+	 * Si une acceptation est déjà en attente sur le port : IllegalArgumentException
+	 * Enregistre le listener et confie la recherche des connexions au poller
+	 */
+	/**
+	 * @throws IllegalArgumentException si une acceptation est déjà en attente sur
+	 *                                  le port
+	 * @throws IllegalStateException    si le broker est fermé
+	 * @see Broker#accept(int, AcceptListener)
+	 */
+	@Override
+	public synchronized void accept(int port, AcceptListener listener) {
+		if (closed)
+			throw new IllegalStateException(this.toString() + " accept : closed");
+		if (accepting.containsKey(port))
+			throw new IllegalArgumentException(this.toString() + " accept : port invalide");
+		accepting.put(port, listener);
+		poller.watch(new Acceptor(port));
+	}
+
+	/*
+	 * Retourne false si le broker distant n'existe pas (pas de fichier n.broker)
+	 * ou si le segment ne peut pas être créé.
+	 * Crée le segment sous un nom temporaire, le renomme n.p.id.conn, puis confie
+	 * au poller la surveillance de son acceptation ou de son refus.
+	 */
+	/**
+	 * @return true si le broker distant a été trouvé et la demande de connexion
+	 *         déposée, false sinon
+	 * @see Broker#connect(String, int, ConnectListener)
+	 */
+	@Override
+	public boolean connect(String name, int port, ConnectListener listener) {
+		if (closed || !Files.exists(marker(name)))
+			return false;
+		String id = ProcessHandle.current().pid() + "-" + sequence.incrementAndGet();
+		Path temporary = directory.resolve(name + "." + port + "." + id + ".tmp");
+		Path request = directory.resolve(name + "." + port + "." + id + ".conn");
+		ShmSegment segment;
+		try {
+			segment = ShmSegment.create(temporary, capacity, getName());
+			Files.move(temporary, request, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			try {
+				Files.deleteIfExists(temporary);
+			} catch (IOException ignored) {
+				// rien à faire
+			}
+			return false;
+		}
+		Connector connector = new Connector(name, port, id, segment, listener);
+		synchronized (this) {
+			if (!closed) {
+				connecting.add(connector);
+				poller.watch(connector);
+				return true;
+			}
+		}
+		// fermé entre temps
+		delete(request);
+		segment.unmap();
+		return false;
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// rien à faire
+		}
+	}
+
+	/**
+	 * Ferme le broker : les acceptations en attente sont abandonnées et les
+	 * demandes qui lui sont adressées supprimées (leurs brokers les voient
+	 * refusées), ses propres demandes sont retirées sans appeler leurs
+	 * listeners, son fichier n.broker est supprimé, et son poller arrêté s'il
+	 * lui est propre (ses canaux ne sont alors plus surveillés).
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		accepting.clear();
+		delete(marker(getName()));
+		String prefix = getName() + ".";
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String fileName = file.getFileName().toString();
+				if (fileName.startsWith(prefix) && fileName.endsWith(".conn"))
+					delete(file);
+			}
+		} catch (IOException e) {
+			// les demandes restantes sont retirées par leurs brokers
+		}
+		for (Connector connector : connecting)
+			connector.cancel();
+		connecting.clear();
+		if (ownsPoller)
+			poller.shutdown();
+	}
+
+	/*
+	 * Acceptation en attente, interrogée par le poller : toutes les
+	 * SCAN_INTERVAL, cherche un fichier n.p.*.conn et le réclame. Le premier
+	 * réclamé devient un ShmChannel remis au listener, qui est alors consommé.
+	 */
+	private class Acceptor implements ShmPoller.Watch {
+		int port;
+		String prefix;
+		long nextScan = 0;
+
+		Acceptor(int port) {
+			this.port = port;
+			this.prefix = getName() + "." + port + ".";
+		}
+
+		@Override
+		public boolean poll() {
+			if (closed)
+				return true;
+			long now = System.nanoTime();
+			if (now - nextScan < 0)
+				return false;
+			nextScan = now + SCAN_INTERVAL;
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for (Path file : files) {
+					String fileName = file.getFileName().toString();
+					if (fileName.startsWith(prefix) && fileName.endsWith(".conn") && claim(file))
+						return true;
+				}
+			} catch (IOException e) {
+				// nouvel essai à la prochaine recherche
+			}
+			return false;
+		}
+
+		/**
+		 * @return true si le fichier a été réclamé et la connexion acceptée
+		 */
+		private boolean claim(Path file) {
+			String fileName = file.getFileName().toString();
+			Path claimed = file.resolveSibling(fileName.substring(0, fileName.length() - ".conn".length()) + ".acc");
+			try {
+				Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+			} catch (NoSuchFileException e) {
+				// réclamé par un autre accept
+				return false;
+			} catch (IOException e) {
+				return false;
+			}
+			// le fichier n'est supprimé qu'une fois la connexion acceptée ou
+			// refusée : sa disparition seule signifie le refus
+			ShmSegment segment;
+			try {
+				segment = ShmSegment.open(claimed);
+			} catch (IOException e) {
+				delete(claimed);
+				return false;
+			}
+			AcceptListener listener;
+			synchronized (ShmBroker.this) {
+				listener = accepting.remove(port);
+			}
+			if (listener == null) {
+				// broker fermé entre temps : la connexion est refusée
+				delete(claimed);
+				segment.unmap();
+				return true;
+			}
+			segment.accept();
+			delete(claimed);
+			Executor executor = executors.select(getName(), port);
+			ShmChannel channel = new ShmChannel(ShmBroker.this, port, segment.name(), segment, ShmSegment.ACCEPTOR,
+					poller, executor);
+			executor.postControl(new Runnable() {
+				@Override
+				public void run() {
+					listener.accepted(channel);
+				}
+			});
+			return true;
+		}
+	}
+
+	/*
+	 * Demande de connexion déposée, interrogée par le poller :
+	 * - une fois le segment accepté, devient un ShmChannel remis au listener
+	 * - toutes les SCAN_INTERVAL, cherche le fichier de la demande, sous son nom
+	 * n.p.id.conn puis n.p.id.acc (un accept le renomme entre les deux) ; s'il
+	 * n'est plus là et que le segment n'est toujours pas accepté, la demande est
+	 * refusée. Si le broker distant n'existe plus, retire elle-même la demande.
+	 * Le segment d'une demande refusée ou retirée est défait dans le poller.
+	 */
+	private class Connector implements ShmPoller.Watch {
+		String name;
+		int port;
+		Path request, claimed;
+		ShmSegment segment;
+		ConnectListener listener;
+		long nextScan = 0;
+		// vrai si la demande a été retirée par close()
+		volatile boolean cancelled = false;
+
+		Connector(String name, int port, String id, ShmSegment segment, ConnectListener listener) {
+			this.name = name;
+			this.port = port;
+			this.request = directory.resolve(name + "." + port + "." + id + ".conn");
+			this.claimed = directory.resolve(name + "." + port + "." + id + ".acc");
+			this.segment = segment;
+			this.listener = listener;
+		}
+
+		/*
+		 * Appelée par close() : un accept qui aurait déjà réclamé la demande voit
+		 * le côté connect fermé
+		 */
+		void cancel() {
+			segment.close(ShmSegment.CONNECTOR);
+			delete(request);
+			cancelled = true;
+		}
+
+		@Override
+		public boolean poll() {
+			if (cancelled) {
+				segment.unmap();
+				return true;
+			}
+			if (segment.accepted())
+				return connected();
+			long now = System.nanoTime();
+			if (now - nextScan < 0)
+				return false;
+			nextScan = now + SCAN_INTERVAL;
+			if (Files.exists(request)) {
+				if (Files.exists(marker(name)))
+					return false;
+				try {
+					if (!Files.deleteIfExists(request))
+						return false;
+				} catch (IOException e) {
+					return false;
+				}
+			} else if (Files.exists(claimed) || segment.accepted()) {
+				return false;
+			}
+			return refused();
+		}
+
+		private boolean refused() {
+			boolean pending = retire();
+			segment.unmap();
+			if (pending) {
+				Executor executor = executors.select(name, port);
+				executor.postControl(new Runnable() {
+					@Override
+					public void run() {
+						listener.refused();
+					}
+				});
+			}
+			return true;
+		}
+
+		/**
+		 * @return false si la demande a été retirée par close() entre temps
+		 */
+		private boolean retire() {
+			synchronized (ShmBroker.this) {
+				return connecting.remove(this);
+			}
+		}
+
+		private boolean connected() {
+			if (segment.closed(ShmSegment.ACCEPTOR)) {
+				// broker distant fermé aussitôt après l'acceptation
+				segment.close(ShmSegment.CONNECTOR);
+				return refused();
+			}
+			if (!retire()) {
+				segment.unmap();
+				return true;
+			}
+			Executor executor = executors.select(name, port);
+			ShmChannel channel = new ShmChannel(ShmBroker.this, port, name, segment, ShmSegment.CONNECTOR, poller,
+					executor);
+			executor.postControl(new Runnable() {
+				@Override
+				public void run() {
+					listener.connected(channel);
+				}
+			});
+			return true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[ShmBroker " + this.getName() + "]";
+	}
+
+}
@@ -0,0 +1,204 @@
+package event.shm;
+
+import java.nio.ByteBuffer;
+
+import event.given.Broker;
+import event.given.Executor;
+import event.queue.RequestChannel;
+
+/**
+ * Canal entre deux processus sur une mémoire partagée (ShmSegment), avec la
+ * sémantique de CChannel : les requêtes et leurs vérifications sont celles de
+ * RequestChannel, le canal ne donne que les transferts sur les rings.
+ *
+ * Les bytes passent par les rings du segment, sans appel système. Lorsque le
+ * ring à lire est vide (ou le ring à écrire plein), la file de requêtes est
+ * mise en pause et une surveillance est confiée au ShmPoller, qui reprendra la
+ * file lorsque le ring aura bougé.
+ *
+ * Comme pour CChannel, le canal se déconnecte lorsque le canal distant est
+ * déconnecté et qu'il n'y a plus rien à lire.
+ */
+public class ShmChannel extends RequestChannel {
+
+	private ShmSegment segment;
+	// côté de ce canal dans le segment, et côté distant
+	private int side, remote;
+	private SharedRing in, out;
+	private ShmPoller poller;
+	private int port;
+	private String remoteName;
+	private volatile boolean disconnected = false;
+
+	/*
+	 * Surveillances préallouées : le ring a bougé ou le canal distant s'est
+	 * déconnecté, on reprend la file correspondante
+	 */
+	private ShmPoller.Watch readWatch = new ShmPoller.Watch() {
+		@Override
+		public boolean poll() {
+			if (disconnected)
+				return true;
+			if (in.available() == 0 && !segment.closed(remote))
+				return false;
+			post(readRequests.resume());
+			return true;
+		}
+	};
+	private ShmPoller.Watch writeWatch = new ShmPoller.Watch() {
+		@Override
+		public boolean poll() {
+			if (disconnected)
+				return true;
+			if (out.remaining() == 0 && !segment.closed(remote))
+				return false;
+			post(writeRequests.resume());
+			return true;
+		}
+	};
+
+	/**
+	 * @param broker     : Broker parent
+	 * @param port       : port de communication
+	 * @param remoteName : nom du broker distant
+	 * @param segment    : le segment de la connexion
+	 * @param side       : le côté de ce canal (ShmSegment.CONNECTOR ou
+	 *                   ShmSegment.ACCEPTOR)
+	 * @param poller     : le poller qui surveille les rings
+	 * @param executor   : la pompe du canal
+	 */
+	ShmChannel(Broker broker, int port, String remoteName, ShmSegment segment, int side, ShmPoller poller,
+			Executor executor) {
+		super(broker, executor);
+		this.port = port;
+		this.remoteName = remoteName;
+		this.segment = segment;
+		this.side = side;
+		this.remote = 1 - side;
+		this.in = segment.ring(remote);
+		this.out = segment.ring(side);
+		this.poller = poller;
+	}
+
+	@Override
+	public String getRemoteName() {
+		return remoteName;
+	}
+
+	@Override
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	protected long push(byte[] bytes, int offset, int length) {
+		return out.push(bytes, offset, length);
+	}
+
+	@Override
+	protected long push(ByteBuffer src) {
+		return out.push(src);
+	}
+
+	@Override
+	protected long push(ByteBuffer[] srcs, int offset, int length) {
+		int written = 0;
+		for (int i = offset; i < offset + length; i++) {
+			written += out.push(srcs[i]);
+			if (srcs[i].hasRemaining())
+				break;
+		}
+		return written;
+	}
+
+	@Override
+	protected long pull(byte[] bytes, int offset, int length) {
+		return in.pull(bytes, offset, length);
+	}
+
+	@Override
+	protected long pull(ByteBuffer dst) {
+		return in.pull(dst);
+	}
+
+	@Override
+	protected long pull(ByteBuffer[] dsts, int offset, int length) {
+		int read = 0;
+		for (int i = offset; i < offset + length; i++) {
+			read += in.pull(dsts[i]);
+			if (dsts[i].hasRemaining())
+				break;
+		}
+		return read;
+	}
+
+	/*
+	 * Une écriture ne peut plus aboutir dès que le canal distant est déconnecté,
+	 * une lecture lorsqu'en plus le ring est vide
+	 */
+	@Override
+	protected boolean writeEnded() {
+		return segment.closed(remote);
+	}
+
+	@Override
+	protected boolean readEnded() {
+		return in.available() == 0 && segment.closed(remote);
+	}
+
+	/*
+	 * Le ring ne peut pas avancer : sa surveillance est confiée au poller, qui
+	 * reprendra la file
+	 */
+	@Override
+	protected void awaitWritable() {
+		poller.watch(writeWatch);
+	}
+
+	@Override
+	protected void awaitReadable() {
+		poller.watch(readWatch);
+	}
+
+	/**
+	 * Déconnecte le canal : le canal distant peut encore lire ce qui a été
+	 * écrit, les requêtes en pause sont reprises pour être abandonnées.
+	 *
+	 * La projection du segment est ensuite défaite en deux temps : une tâche de
+	 * la pompe passe après la requête en cours (les suivantes voient la
+	 * déconnexion), puis une surveillance du poller passe entre deux
+	 * interrogations (les surveillances du canal voient aussi la déconnexion).
+	 */
+	@Override
+	public synchronized void disconnect() {
+		if (disconnected)
+			return;
+		disconnected = true;
+		stopIdleTimeout();
+		segment.close(side);
+		resumeRequests();
+		post(new Runnable() {
+			@Override
+			public void run() {
+				poller.watch(new ShmPoller.Watch() {
+					@Override
+					public boolean poll() {
+						segment.unmap();
+						return true;
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public boolean disconnected() {
+		return disconnected;
+	}
+
+	@Override
+	public String toString() {
+		return "ShmChannel[" + this.getBroker().getName() + ":" + port + "]-[" + remoteName + "]";
+	}
+
+}
@@ -0,0 +1,127 @@
+package event.shm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread de surveillance des rings partagés : un processus ne peut pas
+ * réveiller un thread d'un autre processus sans appel système, on interroge
+ * donc la mémoire.
+ *
+ * Un canal qui ne peut plus avancer (ring vide ou plein) confie une
+ * surveillance au poller, qui l'interroge jusqu'à ce qu'elle aboutisse (elle
+ * reposte alors la file du canal dans sa pompe). Entre deux tours sans
+ * résultat, le poller attend de plus en plus longtemps : quelques tours actifs
+ * (onSpinWait), puis des yield, puis des parkNanos doublés jusqu'à maxPark.
+ * Sans surveillance, il dort jusqu'à la prochaine.
+ */
+public class ShmPoller extends Thread {
+
+	// Valeurs par défaut de l'attente entre deux tours ; tourner à vide sur une
+	// machine à un seul processeur retarderait le thread attendu
+	public static final int DEFAULT_SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+	public static final int DEFAULT_YIELDS = 100;
+	public static final long DEFAULT_MAX_PARK = 100_000;
+
+	/**
+	 * Surveillance, interrogée dans le poller
+	 */
+	interface Watch {
+		/**
+		 * @return true si la surveillance a abouti et doit être retirée
+		 */
+		boolean poll();
+	}
+
+	// surveillances ajoutées par les autres threads
+	private ConcurrentLinkedQueue<Watch> added = new ConcurrentLinkedQueue<>();
+	// surveillances en cours, manipulées uniquement par le poller
+	private ArrayList<Watch> watches = new ArrayList<>();
+	// vrai si le poller dort sans échéance
+	private volatile boolean idle = false;
+	private volatile boolean closed = false;
+	private int spins, yields;
+	private long maxPark;
+
+	public ShmPoller(String name) {
+		this(name, DEFAULT_SPINS, DEFAULT_YIELDS, DEFAULT_MAX_PARK);
+	}
+
+	/**
+	 * Crée un poller démon, non démarré.
+	 *
+	 * @param name    : nom du thread
+	 * @param spins   : nombre de tours actifs avant les yield
+	 * @param yields  : nombre de yield avant les parkNanos
+	 * @param maxPark : attente maximale entre deux tours, en nanosecondes
+	 */
+	public ShmPoller(String name, int spins, int yields, long maxPark) {
+		super(name);
+		setDaemon(true);
+		this.spins = spins;
+		this.yields = yields;
+		this.maxPark = maxPark;
+	}
+
+	/**
+	 * Ajoute une surveillance. Thread-safe.
+	 */
+	void watch(Watch watch) {
+		added.add(watch);
+		if (idle)
+			LockSupport.unpark(this);
+	}
+
+	public void shutdown() {
+		closed = true;
+		LockSupport.unpark(this);
+	}
+
+	@Override
+	public void run() {
+		int step = 0;
+		long park = 1000;
+		while (!closed) {
+			Watch watch;
+			while ((watch = added.poll()) != null)
+				watches.add(watch);
+			boolean progress = false;
+			Iterator<Watch> it = watches.iterator();
+			while (it.hasNext()) {
+				boolean done;
+				try {
+					done = it.next().poll();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					done = true;
+				}
+				if (done) {
+					it.remove();
+					progress = true;
+				}
+			}
+			if (progress) {
+				step = 0;
+				park = 1000;
+			} else if (watches.isEmpty()) {
+				idle = true;
+				if (added.isEmpty() && !closed)
+					LockSupport.park(this);
+				idle = false;
+				step = 0;
+				park = 1000;
+			} else if (step < spins) {
+				step++;
+				Thread.onSpinWait();
+			} else if (step < spins + yields) {
+				step++;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(park);
+				park = Math.min(2 * park, maxPark);
+			}
+		}
+	}
+}
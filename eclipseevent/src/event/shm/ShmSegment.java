@@ -0,0 +1,173 @@
+package event.shm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fichier projeté en mémoire d'une connexion : un en-tête et deux rings, un
+ * par sens. Le ring 0 est écrit par le côté qui se connecte, le ring 1 par le
+ * côté qui accepte.
+ *
+ * En-tête : [magic] [capacité] [acceptée] [fermée côté connect] [fermée côté
+ * accept] [longueur du nom] [nom du broker qui se connecte]. Les drapeaux sont
+ * publiés en release et lus en acquire.
+ *
+ * La projection est défaite par unmap(), par Unsafe.invokeCleaner lu par
+ * réflexion : le module ne dépend pas de jdk.unsupported. S'il n'est pas
+ * disponible, elle est rendue par le GC.
+ */
+class ShmSegment {
+
+	static final int CONNECTOR = 0, ACCEPTOR = 1;
+	static final int MAX_NAME_LENGTH = 200;
+
+	private static final int MAGIC = 0x45564d31;
+	private static final int HEADER_SIZE = 256;
+	private static final int MAGIC_INDEX = 0, CAPACITY_INDEX = 4, ACCEPTED_INDEX = 8, CLOSED_INDEX = 12,
+			NAME_LENGTH_INDEX = 20, NAME_INDEX = 24;
+
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private MappedByteBuffer memory;
+	private int capacity;
+
+	private ShmSegment(MappedByteBuffer memory, int capacity) {
+		this.memory = memory;
+		this.capacity = capacity;
+	}
+
+	private static int size(int capacity) {
+		return HEADER_SIZE + 2 * SharedRing.size(capacity);
+	}
+
+	/**
+	 * Crée le fichier d'une nouvelle connexion et le projette.
+	 *
+	 * @param path     : le fichier, qui ne doit pas exister
+	 * @param capacity : la capacité de chaque ring, puissance de deux
+	 * @param name     : le nom du broker qui se connecte
+	 * @throws IOException si le fichier ne peut pas être créé
+	 */
+	static ShmSegment create(Path path, int capacity, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NAME_LENGTH)
+			throw new IllegalArgumentException("ShmSegment : name too long");
+		MappedByteBuffer memory;
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			memory = file.map(FileChannel.MapMode.READ_WRITE, 0, size(capacity));
+		}
+		memory.order(ByteOrder.nativeOrder());
+		memory.putInt(CAPACITY_INDEX, capacity);
+		memory.putInt(NAME_LENGTH_INDEX, bytes.length);
+		memory.put(NAME_INDEX, bytes);
+		INTS.setRelease(memory, MAGIC_INDEX, MAGIC);
+		return new ShmSegment(memory, capacity);
+	}
+
+	/**
+	 * Projette le fichier d'une connexion existante.
+	 *
+	 * @param path : le fichier
+	 * @throws IOException si le fichier ne peut pas être lu ou n'est pas une
+	 *                     connexion valide
+	 */
+	static ShmSegment open(Path path) throws IOException {
+		MappedByteBuffer memory;
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (file.size() < HEADER_SIZE)
+				throw new IOException("ShmSegment : truncated " + path);
+			memory = file.map(FileChannel.MapMode.READ_WRITE, 0, file.size());
+		}
+		memory.order(ByteOrder.nativeOrder());
+		int capacity = memory.getInt(CAPACITY_INDEX);
+		if ((int) INTS.getAcquire(memory, MAGIC_INDEX) != MAGIC || Integer.bitCount(capacity) != 1
+				|| memory.capacity() != size(capacity))
+			throw new IOException("ShmSegment : invalid " + path);
+		return new ShmSegment(memory, capacity);
+	}
+
+	/**
+	 * @return le nom du broker qui se connecte
+	 */
+	String name() {
+		int length = Math.min(memory.getInt(NAME_LENGTH_INDEX), MAX_NAME_LENGTH);
+		byte[] bytes = new byte[Math.max(length, 0)];
+		memory.get(NAME_INDEX, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	void accept() {
+		INTS.setRelease(memory, ACCEPTED_INDEX, 1);
+	}
+
+	boolean accepted() {
+		return (int) INTS.getAcquire(memory, ACCEPTED_INDEX) != 0;
+	}
+
+	/**
+	 * @param side : le côté qui se déconnecte
+	 */
+	void close(int side) {
+		INTS.setRelease(memory, CLOSED_INDEX + 4 * side, 1);
+	}
+
+	boolean closed(int side) {
+		return (int) INTS.getAcquire(memory, CLOSED_INDEX + 4 * side) != 0;
+	}
+
+	/**
+	 * @param writer : le côté qui écrit dans le ring
+	 * @return le ring du sens donné
+	 */
+	SharedRing ring(int writer) {
+		return new SharedRing(memory, HEADER_SIZE + writer * SharedRing.size(capacity), capacity);
+	}
+
+	/**
+	 * Défait la projection du segment. À n'appeler que lorsque plus aucun
+	 * thread du processus ne touche au segment ni à ses rings : un accès
+	 * ultérieur ferait tomber le processus. Sans effet la seconde fois.
+	 */
+	synchronized void unmap() {
+		MappedByteBuffer mapped = memory;
+		if (mapped == null)
+			return;
+		memory = null;
+		if (INVOKE_CLEANER == null)
+			return;
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, mapped);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// la projection sera rendue par le GC
+		}
+	}
+}
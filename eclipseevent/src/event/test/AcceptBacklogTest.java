@@ -0,0 +1,133 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Executor;
+import event.given.ExecutorGroup;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Acceptors permanents :
+ * - les connexions déjà en attente sont toutes acceptées au premier bind
+ * - deux acceptors sur deux pompes partagent ensuite le port : les connexions
+ * leur sont réparties à tour de rôle, chacune sur la pompe de son acceptor
+ * - après unbind, une connexion attend de nouveau un accept
+ * - une rafale de connexions vers un port lié par CQueueBroker est acceptée
+ * entièrement
+ */
+public class AcceptBacklogTest {
+
+    static final int CONNECTS = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorGroup group = new ExecutorGroup("Backlog", 2);
+        group.start();
+        boolean ok = acceptors(group) && queues(group);
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean acceptors(ExecutorGroup group) throws InterruptedException {
+        CBroker server = new CBroker("BacklogServer", group);
+        CBroker client = new CBroker("BacklogClient", group);
+        CountDownLatch connected = new CountDownLatch(CONNECTS);
+        ConnectListener connectListener = new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                connected.countDown();
+            }
+        };
+        for (int i = 0; i < CONNECTS; i++)
+            client.connect("BacklogServer", 1, connectListener);
+
+        AtomicInteger[] accepted = { new AtomicInteger(), new AtomicInteger() };
+        AtomicInteger misplaced = new AtomicInteger();
+        AcceptListener[] acceptors = new AcceptListener[2];
+        for (int a = 0; a < 2; a++) {
+            Executor executor = group.get(a);
+            AtomicInteger count = accepted[a];
+            acceptors[a] = new AcceptListener() {
+                @Override
+                public void accepted(Channel channel) {
+                    if (channel.getExecutor() != executor || Thread.currentThread() != executor)
+                        misplaced.incrementAndGet();
+                    count.incrementAndGet();
+                }
+            };
+            server.bind(1, server.getBufferCapacity(), executor, acceptors[a]);
+        }
+        // les connexions suivantes vont directement aux acceptors
+        CountDownLatch more = new CountDownLatch(CONNECTS);
+        for (int i = 0; i < CONNECTS; i++)
+            client.connect("BacklogServer", 1, new ConnectListener() {
+                @Override
+                public void connected(Channel channel) {
+                    more.countDown();
+                }
+            });
+        boolean all = connected.await(5, TimeUnit.SECONDS) && more.await(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        System.out.println("acceptors : " + accepted[0].get() + " + " + accepted[1].get() + " connexions, "
+                + misplaced.get() + " hors de leur pompe");
+        boolean balanced = accepted[0].get() == CONNECTS + CONNECTS / 2 && accepted[1].get() == CONNECTS / 2;
+
+        // sans acceptor, une connexion attend un accept
+        boolean unbound = server.unbind(1, acceptors[0]) && server.unbind(1) && !server.unbind(1);
+        CountDownLatch late = new CountDownLatch(1);
+        client.connect("BacklogServer", 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                late.countDown();
+            }
+        });
+        boolean waiting = !late.await(200, TimeUnit.MILLISECONDS);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+            }
+        });
+        boolean served = late.await(5, TimeUnit.SECONDS);
+        return all && balanced && misplaced.get() == 0 && unbound && waiting && served;
+    }
+
+    static boolean queues(ExecutorGroup group) throws InterruptedException {
+        QueueBroker server = new CQueueBroker(group.get(0), new CBroker("BacklogQueueServer", group));
+        QueueBroker client = new CQueueBroker(group.get(0), new CBroker("BacklogQueueClient", group));
+        CountDownLatch accepted = new CountDownLatch(CONNECTS);
+        CountDownLatch connected = new CountDownLatch(CONNECTS);
+        QueueBroker.ConnectListener connectListener = new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        };
+        for (int i = 0; i < CONNECTS; i++)
+            client.connect("BacklogQueueServer", 1, connectListener);
+        boolean bound = server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                accepted.countDown();
+            }
+        });
+        boolean all = accepted.await(5, TimeUnit.SECONDS) && connected.await(5, TimeUnit.SECONDS);
+        boolean rebound = server.unbind(1) && !server.unbind(1) && server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+            }
+        });
+        System.out.println("files : " + (CONNECTS - accepted.getCount()) + " acceptées");
+        return bound && all && rebound;
+    }
+}
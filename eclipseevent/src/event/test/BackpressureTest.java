@@ -0,0 +1,180 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Channel.ReadListener;
+import event.given.Channel.WriteListener;
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Seuils d'écriture face à un lecteur lent :
+ * - un canal dont personne ne lit passe non inscriptible au-delà du seuil
+ * haut, puis le redevient quand le lecteur vide la file
+ * - une file de messages refuse les envois au-delà du seuil haut, et le
+ * producteur reprend sur l'événement d'écriture sans perdre de message
+ */
+public class BackpressureTest {
+
+    static final int LOW = 16 << 10, HIGH = 64 << 10;
+    static final int MESSAGE_SIZE = 1024;
+    static final int MESSAGES = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        boolean ok = channel(executor) && queue(executor);
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean channel(Executor executor) throws InterruptedException {
+        CBroker server = new CBroker("BackpressureServer", executor);
+        CBroker client = new CBroker("BackpressureClient", executor);
+        Channel[] pair = new Channel[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                pair[0] = channel;
+                connected.countDown();
+            }
+        });
+        client.connect("BackpressureServer", 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                pair[1] = channel;
+                connected.countDown();
+            }
+        });
+        connected.await();
+        Channel writer = pair[1], reader = pair[0];
+        writer.setWatermarks(LOW, HIGH);
+        CountDownLatch writable = new CountDownLatch(1);
+        AtomicInteger transitions = new AtomicInteger();
+        writer.setWritabilityListener(new Channel.WritabilityListener() {
+            @Override
+            public void writabilityChanged(Channel channel, boolean isWritable) {
+                transitions.incrementAndGet();
+                if (isWritable)
+                    writable.countDown();
+            }
+        });
+
+        // personne ne lit : les écritures s'accumulent
+        byte[] chunk = new byte[MESSAGE_SIZE];
+        WriteListener ignore = new WriteListener() {
+            @Override
+            public void written(byte[] bytes, int offset, int length, int written) {
+            }
+        };
+        int writes = 0;
+        while (writer.isWritable()) {
+            writer.write(chunk, 0, chunk.length, ignore);
+            writes++;
+        }
+        // la pompe a pu vider quelques écritures dans le buffer du canal
+        boolean bounded = writes <= HIGH / MESSAGE_SIZE + 4;
+
+        byte[] sink = new byte[4096];
+        reader.read(sink, 0, sink.length, new ReadListener() {
+            @Override
+            public void read(byte[] bytes) {
+                reader.read(sink, 0, sink.length, this);
+            }
+        });
+        boolean resumed = writable.await(10, TimeUnit.SECONDS);
+        System.out.println("canal : " + writes + " écritures avant le seuil haut, " + transitions.get()
+                + " changements d'état");
+        return bounded && resumed && transitions.get() == 2;
+    }
+
+    static boolean queue(Executor executor) throws InterruptedException {
+        QueueBroker server = new CQueueBroker(executor, new CBroker("BackpressureQueueServer", executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker("BackpressureQueueClient", executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect("BackpressureQueueServer", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        MessageQueue sender = queues[1], receiver = queues[0];
+        sender.setWatermarks(LOW, HIGH);
+
+        // le producteur envoie jusqu'au refus, puis reprend sur l'événement
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        AtomicInteger maxPending = new AtomicInteger();
+        Runnable produce = new Runnable() {
+            @Override
+            public void run() {
+                while (sent.get() < MESSAGES) {
+                    byte[] message = new byte[MESSAGE_SIZE];
+                    message[0] = (byte) sent.get();
+                    if (!sender.send(message)) {
+                        refused.incrementAndGet();
+                        return;
+                    }
+                    if (sender.pendingBytes() > maxPending.get())
+                        maxPending.set((int) sender.pendingBytes());
+                    sent.incrementAndGet();
+                }
+            }
+        };
+        sender.setWritabilityListener(new MessageQueue.WritabilityListener() {
+            @Override
+            public void writabilityChanged(MessageQueue queue, boolean writable) {
+                if (writable)
+                    produce.run();
+            }
+        });
+        executor.post(produce);
+
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        AtomicInteger errors = new AtomicInteger();
+        Thread.sleep(200);
+        receiver.setListener(new MessageQueue.Listener() {
+            int next = 0;
+
+            @Override
+            public void received(byte[] msg) {
+                if (msg.length != MESSAGE_SIZE || msg[0] != (byte) next++)
+                    errors.incrementAndGet();
+                done.countDown();
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+        boolean completed = done.await(10, TimeUnit.SECONDS);
+        System.out.println("file : " + sent.get() + " messages, " + refused.get() + " refus, au plus "
+                + maxPending.get() + " octets en attente");
+        return completed && errors.get() == 0 && refused.get() > 0
+                && maxPending.get() <= HIGH + Integer.BYTES + MESSAGE_SIZE;
+    }
+}
@@ -0,0 +1,281 @@
+package event.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.blocking.BlockingMessageQueue;
+import event.blocking.ChannelInputStream;
+import event.blocking.ChannelOutputStream;
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Façades bloquantes, un thread par connexion :
+ * - un serveur d'écho sur flux sert CLIENTS clients en parallèle, chacun
+ * vérifiant ce qui lui revient ; la déconnexion d'un client termine le flux
+ * de son thread serveur
+ * - la pompe reste libre pendant que tous ces threads sont bloqués
+ * - un ping-pong entre deux threads sur des files bloquantes, puis la
+ * fermeture d'un côté débloque le receive() de l'autre
+ * - une rafale reçue dans une file bloquante de petite capacité, fermée par
+ * l'émetteur avant la lecture, est lue en entier avant la fin de la file
+ * - un appel bloquant depuis la pompe est refusé
+ */
+public class BlockingFacadeTest {
+
+    static final int CLIENTS = Integer.getInteger("clients", 200);
+    static final int BYTES = 64 << 10;
+    static final int CHUNK = 1024;
+    static final int PINGS = 1000;
+    static final int BURST = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        boolean ok = streams(executor) && queues(executor) && burst(executor);
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean streams(Executor executor) throws InterruptedException {
+        CBroker server = new CBroker("BlockingServer", executor);
+        CBroker client = new CBroker("BlockingClient", executor);
+        // l'écho bloquant n'avance que si un bloc entier tient dans le canal
+        server.setBufferCapacity(CHUNK);
+        client.setBufferCapacity(CHUNK);
+        AtomicInteger ended = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch served = new CountDownLatch(CLIENTS);
+        server.bind(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (InputStream in = new ChannelInputStream(channel);
+                                OutputStream out = new ChannelOutputStream(channel)) {
+                            byte[] buffer = new byte[4096];
+                            int n;
+                            while ((n = in.read(buffer, 0, buffer.length)) >= 0)
+                                out.write(buffer, 0, n);
+                            ended.incrementAndGet();
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                        served.countDown();
+                    }
+                });
+            }
+        });
+
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        for (int c = 0; c < CLIENTS; c++) {
+            int seed = c;
+            client.connect("BlockingServer", 1, new ConnectListener() {
+                @Override
+                public void connected(Channel channel) {
+                    thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!echo(channel, seed))
+                                errors.incrementAndGet();
+                            done.countDown();
+                        }
+                    });
+                }
+            });
+        }
+
+        // la pompe répond pendant que les threads attendent
+        Thread.sleep(50);
+        CountDownLatch pump = new CountDownLatch(1);
+        long start = System.nanoTime();
+        executor.post(new Runnable() {
+            @Override
+            public void run() {
+                pump.countDown();
+            }
+        });
+        boolean free = pump.await(1, TimeUnit.SECONDS);
+        long micros = (System.nanoTime() - start) / 1000;
+
+        boolean completed = done.await(60, TimeUnit.SECONDS) && served.await(10, TimeUnit.SECONDS);
+        System.out.println("flux : " + (CLIENTS - done.getCount()) + " clients servis, " + ended.get()
+                + " fins de flux, " + errors.get() + " erreurs, pompe libre en " + micros + " µs");
+        return completed && free && ended.get() == CLIENTS && errors.get() == 0;
+    }
+
+    /**
+     * Envoie BYTES bytes par blocs et vérifie chaque bloc renvoyé, puis ferme
+     * la connexion
+     */
+    static boolean echo(Channel channel, int seed) {
+        byte[] sent = new byte[CHUNK];
+        byte[] back = new byte[CHUNK];
+        Random random = new Random(seed);
+        try (InputStream in = new ChannelInputStream(channel);
+                OutputStream out = new ChannelOutputStream(channel)) {
+            for (int total = 0; total < BYTES; total += CHUNK) {
+                random.nextBytes(sent);
+                out.write(sent);
+                int read = 0;
+                while (read < CHUNK) {
+                    int n = in.read(back, read, CHUNK - read);
+                    if (n < 0)
+                        return false;
+                    read += n;
+                }
+                if (!Arrays.equals(sent, back))
+                    return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static boolean queues(Executor executor) throws InterruptedException {
+        MessageQueue[] queues = connect(executor, "BlockingQueue");
+        BlockingMessageQueue echo = new BlockingMessageQueue(queues[0]);
+        BlockingMessageQueue ping = new BlockingMessageQueue(queues[1]);
+
+        AtomicInteger echoed = new AtomicInteger();
+        CountDownLatch unblocked = new CountDownLatch(1);
+        Thread echoer = thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] msg;
+                    while ((msg = echo.receive()) != null) {
+                        echo.send(msg);
+                        echoed.incrementAndGet();
+                    }
+                    unblocked.countDown();
+                } catch (IOException e) {
+                }
+            }
+        });
+        int errors = 0;
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < PINGS; i++) {
+                byte[] msg = { (byte) i, (byte) (i >> 8) };
+                ping.send(msg);
+                if (!Arrays.equals(msg, ping.receive()))
+                    errors++;
+            }
+        } catch (IOException e) {
+            errors++;
+        }
+        long micros = (System.nanoTime() - start) / 1000 / PINGS;
+        ping.close();
+        boolean closed = unblocked.await(5, TimeUnit.SECONDS);
+        echoer.join(1000);
+
+        // refusé depuis la pompe
+        AtomicInteger refused = new AtomicInteger();
+        CountDownLatch tried = new CountDownLatch(1);
+        executor.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ping.receive();
+                } catch (IllegalStateException | IOException e) {
+                    refused.incrementAndGet();
+                }
+                tried.countDown();
+            }
+        });
+        tried.await();
+        System.out.println("files : " + echoed.get() + " échos, " + errors + " erreurs, " + micros
+                + " µs par aller-retour, fermeture vue : " + closed);
+        return errors == 0 && echoed.get() == PINGS && closed && refused.get() == 1;
+    }
+
+    /**
+     * Envoie BURST messages puis ferme la file une fois tout écrit ; la file
+     * bloquante du récepteur, de capacité bien inférieure, n'est lue qu'après
+     * la fermeture : la remise est mise en pause, et la fin de la file ne vient
+     * qu'après le dernier message
+     */
+    static boolean burst(Executor executor) throws InterruptedException {
+        MessageQueue[] queues = connect(executor, "BlockingBurst");
+        BlockingMessageQueue sink = new BlockingMessageQueue(queues[0], 1024);
+        for (int i = 0; i < BURST; i++) {
+            byte[] msg = new byte[100];
+            Arrays.fill(msg, (byte) i);
+            queues[1].send(msg);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queues[1].pendingBytes() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        queues[1].close();
+        Thread.sleep(50);
+
+        int received = 0, errors = 0;
+        try {
+            byte[] msg;
+            while ((msg = sink.receive()) != null) {
+                if (msg.length != 100 || msg[0] != (byte) received || msg[99] != (byte) received)
+                    errors++;
+                received++;
+            }
+        } catch (IOException e) {
+            errors++;
+        }
+        System.out.println("rafale : " + received + " messages reçus sur " + BURST + " avant la fin de la file, "
+                + errors + " erreurs");
+        return received == BURST && errors == 0;
+    }
+
+    /**
+     * @return les deux files d'une connexion entre deux brokers nommés d'après
+     *         prefix : celle du serveur, puis celle du client
+     */
+    static MessageQueue[] connect(Executor executor, String prefix) throws InterruptedException {
+        QueueBroker server = new CQueueBroker(executor, new CBroker(prefix + "Server", executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker(prefix + "Client", executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect(prefix + "Server", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        return queues;
+    }
+
+    static Thread thread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,147 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Channel.ReadListener;
+import event.given.Channel.WriteListener;
+import event.given.Executor;
+import event.queue.CBroker;
+
+/**
+ * Débit d'un canal en fonction de la capacité de ses buffers, pour deux
+ * profils : transfert en masse (écritures de 64 Ko) et RPC bavard (ping-pong
+ * de 64 octets).
+ */
+public class CapacityBenchmark {
+
+    static final int BULK_BYTES = 64 << 20;
+    static final int BULK_CHUNK = 64 << 10;
+    static final int RPC_SIZE = 64;
+    static final int RPC_ROUNDS = 50_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        int[] capacities = { 64, 256, 1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10 };
+        for (int capacity : capacities) {
+            CBroker server = new CBroker("CapacityServer-" + capacity, executor);
+            CBroker client = new CBroker("CapacityClient-" + capacity, executor);
+            server.setBufferCapacity(capacity);
+            client.setBufferCapacity(capacity);
+            Channel[] pair = connect(server, client);
+            double bulk = bulk(pair[1], pair[0]);
+            double rpc = pingPong(pair[1], pair[0]);
+            System.out.printf("capacité %7d : masse %8.1f Mo/s | ping-pong %,10.0f allers-retours/s%n", capacity, bulk,
+                    rpc);
+        }
+        System.exit(0);
+    }
+
+    static Channel[] connect(CBroker server, CBroker client) throws InterruptedException {
+        Channel[] pair = new Channel[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                pair[0] = channel;
+                connected.countDown();
+            }
+        });
+        client.connect(server.getName(), 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                pair[1] = channel;
+                connected.countDown();
+            }
+        });
+        connected.await();
+        return pair;
+    }
+
+    /**
+     * @return le débit en Mo/s pour BULK_BYTES écrits par morceaux de BULK_CHUNK
+     */
+    static double bulk(Channel writer, Channel reader) throws InterruptedException {
+        byte[] chunk = new byte[BULK_CHUNK];
+        byte[] sink = new byte[BULK_CHUNK];
+        CountDownLatch done = new CountDownLatch(1);
+        long t0 = System.nanoTime();
+        reader.read(sink, 0, sink.length, new ReadListener() {
+            int received = 0;
+
+            @Override
+            public void read(byte[] bytes) {
+                received += bytes.length;
+                if (received == BULK_BYTES)
+                    done.countDown();
+                else
+                    reader.read(sink, 0, sink.length, this);
+            }
+        });
+        writer.write(chunk, 0, chunk.length, new WriteListener() {
+            int sent = 0;
+
+            @Override
+            public void written(byte[] bytes, int offset, int length, int written) {
+                sent += written;
+                if (sent == BULK_BYTES)
+                    return;
+                int next = sent % BULK_CHUNK;
+                writer.write(chunk, next, BULK_CHUNK - next, this);
+            }
+        });
+        done.await();
+        long t1 = System.nanoTime();
+        return BULK_BYTES / (1024.0 * 1024.0) * 1e9 / (t1 - t0);
+    }
+
+    /**
+     * @return le nombre d'allers-retours de RPC_SIZE octets par seconde
+     */
+    static double pingPong(Channel client, Channel server) throws InterruptedException {
+        byte[] request = new byte[RPC_SIZE];
+        byte[] echo = new byte[RPC_SIZE];
+        byte[] response = new byte[RPC_SIZE];
+        CountDownLatch done = new CountDownLatch(1);
+        WriteListener writeAll = new WriteListener() {
+            @Override
+            public void written(byte[] bytes, int offset, int length, int written) {
+            }
+        };
+        server.read(echo, 0, RPC_SIZE, new ReadListener() {
+            int received = 0;
+
+            @Override
+            public void read(byte[] bytes) {
+                server.write(bytes, 0, bytes.length, writeAll);
+                received += bytes.length;
+                if (received < RPC_ROUNDS * RPC_SIZE)
+                    server.read(echo, 0, RPC_SIZE, this);
+            }
+        });
+        long t0 = System.nanoTime();
+        client.read(response, 0, RPC_SIZE, new ReadListener() {
+            int received = 0;
+
+            @Override
+            public void read(byte[] bytes) {
+                received += bytes.length;
+                if (received == RPC_ROUNDS * RPC_SIZE) {
+                    done.countDown();
+                    return;
+                }
+                if (received % RPC_SIZE == 0)
+                    client.write(request, 0, RPC_SIZE, writeAll);
+                client.read(response, 0, RPC_SIZE - received % RPC_SIZE, this);
+            }
+        });
+        client.write(request, 0, RPC_SIZE, writeAll);
+        done.await();
+        long t1 = System.nanoTime();
+        return RPC_ROUNDS * 1e9 / (t1 - t0);
+    }
+}
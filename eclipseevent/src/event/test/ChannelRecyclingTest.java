@@ -0,0 +1,107 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Channel.WriteListener;
+import event.given.CircularBufferEvent;
+import event.given.Executor;
+import event.queue.CBroker;
+import event.queue.CChannel;
+
+/**
+ * Recyclage des tableaux des buffers des canaux :
+ * - une fois les deux canaux d'une paire déconnectés, leurs tableaux sont
+ * rendus au pool du broker et repris par la connexion suivante : une
+ * connexion de courte durée n'alloue plus ses buffers
+ * - les buffers d'un canal recyclé restent vides et sans capacité, et le canal
+ * refuse toute écriture : une référence périmée n'atteint pas la connexion
+ * suivante
+ */
+public class ChannelRecyclingTest {
+
+    static final int CAPACITY = 64 << 10;
+    static final int CYCLES = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        CBroker server = new CBroker("RecyclingServer", executor);
+        CBroker client = new CBroker("RecyclingClient", executor);
+        server.setBufferCapacity(CAPACITY);
+        client.setBufferCapacity(CAPACITY);
+        server.bind(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                channel.disconnect();
+            }
+        });
+
+        // un premier passage remplit le pool
+        cycles(client, 100);
+        long before = allocated(executor);
+        Channel last = cycles(client, CYCLES);
+        long perCycle = (allocated(executor) - before) / CYCLES;
+        // sans mesure des allocations, seul le détachement est vérifié
+        boolean measured = ThreadStats.allocationAvailable();
+        if (measured)
+            System.out.println(perCycle + " octets alloués par connexion, pour deux buffers de " + CAPACITY + " octets");
+        else
+            System.out.println("Mesure des allocations par thread indisponible");
+
+        // la dernière paire a rendu ses tableaux
+        Thread.sleep(100);
+        CircularBufferEvent stale = ((CChannel) last).getInBuffer();
+        boolean detached = stale.capacity() == 0 && stale.empty() && stale.full()
+                && stale.push(new byte[16], 0, 16) == 0;
+        boolean refused = false;
+        try {
+            last.write(new byte[16], 0, 16, new WriteListener() {
+                @Override
+                public void written(byte[] bytes, int offset, int length, int written) {
+                }
+            });
+        } catch (IllegalStateException e) {
+            refused = true;
+        }
+        System.out.println("canal recyclé : buffers détachés " + detached + ", écriture refusée " + refused);
+
+        boolean ok = (!measured || perCycle < CAPACITY / 8) && detached && refused;
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Connecte puis déconnecte count fois, une connexion à la fois
+     * 
+     * @return le dernier canal connecté
+     */
+    static Channel cycles(CBroker client, int count) throws InterruptedException {
+        Channel[] last = new Channel[1];
+        for (int i = 0; i < count; i++) {
+            CountDownLatch connected = new CountDownLatch(1);
+            client.connect("RecyclingServer", 1, new ConnectListener() {
+                @Override
+                public void connected(Channel channel) {
+                    channel.disconnect();
+                    last[0] = channel;
+                    connected.countDown();
+                }
+            });
+            connected.await(5, TimeUnit.SECONDS);
+        }
+        return last[0];
+    }
+
+    /**
+     * @return les octets alloués par ce thread (qui crée les canaux au connect)
+     *         et par la pompe
+     */
+    static long allocated(Executor executor) {
+        return ThreadStats.allocatedBytes(Thread.currentThread()) + ThreadStats.allocatedBytes(executor);
+    }
+}
@@ -0,0 +1,153 @@
+package event.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CMessageQueue;
+import event.queue.CQueueBroker;
+
+/**
+ * Envoi par lots et mode coalescent :
+ * - un lot de messages de tailles variées arrive entier et dans l'ordre
+ * - sous le seuil et avec une longue attente, rien ne part ; le message qui
+ * fait passer le seuil écrit tout le tableau d'un coup
+ * - sans attente, la tâche postée vide le tableau à la fin du tour de pompe
+ * - avec une attente, le tableau part à son échéance, pas avant
+ */
+public class CoalescingTest {
+
+    static final int BATCH = 500;
+    static final int THRESHOLD = 4096;
+    static final int MESSAGE_SIZE = 100;
+    static final int FRAME_SIZE = Integer.BYTES + MESSAGE_SIZE;
+    static final long LINGER = 200;
+
+    // messages reçus dans l'ordre : chaque message porte son numéro
+    static AtomicInteger received = new AtomicInteger();
+    static AtomicInteger errors = new AtomicInteger();
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        QueueBroker server = new CQueueBroker(executor, new CBroker("CoalescingServer", executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker("CoalescingClient", executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect("CoalescingServer", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        CMessageQueue sender = (CMessageQueue) queues[1];
+        queues[0].setListener(new MessageQueue.Listener() {
+            @Override
+            public void received(byte[] msg) {
+                int n = received.get();
+                if (msg.length != size(n) || (msg.length > 0 && msg[0] != (byte) n)
+                        || (msg.length > 1 && msg[1] != (byte) (n >> 8)))
+                    errors.incrementAndGet();
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+        int sent = 0;
+
+        // lot, sans coalescence
+        List<byte[]> batch = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++)
+            batch.add(message(sent++));
+        sender.send(batch);
+        boolean batched = await(sent, 5000);
+        System.out.println("lot : " + received.get() + " messages reçus, erreurs : " + errors.get());
+
+        // seuil, avec une attente qui ne déclenche pas pendant le test
+        sender.setCoalescing(THRESHOLD, 60_000);
+        int below = (THRESHOLD + FRAME_SIZE - 1) / FRAME_SIZE - 1;
+        for (int i = 0; i < below; i++)
+            sender.send(message(sent++));
+        Thread.sleep(300);
+        boolean held = received.get() == BATCH && sender.pendingBytes() > 0;
+        sender.send(message(sent++));
+        boolean flushed = await(sent, 2000);
+        System.out.println("seuil : " + below + " messages gardés " + held + ", écrits au seuil " + flushed);
+        // un message sous le seuil : désactiver le mode l'écrit
+        sender.send(message(sent++));
+        Thread.sleep(100);
+        held &= received.get() == sent - 1;
+        sender.setCoalescing(0);
+        boolean disabled = await(sent, 2000);
+
+        // vidage en fin de tour de pompe
+        sender.setCoalescing(1 << 20);
+        for (int i = 0; i < 10; i++)
+            sender.send(message(sent++));
+        boolean endOfTurn = await(sent, 2000);
+        System.out.println("fin de tour : écrits " + endOfTurn);
+
+        // attente maximale
+        sender.setCoalescing(1 << 20, LINGER);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            sender.send(message(sent++));
+        Thread.sleep(LINGER / 2);
+        boolean early = received.get() == sent;
+        boolean lingered = await(sent, 5000);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("attente de " + LINGER + " ms : écrits après " + millis + " ms");
+
+        boolean ok = batched && held && flushed && disabled && endOfTurn && !early && lingered
+                && millis >= LINGER && errors.get() == 0;
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Taille du message numéro n : variée dans le lot, fixe ensuite
+     */
+    static int size(int n) {
+        return n < BATCH ? (n * 37) % 300 : MESSAGE_SIZE;
+    }
+
+    static byte[] message(int n) {
+        byte[] message = new byte[size(n)];
+        if (message.length > 0)
+            message[0] = (byte) n;
+        if (message.length > 1)
+            message[1] = (byte) (n >> 8);
+        return message;
+    }
+
+    /**
+     * @return true si count messages sont reçus dans le délai donné, en ms
+     */
+    static boolean await(int count, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (received.get() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        return received.get() >= count;
+    }
+}
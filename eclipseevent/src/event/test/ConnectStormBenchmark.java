@@ -0,0 +1,94 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.ExecutorGroup;
+import event.queue.CBroker;
+
+/**
+ * Tempête de connexions vers un même broker serveur : connexions/s avec 1, 4
+ * et 16 threads clients, tous sur un seul port ou chacun sur le sien. Chaque
+ * port du serveur se réarme dès qu'une connexion est acceptée, et chaque
+ * canal est aussitôt déconnecté.
+ */
+public class ConnectStormBenchmark {
+
+    static final int CONNECTS = 100_000;
+    static final int ROUNDS = 3;
+
+    static int run = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorGroup group = new ExecutorGroup("Storm", Math.max(2, Runtime.getRuntime().availableProcessors()));
+        group.start();
+        int[] clients = { 1, 4, 16 };
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("Round " + round);
+            for (int c : clients) {
+                double shared = run(group, c, false);
+                double striped = run(group, c, true);
+                System.out.printf("%2d clients : un port %,12.0f connexions/s | un port par client %,12.0f connexions/s%n",
+                        c, shared, striped);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return les connexions établies par seconde
+     */
+    static double run(ExecutorGroup group, int clients, boolean portPerClient) throws InterruptedException {
+        run++;
+        CBroker server = new CBroker("StormServer" + run, group);
+        CBroker client = new CBroker("StormClient" + run, group);
+        int perClient = CONNECTS / clients;
+        CountDownLatch done = new CountDownLatch(perClient * clients);
+        int ports = portPerClient ? clients : 1;
+        for (int p = 0; p < ports; p++) {
+            int port = p;
+            server.accept(port, new AcceptListener() {
+                @Override
+                public void accepted(Channel channel) {
+                    server.accept(port, this);
+                    channel.disconnect();
+                }
+            });
+        }
+        ConnectListener connected = new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                channel.disconnect();
+                done.countDown();
+            }
+        };
+
+        Thread[] threads = new Thread[clients];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < clients; t++) {
+            int port = portPerClient ? t : 0;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perClient; i++)
+                        client.connect(server.getName(), port, connected);
+                }
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        for (Thread thread : threads)
+            thread.join();
+        return done.getCount() == 0 ? perClient * clients * 1e9 / elapsed : 0;
+    }
+}
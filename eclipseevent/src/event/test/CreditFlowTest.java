@@ -0,0 +1,112 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CMessageQueue;
+import event.queue.CQueueBroker;
+
+/**
+ * Contrôle de flux par crédits entre deux files :
+ * - sans listener côté réception, l'émetteur n'écrit pas plus que la fenêtre
+ * du récepteur et garde le reste
+ * - agrandir la fenêtre du récepteur libère aussitôt l'émetteur
+ * - une fois le listener posé, tous les messages arrivent, dans l'ordre
+ */
+public class CreditFlowTest {
+
+    static final int MESSAGES = 4000;
+    static final int MESSAGE_SIZE = 1024;
+    static final int FRAME_SIZE = Integer.BYTES + MESSAGE_SIZE;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        QueueBroker server = new CQueueBroker(executor, new CBroker("CreditServer", executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker("CreditClient", executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect("CreditServer", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        CMessageQueue receiver = (CMessageQueue) queues[0];
+        MessageQueue sender = queues[1];
+
+        for (int i = 0; i < MESSAGES; i++) {
+            byte[] message = new byte[MESSAGE_SIZE];
+            message[0] = (byte) i;
+            message[1] = (byte) (i >> 8);
+            sender.send(message);
+        }
+        long total = (long) MESSAGES * FRAME_SIZE;
+        long held = settle(sender);
+        // crédit initial, plus le message qui l'a dépassé
+        boolean bounded = total - held <= CMessageQueue.DEFAULT_RECEIVE_WINDOW + FRAME_SIZE;
+        System.out.println("sans listener : " + (total - held) + " octets écrits, " + held + " gardés");
+
+        receiver.setReceiveWindow(8 << 20);
+        long released = settle(sender);
+        System.out.println("fenêtre de 8 Mo : " + released + " octets gardés");
+
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        AtomicInteger errors = new AtomicInteger();
+        receiver.setListener(new MessageQueue.Listener() {
+            int next = 0;
+
+            @Override
+            public void received(byte[] msg) {
+                if (msg.length != MESSAGE_SIZE || msg[0] != (byte) next || msg[1] != (byte) (next >> 8))
+                    errors.incrementAndGet();
+                next++;
+                done.countDown();
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+        boolean completed = done.await(10, TimeUnit.SECONDS);
+        System.out.println(MESSAGES + " messages, erreurs : " + errors.get());
+
+        boolean ok = bounded && held > 0 && released == 0 && completed && errors.get() == 0;
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * @return les bytes que l'émetteur garde une fois les écritures arrêtées
+     */
+    static long settle(MessageQueue sender) throws InterruptedException {
+        long last = -1;
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(50);
+            long pending = sender.pendingBytes();
+            if (pending == last)
+                return pending;
+            last = pending;
+        }
+        return last;
+    }
+}
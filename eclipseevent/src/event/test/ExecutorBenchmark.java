@@ -0,0 +1,120 @@
+package event.test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import event.given.Executor;
+
+/**
+ * Micro-benchmark du post() de l'Executor : posts/s avec 1, 4 et 16 threads
+ * producteurs, comparé à l'ancienne implémentation (LinkedList +
+ * synchronized/notify).
+ */
+public class ExecutorBenchmark {
+
+    static final int POSTS = 2_000_000;
+    static final int ROUNDS = 3;
+
+    interface Pump {
+        void post(Runnable r);
+    }
+
+    /* Ancienne implémentation de l'Executor, gardée comme référence */
+    static class LockedExecutor extends Thread {
+        List<Runnable> queue = new LinkedList<Runnable>();
+
+        public void run() {
+            Runnable r;
+            while (true) {
+                synchronized (queue) {
+                    while (queue.size() == 0) {
+                        try {
+                            queue.wait();
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                    r = queue.remove(0);
+                }
+                r.run();
+            }
+        }
+
+        public void post(Runnable r) {
+            synchronized (queue) {
+                queue.add(r);
+                queue.notify();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] producers = { 1, 4, 16 };
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("Round " + round);
+            for (int p : producers) {
+                LockedExecutor locked = new LockedExecutor();
+                locked.setDaemon(true);
+                locked.start();
+                double before = run(p, new Pump() {
+                    @Override
+                    public void post(Runnable r) {
+                        locked.post(r);
+                    }
+                });
+
+                Executor executor = new Executor("Executor-bench");
+                executor.setDaemon(true);
+                executor.start();
+                double after = run(p, new Pump() {
+                    @Override
+                    public void post(Runnable r) {
+                        executor.post(r);
+                    }
+                });
+                System.out.printf("%2d producteurs : synchronized %,12.0f posts/s | mpsc %,12.0f posts/s%n", p,
+                        before, after);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Poste POSTS tâches vides réparties sur le nombre de producteurs donné et
+     * attend qu'elles soient toutes exécutées.
+     *
+     * @return le débit en posts par seconde
+     */
+    static double run(int producers, Pump pump) throws InterruptedException {
+        int perProducer = POSTS / producers;
+        CountDownLatch done = new CountDownLatch(producers * perProducer);
+        CountDownLatch start = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < perProducer; j++)
+                        pump.post(task);
+                }
+            });
+            threads[i].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long t1 = System.nanoTime();
+        return (double) producers * perProducer * 1e9 / (t1 - t0);
+    }
+}
@@ -0,0 +1,172 @@
+package event.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Channel.ReadListener;
+import event.given.Channel.WriteListener;
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CChannel;
+import event.queue.CQueueBroker;
+
+/**
+ * Équité de la pompe : latence d'un ping-pong de petits messages entre deux
+ * files, pendant qu'un canal aux buffers de 64 Ko transfère en continu sur la
+ * même pompe. Le canal massif tourne sans quota de bytes par tour, puis avec
+ * le quota par défaut.
+ */
+public class FairnessBenchmark {
+
+    static final int PINGS = 20_000;
+    static final int BULK_CAPACITY = 64 << 10;
+    static final int ROUNDS = 3;
+
+    static int run = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("Round " + round);
+            run(executor, 0);
+            run(executor, CChannel.DEFAULT_TURN_QUOTA);
+        }
+        System.exit(0);
+    }
+
+    static void run(Executor executor, int quota) throws InterruptedException {
+        run++;
+        // canal massif : un écrivain et un lecteur qui se relancent sans fin
+        CBroker bulk = new CBroker("BulkServer" + run, executor);
+        bulk.setBufferCapacity(BULK_CAPACITY);
+        bulk.setTurnQuota(quota);
+        Channel[] pair = connect(bulk, new CBroker("BulkClient" + run, executor), "BulkServer" + run);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicLong transferred = new AtomicLong();
+        byte[] chunk = new byte[BULK_CAPACITY];
+        byte[] sink = new byte[BULK_CAPACITY];
+        pair[1].write(chunk, 0, chunk.length, new WriteListener() {
+            @Override
+            public void written(byte[] bytes, int offset, int length, int written) {
+                if (!stop.get())
+                    pair[1].write(chunk, 0, chunk.length, this);
+            }
+        });
+        pair[0].read(sink, 0, sink.length, new ReadListener() {
+            @Override
+            public void read(byte[] bytes) {
+                transferred.addAndGet(bytes.length);
+                if (!stop.get())
+                    pair[0].read(sink, 0, sink.length, this);
+            }
+        });
+
+        // files bavardes : l'écho renvoie chaque message, le client mesure
+        MessageQueue[] queues = queues(executor);
+        MessageQueue echo = queues[0], client = queues[1];
+        echo.setListener(new MessageQueue.Listener() {
+            @Override
+            public void received(byte[] msg) {
+                echo.send(msg);
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+        long[] latencies = new long[PINGS];
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        client.setListener(new MessageQueue.Listener() {
+            int i = 0;
+            long sent = System.nanoTime();
+
+            @Override
+            public void received(byte[] msg) {
+                long now = System.nanoTime();
+                latencies[i++] = now - sent;
+                if (i == PINGS) {
+                    done.countDown();
+                    return;
+                }
+                sent = now;
+                client.send(msg);
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+        client.send(new byte[32]);
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        stop.set(true);
+        pair[0].disconnect();
+        pair[1].disconnect();
+        echo.close();
+        client.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("quota %6s : ping p50 %,8d µs | p99 %,8d µs | max %,8d µs | massif %,8.1f Mo/s%n",
+                quota == 0 ? "aucun" : (quota >> 10) + " Ko", latencies[PINGS / 2] / 1000,
+                latencies[PINGS * 99 / 100] / 1000, latencies[PINGS - 1] / 1000,
+                transferred.get() / seconds / (1 << 20));
+    }
+
+    static Channel[] connect(CBroker server, CBroker client, String name) throws InterruptedException {
+        Channel[] pair = new Channel[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                pair[0] = channel;
+                connected.countDown();
+            }
+        });
+        client.connect(name, 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                pair[1] = channel;
+                connected.countDown();
+            }
+        });
+        connected.await();
+        return pair;
+    }
+
+    static MessageQueue[] queues(Executor executor) throws InterruptedException {
+        QueueBroker server = new CQueueBroker(executor, new CBroker("ChattyServer" + run, executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker("ChattyClient" + run, executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect("ChattyServer" + run, 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        return queues;
+    }
+}
@@ -0,0 +1,119 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import event.given.Executor;
+import event.given.MessageBuffer;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Compte les allocations de la pompe pendant la réception de messages déjà
+ * écrits dans le buffer du canal : par message, on ne doit plus allouer que le
+ * tableau du message (plus une part amortie des requêtes de lecture), et plus
+ * rien du tout avec un BufferListener dont les buffers reviennent au pool.
+ */
+public class FrameAllocationTest {
+
+    static final int MESSAGES = 20_000;
+    static final int SIZE = 64;
+    // en-tête d'un tableau Java (approximatif) et marge pour les lectures
+    // amorties
+    static final int ARRAY_HEADER = 16, SLACK = 16;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        if (!ThreadStats.allocationAvailable()) {
+            System.out.println("Mesure des allocations par thread indisponible, test sauté");
+            System.out.println("Test passed");
+            System.exit(0);
+        }
+
+        double plain = measure(executor, "Plain", false);
+        System.out.printf("byte[]        : %.1f octets alloués par message de %d octets%n", plain, SIZE);
+        // un premier passage remplit le pool
+        measure(executor, "Warmup", true);
+        double pooled = measure(executor, "Pooled", true);
+        System.out.printf("MessageBuffer : %.1f octets alloués par message de %d octets%n", pooled, SIZE);
+
+        // -1 : réception incomplète
+        boolean ok = plain >= 0 && pooled >= 0 && plain <= SIZE + ARRAY_HEADER + SLACK && pooled <= SLACK;
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * @return les octets alloués par la pompe par message reçu, -1 en cas
+     *         d'échec
+     */
+    static double measure(Executor executor, String name, boolean pooled) throws InterruptedException {
+        CBroker serverBroker = new CBroker("AllocServer" + name, executor);
+        CBroker clientBroker = new CBroker("AllocClient" + name, executor);
+        // tous les messages tiennent dans le buffer : ils sont écrits avant que
+        // la lecture ne commence
+        serverBroker.setBufferCapacity(4 << 20);
+        clientBroker.setBufferCapacity(4 << 20);
+        QueueBroker server = new CQueueBroker(executor, serverBroker);
+        QueueBroker client = new CQueueBroker(executor, clientBroker);
+
+        MessageQueue[] accepted = new MessageQueue[1];
+        CountDownLatch ready = new CountDownLatch(1);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                accepted[0] = queue;
+                ready.countDown();
+            }
+        });
+        client.connect(serverBroker.getName(), 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                byte[] message = new byte[SIZE];
+                for (int i = 0; i < MESSAGES; i++)
+                    queue.send(message);
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        ready.await();
+        Thread.sleep(500);
+
+        CountDownLatch received = new CountDownLatch(MESSAGES);
+        long before = ThreadStats.allocatedBytes(executor);
+        if (pooled) {
+            accepted[0].setListener(new MessageQueue.BufferListener() {
+                @Override
+                public void received(MessageBuffer msg) {
+                    msg.release();
+                    received.countDown();
+                }
+
+                @Override
+                public void closed() {
+                }
+            });
+        } else {
+            accepted[0].setListener(new MessageQueue.Listener() {
+                @Override
+                public void received(byte[] msg) {
+                    received.countDown();
+                }
+
+                @Override
+                public void closed() {
+                }
+            });
+        }
+        if (!received.await(30, TimeUnit.SECONDS))
+            return -1;
+        long after = ThreadStats.allocatedBytes(executor);
+        return (double) (after - before) / MESSAGES;
+    }
+}
@@ -0,0 +1,106 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Channel.ReadListener;
+import event.given.Channel.WriteListener;
+import event.given.Executor;
+import event.queue.CBroker;
+
+/**
+ * Stress des files de requêtes d'un canal : 100 000 écritures en attente,
+ * postées par plusieurs threads hors pompe, sans attendre les précédentes.
+ * Chaque écriture fait un byte (la valeur du thread) : elle est faite en
+ * entier ou pas du tout, on vérifie que chaque thread a bien tout envoyé.
+ */
+public class PipelineStressTest {
+
+    static final int WRITERS = 4;
+    static final int WRITES = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        CBroker server = new CBroker("PipelineServer", executor);
+        CBroker client = new CBroker("PipelineClient", executor);
+        Channel[] pair = new Channel[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                pair[0] = channel;
+                connected.countDown();
+            }
+        });
+        client.connect("PipelineServer", 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                pair[1] = channel;
+                connected.countDown();
+            }
+        });
+        connected.await();
+        Channel writer = pair[1], reader = pair[0];
+
+        int[] received = new int[WRITERS];
+        CountDownLatch allRead = new CountDownLatch(1);
+        byte[] sink = new byte[4096];
+        reader.read(sink, 0, sink.length, new ReadListener() {
+            int total = 0;
+
+            @Override
+            public void read(byte[] bytes) {
+                for (byte b : bytes)
+                    received[b]++;
+                total += bytes.length;
+                if (total == WRITES)
+                    allRead.countDown();
+                else
+                    reader.read(sink, 0, sink.length, this);
+            }
+        });
+
+        AtomicInteger acknowledged = new AtomicInteger();
+        AtomicInteger partial = new AtomicInteger();
+        WriteListener listener = new WriteListener() {
+            @Override
+            public void written(byte[] bytes, int offset, int length, int written) {
+                if (written != length)
+                    partial.incrementAndGet();
+                acknowledged.incrementAndGet();
+            }
+        };
+        Thread[] threads = new Thread[WRITERS];
+        long t0 = System.nanoTime();
+        for (int i = 0; i < WRITERS; i++) {
+            byte[] value = { (byte) i };
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < WRITES / WRITERS; j++)
+                        writer.write(value, 0, 1, listener);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        boolean ok = allRead.await(60, TimeUnit.SECONDS);
+        long t1 = System.nanoTime();
+
+        for (int i = 0; i < WRITERS; i++)
+            if (received[i] != WRITES / WRITERS)
+                ok = false;
+        ok &= partial.get() == 0;
+        System.out.println("acquittées " + acknowledged.get() + ", partielles " + partial.get() + ", en "
+                + (t1 - t0) / 1_000_000 + " ms");
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,145 @@
+package event.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Connexions poolées de CQueueBroker :
+ * - une file rendue est redonnée au connect() suivant vers le même service,
+ * sans nouvelle acceptation côté serveur
+ * - le pool d'un service ne garde pas plus de files que sa limite
+ * - une file inactive trop longtemps est fermée à son échéance et n'est plus
+ * redonnée
+ * puis compare le coût d'un échange requête/réponse avec et sans pool.
+ */
+public class PooledConnectTest {
+
+    static final int MAX_IDLE = 4;
+    static final long IDLE_TIMEOUT = 200;
+    static final int EXCHANGES = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        QueueBroker server = new CQueueBroker(executor, new CBroker("PoolServer", executor));
+        CQueueBroker client = new CQueueBroker(executor, new CBroker("PoolClient", executor));
+        AtomicInteger accepted = new AtomicInteger();
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                accepted.incrementAndGet();
+                queue.setListener(new MessageQueue.Listener() {
+                    @Override
+                    public void received(byte[] msg) {
+                        queue.send(msg);
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+                });
+            }
+        });
+
+        // sans pool, chaque échange a son rendez-vous
+        double plain = exchanges(client, EXCHANGES);
+        int plainAccepts = accepted.getAndSet(0);
+
+        client.setPooling(MAX_IDLE, IDLE_TIMEOUT);
+        double pooled = exchanges(client, EXCHANGES);
+        int pooledAccepts = accepted.getAndSet(0);
+        System.out.printf("sans pool : %,.0f échanges/s, %d acceptations | avec pool : %,.0f échanges/s, %d acceptation(s)%n",
+                plain, plainAccepts, pooled, pooledAccepts);
+
+        // le pool ne garde que MAX_IDLE files
+        List<MessageQueue> queues = new ArrayList<>();
+        for (int i = 0; i < MAX_IDLE + 2; i++)
+            queues.add(connect(client));
+        int kept = 0;
+        for (MessageQueue queue : queues)
+            if (client.release(queue))
+                kept++;
+        int closed = 0;
+        for (MessageQueue queue : queues)
+            if (queue.closed())
+                closed++;
+        System.out.println((MAX_IDLE + 2) + " files rendues : " + kept + " gardées, " + closed + " fermées");
+
+        // après la durée d'inactivité, les files sont fermées par l'échéance du
+        // pool, sans attendre un release() ou un connect()
+        Thread.sleep(2 * IDLE_TIMEOUT);
+        int expired = 0;
+        for (MessageQueue queue : queues)
+            if (queue.closed())
+                expired++;
+        accepted.set(0);
+        MessageQueue fresh = connect(client);
+        // le serveur accepte après avoir lu la charge utile de la connexion
+        for (int i = 0; i < 100 && accepted.get() == 0; i++)
+            Thread.sleep(10);
+        boolean renewed = accepted.get() == 1 && !queues.contains(fresh) && expired == queues.size();
+        System.out.println("après inactivité : " + expired + " files fermées, nouvelle acceptation : " + accepted.get());
+
+        boolean ok = plainAccepts == EXCHANGES && pooledAccepts <= 1 && kept == MAX_IDLE
+                && closed == queues.size() - MAX_IDLE && renewed;
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Connecte, envoie une requête, attend la réponse et rend la file
+     * 
+     * @return les échanges par seconde
+     */
+    static double exchanges(CQueueBroker client, int count) throws InterruptedException {
+        long begin = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            MessageQueue queue = connect(client);
+            CountDownLatch answered = new CountDownLatch(1);
+            queue.setListener(new MessageQueue.Listener() {
+                @Override
+                public void received(byte[] msg) {
+                    answered.countDown();
+                }
+
+                @Override
+                public void closed() {
+                }
+            });
+            queue.send(new byte[] { (byte) i });
+            answered.await();
+            client.release(queue);
+        }
+        return count * 1e9 / (System.nanoTime() - begin);
+    }
+
+    static MessageQueue connect(CQueueBroker client) throws InterruptedException {
+        AtomicReference<MessageQueue> result = new AtomicReference<>();
+        CountDownLatch connected = new CountDownLatch(1);
+        client.connect("PoolServer", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                result.set(queue);
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+                connected.countDown();
+            }
+        });
+        connected.await(5, TimeUnit.SECONDS);
+        return result.get();
+    }
+}
@@ -0,0 +1,153 @@
+package event.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Executor;
+import event.queue.CBroker;
+
+/**
+ * Voies de priorité de la pompe :
+ * - une tâche de contrôle postée derrière des milliers de tâches de données
+ * passe avant elles
+ * - des tâches de contrôle qui se repostent sans fin n'affament pas les
+ * données
+ * - un rendez-vous se fait pendant qu'un flot de données occupe la pompe
+ */
+public class PriorityLaneTest {
+
+    static final int DATA = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        boolean ok = overtakes(executor) && starvation(executor) && rendezvous(executor);
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean overtakes(Executor executor) throws InterruptedException {
+        AtomicInteger ran = new AtomicInteger();
+        AtomicInteger seen = new AtomicInteger(-1);
+        CountDownLatch done = new CountDownLatch(1);
+        // la pompe est bloquée le temps de remplir les deux voies
+        CountDownLatch filled = new CountDownLatch(1);
+        executor.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    filled.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        for (int i = 0; i < DATA; i++)
+            executor.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (ran.incrementAndGet() == DATA)
+                        done.countDown();
+                }
+            });
+        executor.postControl(new Runnable() {
+            @Override
+            public void run() {
+                seen.set(ran.get());
+            }
+        });
+        filled.countDown();
+        boolean completed = done.await(10, TimeUnit.SECONDS);
+        System.out.println("contrôle exécuté après " + seen.get() + " tâches de données sur " + DATA);
+        return completed && seen.get() == 0;
+    }
+
+    static boolean starvation(Executor executor) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger controls = new AtomicInteger();
+        AtomicInteger atLast = new AtomicInteger();
+        CountDownLatch filled = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.post(new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    filled.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        // la pompe doit être bloquée avant que le contrôle ne passe devant
+        blocked.await();
+        executor.postControl(new Runnable() {
+            @Override
+            public void run() {
+                controls.incrementAndGet();
+                if (!stop.get())
+                    executor.postControl(this);
+            }
+        });
+        CountDownLatch data = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++)
+            executor.post(new Runnable() {
+                @Override
+                public void run() {
+                    // compté par la pompe : le thread principal peut tarder à
+                    // se réveiller pendant que le contrôle continue
+                    if (data.getCount() == 1)
+                        atLast.set(controls.get());
+                    data.countDown();
+                }
+            });
+        filled.countDown();
+        boolean served = data.await(10, TimeUnit.SECONDS);
+        stop.set(true);
+        System.out.println("données servies pendant " + atLast.get() + " tâches de contrôle");
+        return served && atLast.get() <= 1000 * Executor.CONTROL_BURST + Executor.CONTROL_BURST;
+    }
+
+    static boolean rendezvous(Executor executor) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean(false);
+        executor.post(new Runnable() {
+            @Override
+            public void run() {
+                // une tâche de données qui se reposte, et en poste d'autres
+                for (int i = 0; i < 100; i++)
+                    executor.post(new Runnable() {
+                        @Override
+                        public void run() {
+                        }
+                    });
+                if (!stop.get())
+                    executor.post(this);
+            }
+        });
+        CBroker server = new CBroker("PriorityServer", executor);
+        CBroker client = new CBroker("PriorityClient", executor);
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                connected.countDown();
+            }
+        });
+        long start = System.nanoTime();
+        client.connect("PriorityServer", 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                connected.countDown();
+            }
+        });
+        boolean done = connected.await(5, TimeUnit.SECONDS);
+        long micros = (System.nanoTime() - start) / 1000;
+        stop.set(true);
+        System.out.println("rendez-vous en " + micros + " µs sous charge");
+        return done;
+    }
+}
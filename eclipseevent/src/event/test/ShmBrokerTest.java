@@ -0,0 +1,218 @@
+package event.test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Broker;
+import event.given.Channel;
+import event.given.Executor;
+import event.given.ExecutorGroup;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.queue.CQueueBroker;
+import event.shm.ShmBroker;
+
+/**
+ * Files de messages en mémoire partagée entre deux processus : ce test lance
+ * un serveur d'écho dans une seconde JVM (java ShmBrokerTest echo
+ * répertoire), s'y connecte avec CQueueBroker sur un ShmBroker et vérifie que :
+ * - tous les messages reviennent, dans l'ordre
+ * - une demande adressée à un broker qui se ferme sans l'accepter est refusée
+ * - une demande illisible est retirée par l'accept qui la réclame
+ * - un broker qui se ferme retire ses propres demandes
+ * - aucun fichier de demande ne reste
+ */
+public class ShmBrokerTest {
+
+    static final int CLIENTS = 4;
+    static final int MESSAGES = 500;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("echo")) {
+            echo(Path.of(args[1]));
+            return;
+        }
+        Path directory = Files.createTempDirectory("shm");
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ShmBrokerTest.class.getName(), "echo", directory.toString()).inheritIO().start();
+        boolean ok = false;
+        try {
+            ok = run(directory);
+        } finally {
+            server.destroy();
+            server.waitFor();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files)
+                    Files.deleteIfExists(file);
+            } catch (IOException e) {
+            }
+            Files.deleteIfExists(directory);
+        }
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean run(Path directory) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        ShmBroker broker = new ShmBroker("ShmClient", new ExecutorGroup(executor), directory);
+        QueueBroker client = new CQueueBroker(executor, broker);
+
+        // le serveur signale qu'il existe par son fichier ShmServer.broker
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Files.exists(directory.resolve("ShmServer.broker")) && System.nanoTime() < deadline)
+            Thread.sleep(10);
+
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        AtomicInteger errors = new AtomicInteger();
+        for (int c = 0; c < CLIENTS; c++) {
+            int clientId = c;
+            client.connect("ShmServer", 1, new QueueBroker.ConnectListener() {
+                @Override
+                public void connected(MessageQueue queue) {
+                    queue.setListener(new MessageQueue.Listener() {
+                        int next = 0;
+
+                        @Override
+                        public void received(byte[] msg) {
+                            if (!Arrays.equals(msg, message(clientId, next)))
+                                errors.incrementAndGet();
+                            if (++next == MESSAGES)
+                                done.countDown();
+                        }
+
+                        @Override
+                        public void closed() {
+                        }
+                    });
+                    for (int i = 0; i < MESSAGES; i++)
+                        queue.send(message(clientId, i));
+                }
+
+                @Override
+                public void refused() {
+                    errors.incrementAndGet();
+                }
+            });
+        }
+        boolean completed = done.await(30, TimeUnit.SECONDS);
+        System.out.println(CLIENTS + " clients x " + MESSAGES + " messages, erreurs : " + errors.get());
+
+        // broker fermé sans accepter : la demande est refusée
+        ShmBroker idle = new ShmBroker("ShmIdle", new ExecutorGroup(executor), directory);
+        CountDownLatch refused = new CountDownLatch(1);
+        client.connect("ShmIdle", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                errors.incrementAndGet();
+            }
+
+            @Override
+            public void refused() {
+                refused.countDown();
+            }
+        });
+        boolean requested = awaitRequests(directory, "ShmIdle.", 1);
+        idle.close();
+        boolean refusedOnClose = refused.await(10, TimeUnit.SECONDS);
+        System.out.println("broker fermé sans accepter : demande déposée " + requested + ", refusée "
+                + refusedOnClose);
+
+        // demande illisible : l'accept qui la réclame la supprime
+        boolean invalidRemoved = false;
+        try {
+            Files.write(directory.resolve("ShmServer.1.invalid.conn"), new byte[16]);
+            invalidRemoved = awaitRequests(directory, "ShmServer.1.invalid", 0);
+        } catch (IOException e) {
+        }
+        System.out.println("demande illisible retirée : " + invalidRemoved);
+
+        // broker fermé avec une demande en attente : elle est retirée
+        ShmBroker waiting = new ShmBroker("ShmWaiting", new ExecutorGroup(executor), directory);
+        waiting.connect("ShmClient", 2, new Broker.ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                errors.incrementAndGet();
+            }
+        });
+        boolean pending = awaitRequests(directory, "ShmClient.2.", 1);
+        waiting.close();
+        boolean withdrawn = awaitRequests(directory, "ShmClient.2.", 0);
+        System.out.println("demande d'un broker fermé : déposée " + pending + ", retirée " + withdrawn);
+
+        broker.close();
+        boolean clean = awaitRequests(directory, "", 0);
+        System.out.println("fichiers de demande restants : " + !clean);
+        return completed && errors.get() == 0 && requested && refusedOnClose && invalidRemoved && pending
+                && withdrawn && clean;
+    }
+
+    /**
+     * Attend que le nombre de fichiers de demande (.conn ou .acc) dont le nom
+     * commence par prefix soit count
+     *
+     * @return true si le compte est atteint dans les 10 s
+     */
+    static boolean awaitRequests(Path directory, String prefix, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        do {
+            int found = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith(prefix) && (name.endsWith(".conn") || name.endsWith(".acc")))
+                        found++;
+                }
+            } catch (IOException e) {
+                found = -1;
+            }
+            if (found == count)
+                return true;
+            Thread.sleep(10);
+        } while (System.nanoTime() < deadline);
+        return false;
+    }
+
+    /**
+     * Serveur d'écho, jusqu'à ce que le processus soit tué
+     */
+    static void echo(Path directory) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.start();
+        QueueBroker server = new CQueueBroker(executor,
+                new ShmBroker("ShmServer", new ExecutorGroup(executor), directory));
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queue.setListener(new MessageQueue.Listener() {
+                    @Override
+                    public void received(byte[] msg) {
+                        queue.send(msg);
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+                });
+            }
+        });
+        executor.join();
+    }
+
+    static byte[] message(int client, int index) {
+        // de 1 octet à 200 Ko, plus que la capacité d'un ring
+        int size = index % 50 == 49 ? 200 * 1024 : (index * 97 + client * 13) % 3000 + 1;
+        byte[] message = new byte[size];
+        for (int i = 0; i < size; i++)
+            message[i] = (byte) (i + index + client);
+        return message;
+    }
+}
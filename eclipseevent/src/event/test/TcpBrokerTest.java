@@ -0,0 +1,112 @@
+package event.test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Executor;
+import event.given.ExecutorGroup;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.net.TcpBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Files de messages sur TCP en local : CQueueBroker sur deux TcpBroker.
+ * Plusieurs clients envoient des messages de tailles variées (jusqu'à
+ * plusieurs fois la taille des buffers des sockets) sans attendre les échos,
+ * et vérifient que le serveur les renvoie tous, dans l'ordre.
+ */
+public class TcpBrokerTest {
+
+    static final int CLIENTS = 4;
+    static final int MESSAGES = 200;
+    static final int SERVER_BASE_PORT = 24000, CLIENT_BASE_PORT = 24100;
+
+    public static void main(String[] args) throws InterruptedException {
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        ExecutorGroup pumps = new ExecutorGroup("Pump", 2);
+        for (int i = 0; i < pumps.size(); i++)
+            pumps.get(i).setDaemon(true);
+        pumps.start();
+        Executor queuePump = new Executor("QueuePump");
+        queuePump.setDaemon(true);
+        queuePump.start();
+
+        TcpBroker serverBroker = new TcpBroker("TcpServer", pumps, localhost, SERVER_BASE_PORT);
+        TcpBroker clientBroker = new TcpBroker("TcpClient", pumps, localhost, CLIENT_BASE_PORT);
+        clientBroker.route("TcpServer", localhost, SERVER_BASE_PORT);
+        QueueBroker server = new CQueueBroker(queuePump, serverBroker);
+        QueueBroker client = new CQueueBroker(queuePump, clientBroker);
+
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queue.setListener(new MessageQueue.Listener() {
+                    @Override
+                    public void received(byte[] msg) {
+                        queue.send(msg);
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+                });
+            }
+        });
+
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        AtomicInteger errors = new AtomicInteger();
+        for (int c = 0; c < CLIENTS; c++) {
+            int clientId = c;
+            client.connect("TcpServer", 1, new QueueBroker.ConnectListener() {
+                @Override
+                public void connected(MessageQueue queue) {
+                    if (!queue.getRemoteName().equals("TcpServer"))
+                        errors.incrementAndGet();
+                    queue.setListener(new MessageQueue.Listener() {
+                        int next = 0;
+
+                        @Override
+                        public void received(byte[] msg) {
+                            if (!Arrays.equals(msg, message(clientId, next)))
+                                errors.incrementAndGet();
+                            if (++next == MESSAGES)
+                                done.countDown();
+                        }
+
+                        @Override
+                        public void closed() {
+                        }
+                    });
+                    for (int i = 0; i < MESSAGES; i++)
+                        queue.send(message(clientId, i));
+                }
+
+                @Override
+                public void refused() {
+                    errors.incrementAndGet();
+                }
+            });
+        }
+        boolean completed = done.await(30, TimeUnit.SECONDS);
+        serverBroker.close();
+        clientBroker.close();
+
+        System.out.println(CLIENTS + " clients x " + MESSAGES + " messages, erreurs : " + errors.get());
+        boolean ok = completed && errors.get() == 0;
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static byte[] message(int client, int index) {
+        // de 1 octet à ~512 Ko
+        int size = index % 20 == 19 ? 512 * 1024 : (index * 97 + client * 13) % 5000 + 1;
+        byte[] message = new byte[size];
+        for (int i = 0; i < size; i++)
+            message[i] = (byte) (i + index + client);
+        return message;
+    }
+}
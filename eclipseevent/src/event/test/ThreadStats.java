@@ -0,0 +1,69 @@
+package event.test;
+
+import java.lang.reflect.Method;
+
+/**
+ * Mesures par thread des tests et benchmarks (octets alloués, temps CPU), lues
+ * par réflexion sur le ThreadMXBean de la plateforme : le module de la
+ * bibliothèque ne dépend ni de java.management ni de jdk.management. Les tests
+ * tournent sur le classpath ; si le MXBean n'est pas disponible, les mesures
+ * valent -1 et le test saute la vérification correspondante.
+ */
+final class ThreadStats {
+
+    private static final Object BEAN;
+    private static final Method ALLOCATED, CPU_TIME;
+
+    static {
+        Object bean = null;
+        Method allocated = null, cpuTime = null;
+        try {
+            bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean")
+                    .invoke(null);
+            cpuTime = Class.forName("java.lang.management.ThreadMXBean").getMethod("getThreadCpuTime", long.class);
+            Class<?> hotspot = Class.forName("com.sun.management.ThreadMXBean");
+            if (hotspot.isInstance(bean))
+                allocated = hotspot.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+        }
+        BEAN = bean;
+        ALLOCATED = allocated;
+        CPU_TIME = cpuTime;
+    }
+
+    private ThreadStats() {
+    }
+
+    /**
+     * @return true si les octets alloués par thread sont mesurables
+     */
+    static boolean allocationAvailable() {
+        return ALLOCATED != null;
+    }
+
+    /**
+     * @return les octets alloués depuis son démarrage par le thread donné, -1
+     *         si la mesure n'est pas disponible
+     */
+    static long allocatedBytes(Thread thread) {
+        return call(ALLOCATED, thread);
+    }
+
+    /**
+     * @return le temps CPU consommé par le thread donné, en nanosecondes, -1 si
+     *         la mesure n'est pas disponible
+     */
+    static long cpuTime(Thread thread) {
+        return call(CPU_TIME, thread);
+    }
+
+    private static long call(Method method, Thread thread) {
+        if (method == null)
+            return -1;
+        try {
+            return (Long) method.invoke(BEAN, thread.getId());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+}
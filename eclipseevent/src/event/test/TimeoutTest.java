@@ -0,0 +1,286 @@
+package event.test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Channel.WriteListener;
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.given.TimerWheel;
+import event.queue.CBroker;
+import event.queue.CMessageQueue;
+import event.queue.CQueueBroker;
+
+/**
+ * Échéances de la pompe :
+ * - des centaines de milliers d'échéances, dont la moitié annulées : les
+ * autres passent toutes, jamais en avance, et aucune ne reste en mémoire
+ * - une échéance programmée d'un autre thread pendant que la pompe s'endort,
+ * roue vide, passe sans attendre d'autre tâche
+ * - après une longue inactivité, la roue ne rattrape pas les ticks écoulés un
+ * à un
+ * - un connect avec délai que personne n'accepte est abandonné, et ne
+ * prend pas un accept suivant ; accepté à temps, son échéance est annulée
+ * - un canal inactif est déconnecté, un canal actif ne l'est pas
+ * - une file dont le pair ne lit plus est fermée au bout du délai d'envoi
+ */
+public class TimeoutTest {
+
+    static final int TIMEOUTS = 200_000;
+    static final int PARKED = 20_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        boolean ok = wheel(executor) && parked() && catchUp() && connect(executor) && idle(executor)
+                && send(executor);
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean wheel(Executor executor) throws InterruptedException {
+        Random random = new Random(42);
+        AtomicInteger fired = new AtomicInteger();
+        AtomicInteger early = new AtomicInteger();
+        AtomicInteger wrong = new AtomicInteger();
+        AtomicLong late = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(TIMEOUTS / 2);
+        TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[TIMEOUTS];
+        for (int i = 0; i < TIMEOUTS; i++) {
+            boolean cancelled = i % 2 == 1;
+            // les échéances à annuler tombent après la boucle d'annulation
+            long delay = (cancelled ? 3000 : 1) + random.nextInt(300);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            timeouts[i] = executor.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    long lateness = System.nanoTime() - deadline;
+                    if (lateness < 0)
+                        early.incrementAndGet();
+                    if (lateness > late.get())
+                        late.set(lateness);
+                    if (cancelled)
+                        wrong.incrementAndGet();
+                    fired.incrementAndGet();
+                    done.countDown();
+                }
+            }, delay);
+        }
+        int cancels = 0;
+        for (int i = 1; i < TIMEOUTS; i += 2)
+            if (timeouts[i].cancel())
+                cancels++;
+        boolean completed = done.await(10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        System.out.println("roue : " + fired.get() + " échéances passées, " + cancels + " annulées, "
+                + wrong.get() + " annulées passées, " + early.get() + " en avance, retard max "
+                + late.get() / 1_000_000 + " ms, " + executor.pendingTimeouts() + " restantes");
+        return completed && fired.get() == TIMEOUTS / 2 && cancels == TIMEOUTS / 2 && wrong.get() == 0
+                && early.get() == 0 && executor.pendingTimeouts() == 0;
+    }
+
+    /**
+     * Programme des échéances d'un autre thread, une à la fois, sur une pompe
+     * qui n'a rien d'autre à faire et dont la roue est vide : chacune passe
+     * sans qu'aucune tâche ne la réveille
+     */
+    static boolean parked() throws InterruptedException {
+        Executor executor = new Executor("Parked");
+        executor.setDaemon(true);
+        executor.start();
+        Random random = new Random(7);
+        int passed = 0;
+        for (int i = 0; i < PARKED; i++) {
+            // la pompe est en train de s'endormir, ou endormie
+            long until = System.nanoTime() + random.nextInt(20_000);
+            while (System.nanoTime() < until)
+                Thread.onSpinWait();
+            CountDownLatch fired = new CountDownLatch(1);
+            executor.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    fired.countDown();
+                }
+            }, 0);
+            if (fired.await(100, TimeUnit.MILLISECONDS))
+                passed++;
+        }
+        System.out.println("pompe endormie : " + passed + " échéances passées sur " + PARKED);
+        return passed == PARKED;
+    }
+
+    /**
+     * Une roue d'un tick par nanoseconde reste inactive : le premier expire()
+     * après une nouvelle échéance ne parcourt pas les centaines de millions de
+     * ticks écoulés, et l'échéance passe à l'heure
+     */
+    static boolean catchUp() throws InterruptedException {
+        TimerWheel wheel = new TimerWheel(1, TimerWheel.DEFAULT_WHEEL_SIZE);
+        wheel.expire();
+        Thread.sleep(300);
+        AtomicInteger fired = new AtomicInteger();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.incrementAndGet();
+            }
+        }, 1, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        wheel.expire();
+        long first = (System.nanoTime() - start) / 1_000_000;
+        while (fired.get() == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2))
+            wheel.expire();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("roue inactive : premier expire() en " + first + " ms, échéance passée en " + millis
+                + " ms");
+        return fired.get() == 1 && first < 50 && millis < 100;
+    }
+
+    static boolean connect(Executor executor) throws InterruptedException {
+        CBroker server = new CBroker("TimeoutServer", executor);
+        CBroker client = new CBroker("TimeoutClient", executor);
+        CountDownLatch timedOut = new CountDownLatch(1);
+        AtomicInteger connected = new AtomicInteger();
+        long start = System.nanoTime();
+        client.connect("TimeoutServer", 1, client.getBufferCapacity(), 100, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                connected.incrementAndGet();
+            }
+
+            @Override
+            public void timedOut() {
+                timedOut.countDown();
+            }
+        });
+        boolean expired = timedOut.await(2, TimeUnit.SECONDS);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        // l'accept suivant attend une nouvelle connexion
+        CountDownLatch accepted = new CountDownLatch(1);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                accepted.countDown();
+            }
+        });
+        boolean waiting = !accepted.await(200, TimeUnit.MILLISECONDS) && connected.get() == 0;
+
+        // accepté à temps : pas d'abandon, l'échéance est annulée
+        CountDownLatch late = new CountDownLatch(1);
+        client.connect("TimeoutServer", 2, client.getBufferCapacity(), 1000, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+            }
+
+            @Override
+            public void timedOut() {
+                late.countDown();
+            }
+        });
+        server.accept(2, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+            }
+        });
+        Thread.sleep(100);
+        boolean cancelled = executor.pendingTimeouts() == 0 && !late.await(1200, TimeUnit.MILLISECONDS);
+        System.out.println("connect : abandonné après " + millis + " ms");
+        return expired && millis >= 100 && waiting && cancelled;
+    }
+
+    static boolean idle(Executor executor) throws InterruptedException {
+        CBroker server = new CBroker("IdleServer", executor);
+        CBroker client = new CBroker("IdleClient", executor);
+        Channel[] pair = new Channel[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                pair[0] = channel;
+                connected.countDown();
+            }
+        });
+        client.connect("IdleServer", 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                pair[1] = channel;
+                connected.countDown();
+            }
+        });
+        connected.await();
+        Channel writer = pair[1];
+        writer.setIdleTimeout(100);
+        byte[] chunk = new byte[16];
+        WriteListener ignore = new WriteListener() {
+            @Override
+            public void written(byte[] bytes, int offset, int length, int written) {
+            }
+        };
+        for (int i = 0; i < 15; i++) {
+            writer.write(chunk, 0, chunk.length, ignore);
+            Thread.sleep(20);
+        }
+        boolean active = !writer.disconnected();
+        long start = System.nanoTime();
+        while (!writer.disconnected() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2))
+            Thread.sleep(5);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("canal : actif pendant 300 ms, déconnecté " + millis + " ms après la dernière écriture");
+        return active && writer.disconnected() && millis >= 50 && executor.pendingTimeouts() == 0;
+    }
+
+    static boolean send(Executor executor) throws InterruptedException {
+        QueueBroker server = new CQueueBroker(executor, new CBroker("SendServer", executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker("SendClient", executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect("SendServer", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        CMessageQueue sender = (CMessageQueue) queues[1];
+        CountDownLatch closed = new CountDownLatch(1);
+        sender.setListener(new MessageQueue.Listener() {
+            @Override
+            public void received(byte[] msg) {
+            }
+
+            @Override
+            public void closed() {
+                closed.countDown();
+            }
+        });
+        sender.setSendTimeout(200);
+        // le pair ne lit pas : au-delà de sa fenêtre, l'écriture cale
+        long start = System.nanoTime();
+        for (int i = 0; i < 2048; i++)
+            sender.send(new byte[1024]);
+        boolean expired = closed.await(3, TimeUnit.SECONDS);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("file : fermée " + millis + " ms après le blocage des envois");
+        return expired && sender.closed() && millis >= 200 && executor.pendingTimeouts() == 0;
+    }
+}
@@ -0,0 +1,99 @@
+package event.test;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import event.given.Broker;
+import event.given.Broker.AcceptListener;
+import event.given.Broker.ConnectListener;
+import event.given.Channel;
+import event.given.Executor;
+import event.given.ExecutorGroup;
+import event.net.NioBroker;
+import event.net.TcpBroker;
+import event.net.UnixBroker;
+import event.queue.CBroker;
+import event.shm.ShmBroker;
+
+/**
+ * Compare les transports d'un canal : CChannel dans la JVM, socket Unix,
+ * mémoire partagée et TCP en local, avec les mesures de CapacityBenchmark (transfert en masse et
+ * ping-pong de 64 octets).
+ */
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        ExecutorGroup group = new ExecutorGroup(executor);
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        Path directory = Files.createTempDirectory("bench");
+
+        CBroker cServer = new CBroker("BenchServer", executor);
+        CBroker cClient = new CBroker("BenchClient", executor);
+        cServer.setBufferCapacity(64 << 10);
+        cClient.setBufferCapacity(64 << 10);
+        run("CChannel (JVM)", cServer, cClient);
+
+        UnixBroker uServer = new UnixBroker("BenchServer", group, directory);
+        UnixBroker uClient = new UnixBroker("BenchClient", group, directory);
+        run("socket Unix", uServer, uClient);
+        close(uServer, uClient);
+
+        ShmBroker sServer = new ShmBroker("BenchServer", group, directory);
+        ShmBroker sClient = new ShmBroker("BenchClient", group, directory);
+        run("mémoire partagée", sServer, sClient);
+        sServer.close();
+        sClient.close();
+
+        TcpBroker tServer = new TcpBroker("BenchServer", group, localhost, 26000);
+        TcpBroker tClient = new TcpBroker("BenchClient", group, localhost, 26100);
+        tClient.route("BenchServer", localhost, 26000);
+        run("TCP (loopback)", tServer, tClient);
+        close(tServer, tClient);
+
+        Files.deleteIfExists(directory);
+        System.exit(0);
+    }
+
+    static void run(String transport, Broker server, Broker client) throws InterruptedException {
+        Channel[] pair = connect(server, client);
+        // un premier passage pour chauffer la JIT
+        CapacityBenchmark.pingPong(pair[1], pair[0]);
+        double bulk = CapacityBenchmark.bulk(pair[1], pair[0]);
+        double rpc = CapacityBenchmark.pingPong(pair[1], pair[0]);
+        System.out.printf("%-16s : masse %8.1f Mo/s | ping-pong %,10.0f allers-retours/s (%.1f µs)%n", transport,
+                bulk, rpc, 1e6 / rpc);
+        pair[0].disconnect();
+        pair[1].disconnect();
+    }
+
+    static Channel[] connect(Broker server, Broker client) throws InterruptedException {
+        Channel[] pair = new Channel[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.accept(1, new AcceptListener() {
+            @Override
+            public void accepted(Channel channel) {
+                pair[0] = channel;
+                connected.countDown();
+            }
+        });
+        client.connect(server.getName(), 1, new ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                pair[1] = channel;
+                connected.countDown();
+            }
+        });
+        connected.await();
+        return pair;
+    }
+
+    static void close(NioBroker... brokers) {
+        for (NioBroker broker : brokers)
+            broker.close();
+    }
+}
@@ -0,0 +1,229 @@
+package event.test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import event.given.Broker;
+import event.given.Channel;
+import event.given.Executor;
+import event.given.ExecutorGroup;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.net.UnixBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Files de messages sur sockets Unix entre deux processus : ce test lance un
+ * serveur d'écho dans une seconde JVM (java UnixBrokerTest echo répertoire) et
+ * vérifie que :
+ * - tous les messages de plusieurs clients reviennent, dans l'ordre
+ * - le nom d'un broker vivant, de cet autre processus ou de celui-ci, ne peut
+ * pas être repris
+ * - une fois le serveur tué, ses fichiers restants ne le font plus passer
+ * pour vivant, et un nouveau broker du même nom les reprend et accepte des
+ * connexions
+ */
+public class UnixBrokerTest {
+
+    static final int CLIENTS = 4;
+    static final int MESSAGES = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("echo")) {
+            echo(Path.of(args[1]));
+            return;
+        }
+        Path directory = Files.createTempDirectory("unix");
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                UnixBrokerTest.class.getName(), "echo", directory.toString()).inheritIO().start();
+        boolean ok = false;
+        try {
+            ok = run(directory, server);
+        } finally {
+            server.destroyForcibly();
+            server.waitFor();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files)
+                    Files.deleteIfExists(file);
+            } catch (IOException e) {
+            }
+            Files.deleteIfExists(directory);
+        }
+        System.out.println(ok ? "Test passed" : "Test failed");
+        System.exit(ok ? 0 : 1);
+    }
+
+    static boolean run(Path directory, Process server) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.setDaemon(true);
+        executor.start();
+        ExecutorGroup pumps = new ExecutorGroup(executor);
+        UnixBroker broker = new UnixBroker("UnixClient", pumps, directory);
+        QueueBroker client = new CQueueBroker(executor, broker);
+
+        // le serveur écoute une fois son nom pris
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(directory.resolve("UnixServer.1.sock")) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        AtomicInteger errors = new AtomicInteger();
+        for (int c = 0; c < CLIENTS; c++) {
+            int clientId = c;
+            boolean found = client.connect("UnixServer", 1, new QueueBroker.ConnectListener() {
+                @Override
+                public void connected(MessageQueue queue) {
+                    if (!queue.getRemoteName().equals("UnixServer"))
+                        errors.incrementAndGet();
+                    queue.setListener(new MessageQueue.Listener() {
+                        int next = 0;
+
+                        @Override
+                        public void received(byte[] msg) {
+                            if (!Arrays.equals(msg, message(clientId, next)))
+                                errors.incrementAndGet();
+                            if (++next == MESSAGES)
+                                done.countDown();
+                        }
+
+                        @Override
+                        public void closed() {
+                        }
+                    });
+                    for (int i = 0; i < MESSAGES; i++)
+                        queue.send(message(clientId, i));
+                }
+
+                @Override
+                public void refused() {
+                    errors.incrementAndGet();
+                }
+            });
+            if (!found)
+                errors.incrementAndGet();
+        }
+        boolean completed = done.await(30, TimeUnit.SECONDS);
+        System.out.println(CLIENTS + " clients x " + MESSAGES + " messages, erreurs : " + errors.get());
+
+        // noms tenus par des brokers vivants
+        boolean remoteTaken = taken("UnixServer", pumps, directory);
+        boolean localTaken = taken("UnixClient", pumps, directory);
+        System.out.println("nom pris par l'autre processus : " + remoteTaken + ", par celui-ci : " + localTaken);
+
+        // serveur tué sans fermeture : ses fichiers restent
+        server.destroyForcibly();
+        server.waitFor();
+        boolean leftOver = Files.exists(directory.resolve("UnixServer.broker"))
+                && Files.exists(directory.resolve("UnixServer.1.sock"));
+        boolean dead = !broker.connect("UnixServer", 1, new Broker.ConnectListener() {
+            @Override
+            public void connected(Channel channel) {
+                errors.incrementAndGet();
+            }
+        });
+        boolean reclaimed = reclaim(executor, pumps, directory, client);
+        System.out.println("serveur tué : fichiers restants " + leftOver + ", vu mort " + dead + ", nom repris "
+                + reclaimed);
+        broker.close();
+
+        return completed && errors.get() == 0 && remoteTaken && localTaken && leftOver && dead && reclaimed;
+    }
+
+    /**
+     * @return true si créer un broker du nom donné est refusé
+     */
+    static boolean taken(String name, ExecutorGroup pumps, Path directory) {
+        try {
+            new UnixBroker(name, pumps, directory).close();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Crée un broker du nom du serveur mort, lui fait accepter une connexion et
+     * vérifie l'écho d'un message
+     */
+    static boolean reclaim(Executor executor, ExecutorGroup pumps, Path directory, QueueBroker client)
+            throws InterruptedException {
+        UnixBroker broker;
+        try {
+            broker = new UnixBroker("UnixServer", pumps, directory);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        new CQueueBroker(executor, broker).bind(1, echoListener());
+        byte[] sent = message(0, 7);
+        CountDownLatch echoed = new CountDownLatch(1);
+        client.connect("UnixServer", 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queue.setListener(new MessageQueue.Listener() {
+                    @Override
+                    public void received(byte[] msg) {
+                        if (Arrays.equals(msg, sent))
+                            echoed.countDown();
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+                });
+                queue.send(sent);
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        boolean ok = echoed.await(10, TimeUnit.SECONDS);
+        broker.close();
+        return ok && !Files.exists(directory.resolve("UnixServer.broker"));
+    }
+
+    /**
+     * Serveur d'écho de la seconde JVM, jusqu'à ce qu'elle soit tuée
+     */
+    static void echo(Path directory) throws InterruptedException {
+        Executor executor = new Executor("Executor");
+        executor.start();
+        UnixBroker broker = new UnixBroker("UnixServer", new ExecutorGroup(executor), directory);
+        new CQueueBroker(executor, broker).bind(1, echoListener());
+        executor.join();
+    }
+
+    static QueueBroker.AcceptListener echoListener() {
+        return new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queue.setListener(new MessageQueue.Listener() {
+                    @Override
+                    public void received(byte[] msg) {
+                        queue.send(msg);
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+                });
+            }
+        };
+    }
+
+    static byte[] message(int client, int index) {
+        // de 1 octet à 256 Ko
+        int size = index % 20 == 19 ? 256 * 1024 : (index * 97 + client * 13) % 5000 + 1;
+        byte[] message = new byte[size];
+        for (int i = 0; i < size; i++)
+            message[i] = (byte) (i + index + client);
+        return message;
+    }
+}
@@ -0,0 +1,119 @@
+package event.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import event.given.Executor;
+import event.given.MessageQueue;
+import event.given.QueueBroker;
+import event.given.WaitStrategy;
+import event.queue.CBroker;
+import event.queue.CQueueBroker;
+
+/**
+ * Latence d'un ping-pong entre un thread client et une file d'écho, pour
+ * chaque stratégie d'attente de la pompe. Le client laisse la pompe se vider
+ * entre deux pings, si bien que chaque ping mesure une reprise de la pompe
+ * inactive, et attend la réponse sans dormir, en cédant le processeur
+ * (nécessaire si la machine n'a qu'un cœur).
+ */
+public class WaitStrategyBenchmark {
+
+    static final int PINGS = 20_000;
+    static final int WARMUP = 2_000;
+    // pause du client entre deux pings
+    static final long THINK = 50_000;
+
+    static int run = 0;
+    static volatile boolean answered;
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] names = { "blocking", "spin-then-park", "spin-then-yield", "busy-spin" };
+        WaitStrategy[] strategies = { WaitStrategy.BLOCKING, WaitStrategy.spinThenPark(1000, 1_000_000),
+                WaitStrategy.spinThenYield(1000), WaitStrategy.BUSY_SPIN };
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processeurs");
+        for (int i = 0; i < strategies.length; i++)
+            run(names[i], strategies[i]);
+        System.exit(0);
+    }
+
+    static void run(String name, WaitStrategy strategy) throws InterruptedException {
+        run++;
+        Executor executor = new Executor("Executor" + run);
+        executor.setDaemon(true);
+        executor.setWaitStrategy(strategy);
+        executor.start();
+        MessageQueue[] queues = queues(executor);
+        MessageQueue echo = queues[0], client = queues[1];
+        echo.setListener(new MessageQueue.Listener() {
+            @Override
+            public void received(byte[] msg) {
+                echo.send(msg);
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+        client.setListener(new MessageQueue.Listener() {
+            @Override
+            public void received(byte[] msg) {
+                answered = true;
+            }
+
+            @Override
+            public void closed() {
+            }
+        });
+
+        byte[] ping = new byte[32];
+        long[] latencies = new long[PINGS];
+        long cpu = ThreadStats.cpuTime(executor);
+        long start = System.nanoTime();
+        for (int i = -WARMUP; i < PINGS; i++) {
+            LockSupport.parkNanos(THINK);
+            answered = false;
+            long sent = System.nanoTime();
+            client.send(ping);
+            while (!answered)
+                Thread.yield();
+            if (i >= 0)
+                latencies[i] = System.nanoTime() - sent;
+        }
+        double busy = (double) (ThreadStats.cpuTime(executor) - cpu) / (System.nanoTime() - start);
+        echo.close();
+        client.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-16s : p50 %,7d ns | p99 %,9d ns | p99.9 %,9d ns | pompe occupée %3.0f %%%n", name,
+                latencies[PINGS / 2], latencies[PINGS * 99 / 100], latencies[PINGS * 999 / 1000], busy * 100);
+    }
+
+    static MessageQueue[] queues(Executor executor) throws InterruptedException {
+        QueueBroker server = new CQueueBroker(executor, new CBroker("WaitServer" + run, executor));
+        QueueBroker client = new CQueueBroker(executor, new CBroker("WaitClient" + run, executor));
+        MessageQueue[] queues = new MessageQueue[2];
+        CountDownLatch connected = new CountDownLatch(2);
+        server.bind(1, new QueueBroker.AcceptListener() {
+            @Override
+            public void accepted(MessageQueue queue) {
+                queues[0] = queue;
+                connected.countDown();
+            }
+        });
+        client.connect("WaitServer" + run, 1, new QueueBroker.ConnectListener() {
+            @Override
+            public void connected(MessageQueue queue) {
+                queues[1] = queue;
+                connected.countDown();
+            }
+
+            @Override
+            public void refused() {
+            }
+        });
+        connected.await();
+        return queues;
+    }
+}